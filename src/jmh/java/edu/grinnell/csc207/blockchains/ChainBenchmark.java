@@ -0,0 +1,198 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of appending to, checking, and looking up balances in chains of several lengths. Every
+ * hash is valid, so building the chains costs one hash per block. The longest chains need a large
+ * heap; pass -Djmh.params="-p blocks=1000" to skip them.
+ *
+ * <p>A single append takes about a microsecond, too little to time on its own or to set up for
+ * before each call, so append is timed over a batch of APPENDS blocks mined beforehand, on a chain
+ * rebuilt for each iteration so that every batch starts from the same length.
+ *
+ * @author Harrison Zhu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ChainBenchmark {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The number of users the transactions are spread across. */
+  private static final int USERS = 100;
+
+  /** The number of blocks appended at once while building a chain. */
+  private static final int BATCH = 1000;
+
+  /** The number of blocks appended in each iteration of the append benchmark. */
+  static final int APPENDS = 10000;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The number of blocks in the chain. */
+  @Param({"1000", "100000", "1000000"})
+  public int blocks;
+
+  /** The chain. */
+  private BlockChain chain;
+
+  // +-------+-------------------------------------------------------
+  // | Setup |
+  // +-------+
+
+  /** Build the chain. */
+  @Setup(Level.Trial)
+  public void setup() {
+    this.chain = ChainBenchmark.build(this.blocks);
+  } // setup()
+
+  /**
+   * Build a chain of deposits to and payments between a few users.
+   *
+   * @param size The number of blocks.
+   * @return the chain.
+   */
+  static BlockChain build(int size) {
+    BlockChain built = new BlockChain((hash) -> true);
+    List<Block> batch = new ArrayList<Block>(BATCH);
+    while (built.getSize() < size) {
+      int num = built.getSize();
+      for (int i = 0; i < BATCH && num + i < size; i++) {
+        batch.add(ChainBenchmark.blockFor(built, num + i, batch));
+      } // for
+      built.appendAll(batch);
+      batch.clear();
+    } // while
+    return built;
+  } // build(int)
+
+  /**
+   * Make a block of a chain being built: every other block is a deposit, and the rest pay half of
+   * it on to the next user.
+   *
+   * @param built The chain.
+   * @param num The number of the block.
+   * @param batch The blocks before it that are not yet on the chain.
+   * @return the block.
+   */
+  private static Block blockFor(BlockChain built, int num, List<Block> batch) {
+    int k = (num - 1) / 2;
+    String user = "U" + (k % USERS);
+    Transaction t =
+        (num % 2 == 1)
+            ? new Transaction("", user, 2)
+            : new Transaction(user, "U" + ((k + 1) % USERS), 1);
+    Block prev = batch.isEmpty() ? null : batch.get(batch.size() - 1);
+    return new Block(num, t, (prev == null) ? built.getHash() : prev.getHash(), (hash) -> true);
+  } // blockFor(BlockChain, int, List<Block>)
+
+  // +------------+--------------------------------------------------
+  // | Benchmarks |
+  // +------------+
+
+  /**
+   * Append one block to the end of a chain. Each iteration times APPENDS calls together, so the
+   * result is the time for the whole batch.
+   *
+   * @param appends The chain and the blocks to append to it.
+   * @return the new size of the chain.
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 3, batchSize = APPENDS)
+  @Measurement(iterations = 5, batchSize = APPENDS)
+  public int append(Appends appends) {
+    appends.chain.append(appends.blocks.get(appends.next++));
+    return appends.chain.getSize();
+  } // append(Appends)
+
+  /**
+   * Check the whole chain.
+   *
+   * @return the chain.
+   * @throws Exception if the chain is invalid, which it never is.
+   */
+  @Benchmark
+  public BlockChain check() throws Exception {
+    this.chain.check();
+    return this.chain;
+  } // check()
+
+  /**
+   * Look up a current balance.
+   *
+   * @return the balance.
+   */
+  @Benchmark
+  public long balance() {
+    return this.chain.balance("U7");
+  } // balance()
+
+  /**
+   * Look up a balance halfway along the chain.
+   *
+   * @return the balance.
+   */
+  @Benchmark
+  public long balanceHalfway() {
+    return this.chain.balance("U7", this.blocks / 2);
+  } // balanceHalfway()
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /** A chain and the blocks to append to it, mined beforehand so that append times only appends. */
+  @State(Scope.Thread)
+  public static class Appends {
+    /** The chain, with as many blocks as the benchmark's. */
+    BlockChain chain;
+
+    /** The blocks to append, in order. */
+    List<Block> blocks;
+
+    /** The position of the next block to append. */
+    int next;
+
+    /**
+     * Build a fresh chain and mine the blocks that will follow it, so that the chain does not grow
+     * from one iteration to the next.
+     *
+     * @param bench The benchmark, for the number of blocks.
+     */
+    @Setup(Level.Iteration)
+    public void prepare(ChainBenchmark bench) {
+      this.chain = ChainBenchmark.build(bench.blocks);
+      this.blocks = new ArrayList<Block>(APPENDS);
+      ChainSnapshot tip = this.chain.snapshot();
+      for (int i = 0; i < APPENDS; i++) {
+        this.blocks.add(
+            this.chain.mineAfter(tip, this.blocks, List.of(new Transaction("", "U0", 1))));
+      } // for
+      this.next = 0;
+    } // prepare(ChainBenchmark)
+  } // class Appends
+} // class ChainBenchmark
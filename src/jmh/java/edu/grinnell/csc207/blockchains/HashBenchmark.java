@@ -0,0 +1,102 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of hashing blocks and of comparing and hashing hashes.
+ *
+ * @author Harrison Zhu
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashBenchmark {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** A block to hash. */
+  private Block block;
+
+  /** A hash. */
+  private Hash hash;
+
+  /** A hash equal to, but not the same object as, hash. */
+  private Hash same;
+
+  /** A hash that differs from hash only in its last byte. */
+  private Hash other;
+
+  // +-------+-------------------------------------------------------
+  // | Setup |
+  // +-------+
+
+  /** Build the block and hashes. */
+  @Setup
+  public void setup() {
+    Block first = new Block(0, new Transaction("", "", 0), null, 0);
+    this.block = new Block(1, new Transaction("Alice", "Bob", 100), first.getHash(), 12345);
+    this.hash = this.block.getHash();
+    this.same = new Hash(this.hash.getBytes());
+    byte[] bytes = this.hash.getBytes();
+    bytes[bytes.length - 1]++;
+    this.other = new Hash(bytes);
+  } // setup()
+
+  // +------------+--------------------------------------------------
+  // | Benchmarks |
+  // +------------+
+
+  /**
+   * Hash a block from scratch.
+   *
+   * @return the hash.
+   */
+  @Benchmark
+  public Hash computeHash() {
+    return Block.computeHash(this.block);
+  } // computeHash()
+
+  /**
+   * Compare equal hashes.
+   *
+   * @return whether they are equal.
+   */
+  @Benchmark
+  public boolean equalsSame() {
+    return this.hash.equals(this.same);
+  } // equalsSame()
+
+  /**
+   * Compare hashes that differ only at the end.
+   *
+   * @return whether they are equal.
+   */
+  @Benchmark
+  public boolean equalsOther() {
+    return this.hash.equals(this.other);
+  } // equalsOther()
+
+  /**
+   * Hash a hash, as a key of a hash table would.
+   *
+   * @return the hash code.
+   */
+  @Benchmark
+  public int hashCodeOf() {
+    return this.same.hashCode();
+  } // hashCodeOf()
+} // class HashBenchmark
@@ -0,0 +1,81 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of mining a block at several difficulties. Each block has a different transaction, so
+ * the number of nonces tried varies from block to block, around 2^bits on average. Blocks are mined
+ * against a LeadingZeroBitsValidator, as chains mine them, which lets the hasher reject most nonces
+ * by comparing the first eight bytes of the digest; a lambda that builds each Hash shows what that
+ * saves.
+ *
+ * @author Harrison Zhu
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MiningBenchmark {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The number of leading zero bits a valid hash needs. */
+  @Param({"0", "8", "12", "16"})
+  public int bits;
+
+  /** The kind of validator: "digest" to check raw digests, or "lambda" to check each Hash. */
+  @Param({"digest", "lambda"})
+  public String validator;
+
+  /** The validator. */
+  private HashValidator check;
+
+  /** The hash of the previous block. */
+  private Hash prevHash;
+
+  /** The amount of the next transaction, so every block differs. */
+  private int amount;
+
+  // +-------+-------------------------------------------------------
+  // | Setup |
+  // +-------+
+
+  /** Build the validator and the previous block. */
+  @Setup
+  public void setup() {
+    int needed = this.bits;
+    this.check =
+        this.validator.equals("lambda")
+            ? (hash) -> hash.leadingZeroBits() >= needed
+            : new LeadingZeroBitsValidator(needed);
+    this.prevHash = new Block(0, new Transaction("", "", 0), null, 0).getHash();
+  } // setup()
+
+  // +------------+--------------------------------------------------
+  // | Benchmarks |
+  // +------------+
+
+  /**
+   * Mine one block.
+   *
+   * @return the block.
+   */
+  @Benchmark
+  public Block mine() {
+    return new Block(1, new Transaction("", "Miner", this.amount++), this.prevHash, this.check);
+  } // mine()
+} // class MiningBenchmark
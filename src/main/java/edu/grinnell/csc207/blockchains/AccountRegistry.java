@@ -0,0 +1,184 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * A table that interns the names of users, giving each a dense account number: the first name
+ * interned gets 0, the next 1, and so on. Numbers are never reused or withdrawn, so balances can be
+ * kept in arrays indexed by account number.
+ *
+ * <p>Names are found by open addressing with linear probing. Interning holds the lock of the
+ * registry, but looking up a name or a number does not: a new name is published with a release
+ * write after its number, and a larger table is published only once it is full.
+ *
+ * @author Harrison Zhu
+ */
+public class AccountRegistry {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The initial number of slots in the table. */
+  private static final int INITIAL_CAPACITY = 64;
+
+  /** Reads and writes the names in a table with memory ordering. */
+  private static final VarHandle NAMES = MethodHandles.arrayElementVarHandle(String[].class);
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The table of names. */
+  private volatile Table table = new Table(INITIAL_CAPACITY);
+
+  /** The names, by account number. Only the first count are in use. */
+  private volatile String[] names = new String[INITIAL_CAPACITY / 2];
+
+  /** The number of names interned. */
+  private volatile int count;
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Find the slot of a name in a table.
+   *
+   * @param t The table.
+   * @param name The name.
+   * @return the slot holding the name, or the empty slot where it would go.
+   */
+  private static int slot(Table t, String name) {
+    int mask = t.names.length - 1;
+    int h = name.hashCode();
+    int i = (h ^ (h >>> 16)) & mask;
+    while (true) {
+      String there = (String) NAMES.getAcquire(t.names, i);
+      if (there == null || there.equals(name)) {
+        return i;
+      } // if
+      i = (i + 1) & mask;
+    } // while
+  } // slot(Table, String)
+
+  /**
+   * Put a name in a table. The number is written before the name, so a reader that finds the name
+   * also finds its number.
+   *
+   * @param t The table, which must have an empty slot.
+   * @param name The name, which must not be in the table.
+   * @param id Its account number.
+   */
+  private static void insert(Table t, String name, int id) {
+    int i = AccountRegistry.slot(t, name);
+    t.ids[i] = id;
+    NAMES.setRelease(t.names, i, name);
+  } // insert(Table, String, int)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the number of names interned.
+   *
+   * @return the number of accounts.
+   */
+  public int size() {
+    return this.count;
+  } // size()
+
+  /**
+   * Find the account number of a name.
+   *
+   * @param name The name.
+   * @return the account number, or -1 if the name has not been interned.
+   */
+  public int lookup(String name) {
+    Table t = this.table;
+    int i = AccountRegistry.slot(t, name);
+    return (NAMES.getAcquire(t.names, i) == null) ? -1 : t.ids[i];
+  } // lookup(String)
+
+  /**
+   * Get the account number of a name, giving it the next number if it has none.
+   *
+   * @param name The name.
+   * @return the account number.
+   */
+  public int intern(String name) {
+    int id = this.lookup(name);
+    return (id >= 0) ? id : this.add(name);
+  } // intern(String)
+
+  /**
+   * Give a name the next account number, unless another thread got there first.
+   *
+   * @param name The name.
+   * @return the account number.
+   */
+  private synchronized int add(String name) {
+    int id = this.lookup(name);
+    if (id >= 0) {
+      return id;
+    } // if
+    id = this.count;
+    if (id == this.names.length) {
+      String[] bigger = new String[id * 2];
+      System.arraycopy(this.names, 0, bigger, 0, id);
+      this.names = bigger;
+    } // if
+    this.names[id] = name;
+    if (2 * (id + 1) > this.table.names.length) {
+      Table bigger = new Table(this.table.names.length * 2);
+      for (int i = 0; i < id; i++) {
+        AccountRegistry.insert(bigger, this.names[i], i);
+      } // for
+      AccountRegistry.insert(bigger, name, id);
+      this.table = bigger;
+    } else {
+      AccountRegistry.insert(this.table, name, id);
+    } // if else
+    this.count = id + 1;
+    return id;
+  } // add(String)
+
+  /**
+   * Get the name with an account number.
+   *
+   * @param id The account number.
+   * @return the name.
+   * @throws IndexOutOfBoundsException if no name has that number.
+   */
+  public String name(int id) {
+    int size = this.count;
+    if (id < 0 || id >= size) {
+      throw new IndexOutOfBoundsException("No account " + id + " in " + size);
+    } // if
+    return this.names[id];
+  } // name(int)
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /** A table of names and their numbers. */
+  private static final class Table {
+    /** The names, or null for empty slots. */
+    final String[] names;
+
+    /** The account numbers, in the slots of their names. */
+    final int[] ids;
+
+    /**
+     * Create an empty table.
+     *
+     * @param capacity The number of slots, a power of two.
+     */
+    Table(int capacity) {
+      this.names = new String[capacity];
+      this.ids = new int[capacity];
+    } // Table(int)
+  } // class Table
+} // class AccountRegistry
@@ -0,0 +1,124 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Changeable balances, kept as primitive longs in an array indexed by account number. Applying a
+ * transaction interns its source and target and updates two slots, without boxing, so this is the
+ * ledger to use for one pass over a whole chain. Use Ledger for balances that must be kept.
+ *
+ * @author Harrison Zhu
+ */
+public class Balances {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The registry that numbers the users. */
+  private final AccountRegistry accounts;
+
+  /** The balances, by account number. */
+  private long[] values = new long[64];
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create balances that are all 0.
+   *
+   * @param registry The registry that numbers the users.
+   */
+  public Balances(AccountRegistry registry) {
+    this.accounts = registry;
+  } // Balances(AccountRegistry)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Add to the balance of a user.
+   *
+   * @param user The user.
+   * @param amount The amount to add.
+   */
+  private void add(String user, long amount) {
+    int id = this.accounts.intern(user);
+    if (id >= this.values.length) {
+      this.values = Arrays.copyOf(this.values, Math.max(id + 1, this.values.length * 2));
+    } // if
+    this.values[id] += amount;
+  } // add(String, long)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the balance of a user.
+   *
+   * @param user The user.
+   * @return the balance, or 0 if the user has none.
+   */
+  public long balance(String user) {
+    int id = this.accounts.lookup(user);
+    return (id < 0 || id >= this.values.length) ? 0 : this.values[id];
+  } // balance(String)
+
+  /**
+   * Determine whether a transaction is legal against these balances, as Ledger.isValid does.
+   *
+   * @param transaction The transaction.
+   * @return true if the transaction is legal and false otherwise.
+   */
+  public boolean isValid(Transaction transaction) {
+    return transaction.getAmount() >= 0
+        && (transaction.getSource().equals("")
+            || this.balance(transaction.getSource()) >= transaction.getAmount());
+  } // isValid(Transaction)
+
+  /**
+   * Apply a transaction, as Ledger.apply does. Does not check that the transaction is valid.
+   *
+   * @param transaction The transaction.
+   */
+  public void apply(Transaction transaction) {
+    if (!transaction.getSource().equals("")) {
+      this.add(transaction.getSource(), -(long) transaction.getAmount());
+    } // if
+    if (!transaction.getTarget().equals("")) {
+      this.add(transaction.getTarget(), transaction.getAmount());
+    } // if
+  } // apply(Transaction)
+
+  /**
+   * Apply the transactions of a block, in order. Does not check that they are valid.
+   *
+   * @param transactions The transactions.
+   */
+  public void apply(List<Transaction> transactions) {
+    for (Transaction transaction : transactions) {
+      this.apply(transaction);
+    } // for
+  } // apply(List<Transaction>)
+
+  /**
+   * Apply the transactions of a block, in order, as long as each is legal against the balances left
+   * by the ones before it.
+   *
+   * @param transactions The transactions.
+   * @return true if every transaction was legal and false otherwise, in which case only those
+   *     before the first illegal one have been applied.
+   */
+  public boolean applyValid(List<Transaction> transactions) {
+    for (Transaction transaction : transactions) {
+      if (!this.isValid(transaction)) {
+        return false;
+      } // if
+      this.apply(transaction);
+    } // for
+    return true;
+  } // applyValid(List<Transaction>)
+} // class Balances
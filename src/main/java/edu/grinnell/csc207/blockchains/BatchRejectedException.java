@@ -0,0 +1,58 @@
+package edu.grinnell.csc207.blockchains;
+
+/**
+ * Thrown when a batch of blocks cannot be appended to a chain. No block of the batch is appended.
+ *
+ * @author Harrison Zhu
+ */
+public class BatchRejectedException extends IllegalArgumentException {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** Version of the serialized form. */
+  private static final long serialVersionUID = 1L;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** Why the batch was rejected. */
+  private final transient ValidationResult result;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create an exception for a failed validation.
+   *
+   * @param failure The failed validation, with indices relative to the start of the batch.
+   */
+  public BatchRejectedException(ValidationResult failure) {
+    super("Batch rejected: " + failure);
+    this.result = failure;
+  } // BatchRejectedException(ValidationResult)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the failed validation.
+   *
+   * @return the validation result.
+   */
+  public ValidationResult getResult() {
+    return this.result;
+  } // getResult()
+
+  /**
+   * Get the position in the batch of the first block that failed.
+   *
+   * @return the index of the block.
+   */
+  public int getIndex() {
+    return this.result.getIndex();
+  } // getIndex()
+} // class BatchRejectedException
@@ -1,12 +1,18 @@
 package edu.grinnell.csc207.blockchains;
 
-import java.nio.ByteBuffer;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Random;
+import java.util.Collections;
+import java.util.List;
 
 /**
- * Blocks to be stored in blockchains.
+ * Blocks to be stored in blockchains. A block holds an ordered list of one or more transactions. A
+ * block with one transaction is hashed as it always has been, over the transaction itself; a block
+ * with several is hashed over their Merkle root instead, so mining it costs no more than mining a
+ * block with one.
+ *
+ * <p>A block on a chain whose difficulty is retargeted also carries the target it was mined against
+ * and the time it was mined, and its hash covers both, so neither can be changed without mining the
+ * block again. Blocks on chains with fixed validators carry no target, and are hashed without
+ * either.
  *
  * @author Harrison Zhu
  * @author Samuel A. Rebelsky
@@ -18,9 +24,12 @@ public class Block {
   /** Block Number. */
   private int numBlocks;
 
-  /** Transaction. */
+  /** Transaction. The first, if there are several. */
   Transaction transaction;
 
+  /** The transactions, if there are several, or null if there is just the one. */
+  private List<Transaction> batch;
+
   /** Previous Hash. */
   private Hash previousHash;
 
@@ -30,22 +39,17 @@ public class Block {
   /** Nonce. */
   long nonce;
 
-  /** Message Digest instance. */
-  private static MessageDigest md;
+  /** Difficulty target in force for the block, in compact form, or 0 if the chain has none. */
+  private int target;
 
-  /** Integer byte buffer. Used in computing hash. */
-  private static ByteBuffer integerByteBuffer = ByteBuffer.allocate(Integer.BYTES);
+  /** When mining the block started, in milliseconds since the epoch. */
+  private long minedAt;
 
-  /** Long byte buffer. Used in computing hash. */
-  private static ByteBuffer longByteBuffer = ByteBuffer.allocate(Long.BYTES);
+  /** When the block was appended to a chain, in milliseconds since the epoch, or 0 if never. */
+  private long appendedAt;
 
-  static {
-    try {
-      md = MessageDigest.getInstance("SHA-256");
-    } catch (NoSuchAlgorithmException e) {
-      throw new RuntimeException("Failed to initialize MessageDigest", e);
-    } // try catch
-  } // static initializer
+  /** One hasher per thread, so that blocks can be hashed concurrently. */
+  private static final ThreadLocal<BlockHasher> HASHERS = ThreadLocal.withInitial(BlockHasher::new);
 
   // +--------------+------------------------------------------------
   // | Constructors |
@@ -61,13 +65,25 @@ public class Block {
    * @param check The validator used to check the block.
    */
   public Block(int num, Transaction theTransaction, Hash prevHash, HashValidator check) {
-    this.numBlocks = num;
-    this.transaction = theTransaction;
-    this.previousHash = prevHash;
+    this(num, Collections.singletonList(theTransaction), prevHash, check);
+  } // Block(int, Transaction, Hash, HashValidator)
+
+  /**
+   * Create a new block from the specified block number, transactions, and previous hash, mining to
+   * choose a nonce that meets the requirements of the validator.
+   *
+   * @param num The number of the block.
+   * @param theTransactions The transactions for the block, in the order they apply.
+   * @param prevHash The hash of the previous block.
+   * @param check The validator used to check the block.
+   * @throws IllegalArgumentException if there are no transactions.
+   */
+  public Block(int num, List<Transaction> theTransactions, Hash prevHash, HashValidator check) {
+    this(num, theTransactions, prevHash, 0, System.currentTimeMillis());
     if (check != null) {
       this.mine(check);
     } // if
-  } // Block(int, Transaction, Hash, HashValidator)
+  } // Block(int, List<Transaction>, Hash, HashValidator)
 
   /**
    * Create a new block, computing the hash for the block.
@@ -78,15 +94,79 @@ public class Block {
    * @param theNonce The nonce of the block.
    */
   public Block(int num, Transaction theTransaction, Hash prevHash, long theNonce) {
-    this(num, theTransaction, prevHash, null);
+    this(num, Collections.singletonList(theTransaction), prevHash, theNonce);
+  } // Block(int, Transaction, Hash, long)
+
+  /**
+   * Create a new block with several transactions, computing the hash for the block.
+   *
+   * @param num The number of the block.
+   * @param theTransactions The transactions for the block, in the order they apply.
+   * @param prevHash The hash of the previous block.
+   * @param theNonce The nonce of the block.
+   * @throws IllegalArgumentException if there are no transactions.
+   */
+  public Block(int num, List<Transaction> theTransactions, Hash prevHash, long theNonce) {
+    this(num, theTransactions, prevHash, (HashValidator) null);
     this.nonce = theNonce;
     this.computeHash();
-  } // Block(int, Transaction, Hash, long)
+  } // Block(int, List<Transaction>, Hash, long)
+
+  /**
+   * Create a block that has yet to be mined, stamped with the target it is to be mined against and
+   * the time mining starts. The hash covers both if the target is not 0.
+   *
+   * @param num The number of the block.
+   * @param theTransactions The transactions for the block, in the order they apply.
+   * @param prevHash The hash of the previous block.
+   * @param compact The difficulty target, in compact form, or 0 if the chain has none.
+   * @param millis The time mining starts, in milliseconds since the epoch.
+   * @throws IllegalArgumentException if there are no transactions.
+   */
+  Block(int num, List<Transaction> theTransactions, Hash prevHash, int compact, long millis) {
+    this.numBlocks = num;
+    this.setTransactions(theTransactions);
+    this.previousHash = prevHash;
+    this.target = compact;
+    this.minedAt = millis;
+  } // Block(int, List<Transaction>, Hash, int, long)
+
+  /**
+   * Create a block whose hash is already known, such as one read back from a log. The hash is
+   * trusted rather than recomputed; validating the chain checks it.
+   *
+   * @param num The number of the block.
+   * @param theTransactions The transactions for the block.
+   * @param prevHash The hash of the previous block.
+   * @param theNonce The nonce of the block.
+   * @param theHash The hash of the block.
+   */
+  Block(int num, List<Transaction> theTransactions, Hash prevHash, long theNonce, Hash theHash) {
+    this.numBlocks = num;
+    this.setTransactions(theTransactions);
+    this.previousHash = prevHash;
+    this.nonce = theNonce;
+    this.hash = theHash;
+  } // Block(int, List<Transaction>, Hash, long, Hash)
 
   // +---------+-----------------------------------------------------
   // | Helpers |
   // +---------+
 
+  /**
+   * Store the transactions of the block.
+   *
+   * @param theTransactions The transactions, in the order they apply.
+   * @throws IllegalArgumentException if there are no transactions.
+   */
+  private void setTransactions(List<Transaction> theTransactions) {
+    if (theTransactions.isEmpty()) {
+      throw new IllegalArgumentException("A block needs at least one transaction");
+    } // if
+    this.transaction = theTransactions.get(0);
+    this.batch = (theTransactions.size() == 1) ? null : List.copyOf(theTransactions);
+  } // setTransactions(List<Transaction>)
+
   /** Compute the hash of the block given all the other info already stored in the block. */
   void computeHash() {
     this.hash = Block.computeHash(this);
@@ -99,45 +179,38 @@ public class Block {
    * @return the hash of the block
    */
   public static Hash computeHash(Block blk) {
-    byte[] ibytes = Block.integerByteBuffer.putInt(blk.numBlocks).array(); // block number
-    Block.integerByteBuffer.clear();
-    md.update(ibytes);
-    byte[] sourceBytes = blk.transaction.getSource().getBytes(); // source
-    md.update(sourceBytes);
-    byte[] targetBytes = blk.transaction.getTarget().getBytes(); // target
-    md.update(targetBytes);
-    byte[] amountBytes =
-        Block.integerByteBuffer.putInt(blk.transaction.getAmount()).array(); // amount
-    Block.integerByteBuffer.clear();
-    md.update(amountBytes);
-    if (blk.previousHash != null) {
-      byte[] prevBytes = blk.previousHash.getBytes();
-      md.update(prevBytes);
-    } // if
-    byte[] lbytes = Block.longByteBuffer.putLong(blk.nonce).array(); // nonce
-    Block.longByteBuffer.clear();
-    md.update(lbytes);
-
-    byte[] hash = md.digest();
-    return new Hash(hash);
+    return HASHERS.get().hash(blk);
   } // computerHash(Block)
 
   /**
-   * Mine the nonce.
+   * Mine the nonce, trying 0, 1, 2, and so on, so the same contents always get the same nonce.
    *
    * @param check the HashValidator
    */
-  private void mine(HashValidator check) {
+  void mine(HashValidator check) {
     if (hash != null && check.isValid(hash)) {
       return;
     } // if
-    Random rand = new Random();
-    do {
-      this.nonce = rand.nextLong();
-      this.computeHash();
-    } while (!check.isValid(hash));
+    BlockHasher hasher = new BlockHasher(true);
+    hasher.reset(this);
+    hasher.setValidator(check);
+    this.nonce = 0;
+    while (!hasher.tryNonce(this.nonce)) {
+      this.nonce++;
+    } // while
+    this.hash = new Hash(hasher.current().getBytes());
   } // mine(HashValidator)
 
+  /**
+   * Set the nonce found by mining elsewhere, computing the hash.
+   *
+   * @param theNonce The nonce.
+   */
+  void solve(long theNonce) {
+    this.nonce = theNonce;
+    this.computeHash();
+  } // solve(long)
+
   // +---------+-----------------------------------------------------
   // | Methods |
   // +---------+
@@ -154,12 +227,30 @@ public class Block {
   /**
    * Get the transaction stored in this block.
    *
-   * @return the transaction.
+   * @return the transaction, or the first one if there are several.
    */
   public Transaction getTransaction() {
     return this.transaction;
   } // getTransaction()
 
+  /**
+   * Get the transactions stored in this block.
+   *
+   * @return an unmodifiable list of the transactions, in the order they apply.
+   */
+  public List<Transaction> getTransactions() {
+    return (this.batch == null) ? Collections.singletonList(this.transaction) : this.batch;
+  } // getTransactions()
+
+  /**
+   * Get the number of transactions stored in this block.
+   *
+   * @return the number of transactions.
+   */
+  public int getTransactionCount() {
+    return (this.batch == null) ? 1 : this.batch.size();
+  } // getTransactionCount()
+
   /**
    * Get the nonce of this block.
    *
@@ -187,6 +278,63 @@ public class Block {
     return this.hash;
   } // getHash
 
+  /**
+   * Get the difficulty target the block was mined against. Covered by the hash, if not 0.
+   *
+   * @return the target, in compact form, or 0 if the chain has a fixed validator.
+   */
+  public int getTarget() {
+    return this.target;
+  } // getTarget()
+
+  /**
+   * Set the difficulty target the block was mined against, such as when reading it back from a log.
+   * Changing the target of a mined block invalidates its hash.
+   *
+   * @param compact The target, in compact form.
+   */
+  void setTarget(int compact) {
+    this.target = compact;
+  } // setTarget(int)
+
+  /**
+   * Get the time mining the block started (or the block was created, if given a nonce). Covered by
+   * the hash if the block has a target, as retargeting depends on it.
+   *
+   * @return the time, in milliseconds since the epoch.
+   */
+  public long getMinedAt() {
+    return this.minedAt;
+  } // getMinedAt()
+
+  /**
+   * Set the time mining the block started, such as when reading it back from a log. Changing the
+   * time of a mined block with a target invalidates its hash.
+   *
+   * @param millis The time, in milliseconds since the epoch.
+   */
+  void setMinedAt(long millis) {
+    this.minedAt = millis;
+  } // setMinedAt(long)
+
+  /**
+   * Get the time the block was appended to a chain.
+   *
+   * @return the time, in milliseconds since the epoch, or 0 if it has not been appended.
+   */
+  public long getAppendedAt() {
+    return this.appendedAt;
+  } // getAppendedAt()
+
+  /**
+   * Set the time the block was appended to a chain.
+   *
+   * @param millis The time, in milliseconds since the epoch.
+   */
+  void setAppendedAt(long millis) {
+    this.appendedAt = millis;
+  } // setAppendedAt(long)
+
   /**
    * Get a string representation of the block.
    *
@@ -194,7 +342,10 @@ public class Block {
    */
   public String toString() {
     return String.format(
-        "[%s, Transaction: %s, Hash: %s, PreviousHash: %s]",
-        this.numBlocks, this.transaction, this.hash, this.previousHash);
+        "[%s, %s, Hash: %s, PreviousHash: %s]",
+        this.numBlocks,
+        (this.batch == null) ? "Transaction: " + this.transaction : "Transactions: " + this.batch,
+        this.hash,
+        this.previousHash);
   } // toString()
 } // class Block
@@ -1,33 +1,98 @@
 package edu.grinnell.csc207.blockchains;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.NoSuchElementException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 
 /**
  * A full blockchain.
  *
+ * <p>Chains may be read and changed from several threads at once. Changes (appending, removing,
+ * rolling back, and checkpointing) hold the lock of the chain, so they happen one at a time. After
+ * each change, the chain publishes an unchanging snapshot of itself; the query methods read the
+ * latest snapshot and never wait for a change to finish. See snapshot.
+ *
  * @author Harrison Zhu
  */
 public class BlockChain implements Iterable<Transaction> {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The default number of blocks between ledger checkpoints. */
+  public static final int DEFAULT_CHECKPOINT_INTERVAL = 4096;
+
+  /** The default time between progress reports when mining in the background. */
+  public static final Duration DEFAULT_PROGRESS_INTERVAL = Duration.ofSeconds(1);
+
+  /** The number of ledger checkpoints kept. */
+  private static final int CHECKPOINTS_KEPT = 3;
+
+  /**
+   * Runs each worker of a background search on a daemon thread of its own. Background searches may
+   * run for minutes, or until cancelled, so they never take the workers that mine blocks for mine.
+   */
+  private static final Executor BACKGROUND =
+      (r) -> {
+        Thread thread = new Thread(r, "background-miner");
+        thread.setDaemon(true);
+        thread.start();
+      };
+
   // +--------+------------------------------------------------------
   // | Fields |
   // +--------+
-  /** Total number of blocks in the chain. */
-  private int totalBlocks;
+  /** The blocks in the chain, indexed by block number. */
+  private BlockStore blocks = new BlockStore();
 
-  /** The first block. */
-  private Node<Block> head;
-
-  /** The last block. */
-  private Node<Block> tail;
+  /**
+   * The number of each block, by hash, shared with the snapshots. Null until first needed, if the
+   * chain was loaded or most of its entries are for removed blocks.
+   */
+  private BlockHashIndex index = new BlockHashIndex();
 
   /** Has Validator. */
   private HashValidator validator;
 
-  /** Name - Balance pair. */
-  private Map<String, Integer> balances = new HashMap<String, Integer>();
+  /** The account numbers of the users. */
+  private final AccountRegistry accounts = new AccountRegistry();
+
+  /**
+   * The balances after each block. If the chain was loaded, covers only the blocks up to the latest
+   * checkpoint until the rest are first needed.
+   */
+  private LedgerHistory ledgers;
+
+  /** Parallel miner. Null when mining on the calling thread. */
+  private ParallelMiner miner;
+
+  /** Difficulty retargeting schedule. Null when the validator is fixed. */
+  private Retargeter retargeter;
+
+  /** The difficulty target for the next block, in compact form, or 0 if the validator is fixed. */
+  private int target;
+
+  /** The log the blocks are persisted to. Null when the chain lives only in memory. */
+  private BlockLog log;
+
+  /** The number of blocks between ledger checkpoints, or 0 for none. */
+  private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+
+  /** The most recent ledger checkpoints, oldest first. */
+  private ArrayDeque<LedgerCheckpoint> checkpoints = new ArrayDeque<LedgerCheckpoint>();
+
+  /** The latest snapshot, replaced after every change. */
+  private volatile ChainSnapshot current;
 
   // +--------------+------------------------------------------------
   // | Constructors |
@@ -39,17 +104,407 @@ public class BlockChain implements Iterable<Transaction> {
    * @param check The validator used to check elements.
    */
   public BlockChain(HashValidator check) {
-    this.totalBlocks = 1;
-    this.validator = check;
-    Node<Block> first = new Node<Block>(this.mine(new Transaction("", "", 0)));
-    this.head = first;
-    this.tail = first;
+    this(check, 1);
   } // BlockChain(HashValidator)
 
+  /**
+   * Create a new blockchain using a validator to check elements, mining with the given number of
+   * worker threads.
+   *
+   * @param check The validator used to check elements. Must be safe to call from several threads if
+   *     workers is greater than 1.
+   * @param workers The number of threads used for mining.
+   * @throws IllegalArgumentException if workers is less than 1.
+   */
+  public BlockChain(HashValidator check, int workers) {
+    this(check, workers, null, null);
+  } // BlockChain(HashValidator, int)
+
+  /**
+   * Create a blockchain that persists its blocks to a log. If the log already holds blocks, the
+   * chain is loaded from it (without checking; call check to do so). Otherwise, a new chain is
+   * started and its first block is logged.
+   *
+   * <p>Loading reads nothing but the last blocks. Other blocks are decoded when they are first
+   * used, and the balances and the index of hashes are rebuilt the first time they are needed. The
+   * balances are rebuilt from the latest saved ledger checkpoint that still matches the chain, so
+   * only the blocks after it are replayed.
+   *
+   * @param check The validator used to check elements.
+   * @param workers The number of threads used for mining.
+   * @param blockLog The log, or null to keep the chain only in memory.
+   * @throws IllegalArgumentException if workers is less than 1.
+   * @throws UncheckedIOException if the log cannot be read or written.
+   */
+  public BlockChain(HashValidator check, int workers, BlockLog blockLog) {
+    this(check, workers, null, blockLog);
+  } // BlockChain(HashValidator, int, BlockLog)
+
+  /**
+   * Create a new blockchain whose difficulty is retargeted to hold a steady block rate, mining with
+   * the given number of worker threads.
+   *
+   * @param schedule The retargeting schedule.
+   * @param workers The number of threads used for mining.
+   * @throws IllegalArgumentException if workers is less than 1.
+   */
+  public BlockChain(Retargeter schedule, int workers) {
+    this(schedule, workers, null);
+  } // BlockChain(Retargeter, int)
+
+  /**
+   * Create a blockchain whose difficulty is retargeted and that persists its blocks to a log, as
+   * BlockChain(HashValidator, int, BlockLog) does.
+   *
+   * @param schedule The retargeting schedule.
+   * @param workers The number of threads used for mining.
+   * @param blockLog The log, or null to keep the chain only in memory.
+   * @throws IllegalArgumentException if workers is less than 1.
+   * @throws UncheckedIOException if the log cannot be read or written.
+   */
+  public BlockChain(Retargeter schedule, int workers, BlockLog blockLog) {
+    this(TargetValidator.fromCompact(schedule.getInitialTarget()), workers, schedule, blockLog);
+  } // BlockChain(Retargeter, int, BlockLog)
+
+  /**
+   * Create a new blockchain.
+   *
+   * @param check The validator for the first block.
+   * @param workers The number of threads used for mining.
+   * @param schedule The retargeting schedule, or null to use check for every block.
+   * @param blockLog The log, or null to keep the chain only in memory.
+   * @throws IllegalArgumentException if workers is less than 1.
+   * @throws UncheckedIOException if the log cannot be read or written.
+   */
+  private BlockChain(HashValidator check, int workers, Retargeter schedule, BlockLog blockLog) {
+    if (workers < 1) {
+      throw new IllegalArgumentException("Need at least one worker: " + workers);
+    } // if
+    this.validator = check;
+    this.retargeter = schedule;
+    this.target = (schedule == null) ? 0 : schedule.getInitialTarget();
+    this.miner = (workers > 1) ? new ParallelMiner(workers) : null;
+    this.log = blockLog;
+    if (blockLog != null && blockLog.size() > 0) {
+      this.load();
+    } else {
+      Block first =
+          this.mine(
+              0, Collections.singletonList(new Transaction("", "", 0)), check, this.target, null);
+      first.setAppendedAt(System.currentTimeMillis());
+      this.logAppend(first);
+      this.blocks.add(first);
+      this.index.put(first.getHash(), 0);
+      this.ledgers = this.genesis();
+    } // if else
+    this.updateTarget();
+    this.publish();
+  } // BlockChain(HashValidator, int, Retargeter, BlockLog)
+
   // +---------+-----------------------------------------------------
   // | Helpers |
   // +---------+
 
+  /**
+   * Load the blocks in the log lazily, without checking them, along with the saved checkpoints that
+   * match them. Checkpoints that do not match are deleted.
+   *
+   * @throws UncheckedIOException if the checkpoints cannot be read.
+   */
+  private void load() {
+    this.blocks = new BlockStore(this.log);
+    this.index = null;
+    try {
+      for (LedgerCheckpoint checkpoint : LedgerCheckpoint.loadAll(this.log.getFile())) {
+        int count = checkpoint.getBlockCount();
+        if (count >= 1
+            && count <= this.blocks.size()
+            && checkpoint.getTailHash().equals(this.blocks.hash(count - 1))) {
+          this.checkpoints.addLast(checkpoint);
+        } else {
+          LedgerCheckpoint.delete(this.log.getFile(), count);
+        } // if else
+      } // for
+      this.trimCheckpoints();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to load the ledger checkpoints", e);
+    } // try catch
+    this.ledgers = this.seed();
+  } // load()
+
+  /**
+   * Start the balances with the first block.
+   *
+   * @return a history covering the first block.
+   */
+  private LedgerHistory genesis() {
+    return new LedgerHistory(0, Ledger.empty(this.accounts).apply(this.blocks.transactions(0)));
+  } // genesis()
+
+  /**
+   * Start the balances with the latest checkpoint that covers no more than the chain, or with the
+   * first block if there is none. The rest are replayed when first needed.
+   *
+   * @return a history covering the blocks up to the checkpoint.
+   */
+  private LedgerHistory seed() {
+    Iterator<LedgerCheckpoint> newest = this.checkpoints.descendingIterator();
+    while (newest.hasNext()) {
+      LedgerCheckpoint checkpoint = newest.next();
+      if (checkpoint.getBlockCount() <= this.blocks.size()) {
+        return new LedgerHistory(
+            checkpoint.getBlockCount() - 1, Ledger.of(this.accounts, checkpoint.getBalances()));
+      } // if
+    } // while
+    return this.genesis();
+  } // seed()
+
+  /**
+   * Determine whether the balances cover every block.
+   *
+   * @return true if they do and false if some have yet to be replayed.
+   */
+  private boolean complete() {
+    return this.ledgers.getBlockCount() == this.blocks.size();
+  } // complete()
+
+  /**
+   * Get the balances, replaying the blocks they do not cover yet. The latest snapshot does the
+   * replaying, so balances that a reader already replayed are reused.
+   *
+   * @return the balances.
+   */
+  private Ledger ledger() {
+    if (!this.complete()) {
+      this.ledgers = this.current.ledgers().thaw();
+    } // if
+    return this.ledgers.latest();
+  } // ledger()
+
+  /** Publish a snapshot of the chain as it is now. */
+  private void publish() {
+    this.current =
+        new ChainSnapshot(
+            this.blocks.freeze(), this.target, this.validator, this.ledgers.freeze(), this.index);
+  } // publish()
+
+  /**
+   * Drop the oldest checkpoints until no more than CHECKPOINTS_KEPT remain.
+   *
+   * @throws IOException if a saved checkpoint cannot be deleted.
+   */
+  private void trimCheckpoints() throws IOException {
+    while (this.checkpoints.size() > CHECKPOINTS_KEPT) {
+      LedgerCheckpoint oldest = this.checkpoints.removeFirst();
+      if (this.log != null) {
+        LedgerCheckpoint.delete(this.log.getFile(), oldest.getBlockCount());
+      } // if
+    } // while
+  } // trimCheckpoints()
+
+  /**
+   * Drop the checkpoints that cover blocks no longer in the chain.
+   *
+   * @throws UncheckedIOException if a saved checkpoint cannot be deleted.
+   */
+  private void dropStaleCheckpoints() {
+    while (!this.checkpoints.isEmpty()
+        && this.checkpoints.peekLast().getBlockCount() > this.blocks.size()) {
+      LedgerCheckpoint stale = this.checkpoints.removeLast();
+      if (this.log != null) {
+        try {
+          LedgerCheckpoint.delete(this.log.getFile(), stale.getBlockCount());
+        } catch (IOException e) {
+          throw new UncheckedIOException("Failed to delete a ledger checkpoint", e);
+        } // try catch
+      } // if
+    } // while
+  } // dropStaleCheckpoints()
+
+  /**
+   * Remove the last block, along with its entries in the log, the index, and the balances.
+   *
+   * @throws UncheckedIOException if the chain has a log and it cannot be truncated.
+   */
+  private void dropLast() {
+    this.blocks.last(); // Decode the block while the log still holds it.
+    if (this.log != null) {
+      try {
+        this.log.removeLast();
+      } catch (IOException e) {
+        throw new UncheckedIOException("Failed to truncate the block log", e);
+      } // try catch
+    } // if
+    boolean tracked = this.complete();
+    this.blocks.removeLast();
+    if (this.index != null && this.index.retire()) {
+      // Start afresh when next needed. Snapshots keep the old index, which no longer changes.
+      this.index = null;
+    } // if
+    if (tracked && !this.ledgers.removeLast()) {
+      // The balances started at this block; start them again from an earlier checkpoint.
+      this.ledgers = this.seed();
+    } // if
+  } // dropLast()
+
+  /**
+   * Get the index of hashes, taking over the one the latest snapshot built if the chain has none.
+   * The latest snapshot holds the same blocks as the chain, so its index covers them all.
+   *
+   * @return the index, or null if none has been built.
+   */
+  private BlockHashIndex hashIndex() {
+    if (this.index == null) {
+      this.index = this.current.builtIndex();
+    } // if
+    return this.index;
+  } // hashIndex()
+
+  /**
+   * Write a block to the log, if there is one.
+   *
+   * @param blk The block.
+   * @throws UncheckedIOException if the block cannot be written.
+   */
+  private void logAppend(Block blk) {
+    if (this.log != null) {
+      try {
+        this.log.append(blk);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Failed to log block " + blk.getNum(), e);
+      } // try catch
+    } // if
+  } // logAppend(Block)
+
+  /**
+   * Run the sequential checks of appendAll: that each block links to the one before, follows the
+   * retargeting schedule and was mined after the block before (if the chain is retargeted), and has
+   * legal transactions.
+   *
+   * @param batch The blocks.
+   * @param versions Filled with the balances after each block that passes.
+   * @return the result, with indices relative to the start of the batch.
+   */
+  private ValidationResult stage(List<Block> batch, List<Ledger> versions) {
+    Ledger staged = this.ledger();
+    int start = this.blocks.size();
+    List<Block> extended = BlockChain.extendedBy(this.blocks, batch);
+    Hash previous = this.getHash();
+    for (int i = 0; i < batch.size(); i++) {
+      Block blk = batch.get(i);
+      if (blk.getPrevHash() != null && !blk.getPrevHash().equals(previous)) {
+        return ValidationResult.failure(i, ValidationResult.Reason.WRONG_PREVIOUS_HASH, blk);
+      } // if
+      if (this.retargeter != null) {
+        if (blk.getTarget() != this.retargeter.targetFor(extended, start + i)) {
+          return ValidationResult.failure(i, ValidationResult.Reason.WRONG_TARGET, blk);
+        } // if
+        if (blk.getMinedAt() <= extended.get(start + i - 1).getMinedAt()) {
+          return ValidationResult.failure(i, ValidationResult.Reason.TIME_NOT_INCREASING, blk);
+        } // if
+      } // if
+      staged = staged.applyValid(blk.getTransactions());
+      if (staged == null) {
+        return ValidationResult.failure(i, ValidationResult.Reason.INVALID_TRANSACTION, blk);
+      } // if
+      versions.add(staged);
+      previous = blk.getHash();
+    } // for
+    return ValidationResult.valid();
+  } // stage(List<Block>, List<Ledger>)
+
+  /**
+   * View a chain followed by a batch of blocks as one list.
+   *
+   * @param chain The blocks of the chain.
+   * @param batch The blocks to follow the chain.
+   * @return the combined list.
+   */
+  private static List<Block> extendedBy(List<Block> chain, List<Block> batch) {
+    return new AbstractList<Block>() {
+      public Block get(int i) {
+        return (i < chain.size()) ? chain.get(i) : batch.get(i - chain.size());
+      } // get(int)
+
+      public int size() {
+        return chain.size() + batch.size();
+      } // size()
+    };
+  } // extendedBy(List<Block>, List<Block>)
+
+  /**
+   * Remove the records after the first few from the log, after a failed write.
+   *
+   * @param size The number of records to keep.
+   */
+  private void unlog(int size) {
+    try {
+      while (this.log.size() > size) {
+        this.log.removeLast();
+      } // while
+    } catch (IOException e) {
+      // The log is already failing; the original error is the one to report.
+    } // try catch
+  } // unlog(int)
+
+  /** Recompute the difficulty target for the next block, if the chain is retargeted. */
+  private void updateTarget() {
+    if (this.retargeter == null) {
+      return;
+    } // if
+    int next = this.retargeter.targetFor(this.blocks, this.blocks.size());
+    if (next != this.target) {
+      this.target = next;
+      this.validator = TargetValidator.fromCompact(next);
+    } // if
+  } // updateTarget()
+
+  /**
+   * Choose the mining time of the block after another: now, or just after the other if the clock
+   * has not moved on since, so that mining times always increase.
+   *
+   * @param before The block before, or null for the first block.
+   * @return the mining time, in milliseconds since the epoch.
+   */
+  private static long minedAfter(Block before) {
+    long now = System.currentTimeMillis();
+    return (before == null) ? now : Math.max(now, before.getMinedAt() + 1);
+  } // minedAfter(Block)
+
+  /**
+   * Mine for a block, on the workers if there are several. The block is stamped with its target and
+   * mining time before the search starts, since the hash covers both if there is a target.
+   *
+   * @param num The number of the block.
+   * @param ts The transactions that go in the block.
+   * @param check The validator for the block.
+   * @param compact The difficulty target to stamp the block with, or 0 for none.
+   * @param before The block before, or null for the first block.
+   * @return the block.
+   */
+  private Block mine(
+      int num, List<Transaction> ts, HashValidator check, int compact, Block before) {
+    Hash prev = (before == null) ? null : before.getHash();
+    Block newBlock = new Block(num, ts, prev, compact, BlockChain.minedAfter(before));
+    if (this.miner != null) {
+      this.miner.mine(newBlock, check);
+    } else {
+      newBlock.mine(check);
+    } // if else
+    return newBlock;
+  } // mine(int, List<Transaction>, HashValidator, int, Block)
+
+  /**
+   * Create a validator for the whole chain.
+   *
+   * @return a chain validator.
+   */
+  private ChainValidator chainValidator() {
+    return (this.retargeter == null)
+        ? new ChainValidator(this.validator)
+        : new ChainValidator(this.retargeter);
+  } // chainValidator()
+
   // +---------+-----------------------------------------------------
   // | Methods |
   // +---------+
@@ -61,127 +516,405 @@ public class BlockChain implements Iterable<Transaction> {
    * @return a new block with correct number, hashes, and such.
    */
   public Block mine(Transaction t) {
-    Block newBlock = new Block(totalBlocks, t, getHash(), this.validator);
-    return newBlock;
+    return this.mine(Collections.singletonList(t));
   } // mine(Transaction)
 
+  /**
+   * Mine for a new valid block for the end of the chain that carries several transactions, which
+   * apply in order. The block costs no more to mine than a block with one transaction.
+   *
+   * @param ts The transactions that go in the block.
+   * @return a new block with correct number, hashes, and such.
+   * @throws IllegalArgumentException if there are no transactions.
+   */
+  public Block mine(List<Transaction> ts) {
+    return this.mineAfter(this.current, Collections.emptyList(), ts);
+  } // mine(List<Transaction>)
+
+  /**
+   * Mine for a new valid block for the end of the chain in the background, on threads of its own,
+   * so that it never holds up mine.
+   *
+   * @param t The transaction that goes in the block.
+   * @return a future that completes with the block. Cancelling it stops the search.
+   */
+  public CompletableFuture<Block> mineAsync(Transaction t) {
+    return this.mineAsync(Collections.singletonList(t), null, DEFAULT_PROGRESS_INTERVAL, null);
+  } // mineAsync(Transaction)
+
+  /**
+   * Mine for a new valid block for the end of the chain in the background, with as many workers as
+   * the chain mines with, each on a thread of its own, so that it never holds up mine. The workers
+   * check whether to stop once every 65,536 nonces, so a search that is cancelled or runs out of
+   * time stops promptly.
+   *
+   * @param ts The transactions that go in the block.
+   * @param timeout How long to search before giving up, or null to search until cancelled.
+   * @param every The time between progress reports.
+   * @param listener Receives progress reports, on one of the workers, or null for none.
+   * @return a future that completes with the block, or exceptionally with a TimeoutException if the
+   *     time runs out. Cancelling it stops the search.
+   * @throws IllegalArgumentException if there are no transactions.
+   */
+  public CompletableFuture<Block> mineAsync(
+      List<Transaction> ts, Duration timeout, Duration every, Consumer<MiningProgress> listener) {
+    return this.mineAsync(this.miningState(ts), timeout, every, listener);
+  } // mineAsync(List<Transaction>, Duration, Duration, Consumer<MiningProgress>)
+
+  /**
+   * Start a resumable search for a new valid block for the end of the chain. The nonce space is
+   * split among as many workers as the chain mines with, and searched in order from 0.
+   *
+   * @param ts The transactions that go in the block.
+   * @return the state of a search that has not started, for mineAsync.
+   * @throws IllegalArgumentException if there are no transactions.
+   */
+  public MiningState miningState(List<Transaction> ts) {
+    ChainSnapshot tip = this.current;
+    return new MiningState(
+        tip.getSize(),
+        ts,
+        tip.getHash(),
+        tip.getTarget(),
+        BlockChain.minedAfter(tip.getBlock(tip.getSize() - 1)),
+        this.getMiningWorkers());
+  } // miningState(List<Transaction>)
+
+  /**
+   * Carry on a search for a new valid block for the end of the chain from where it stopped, in the
+   * background. The state is kept up to date as the search goes, so it can be saved at any time
+   * (including after the search times out or is cancelled) and the search resumed later, even from
+   * a state loaded after a restart. Each worker of the search runs on a thread of its own, so the
+   * search never holds up mine, however long it runs.
+   *
+   * @param state Where the search stopped, from miningState or MiningState.load.
+   * @param timeout How long to search before giving up, or null to search until cancelled.
+   * @param every The time between progress reports.
+   * @param listener Receives progress reports, on one of the workers, or null for none.
+   * @return a future that completes with the block, or exceptionally with a TimeoutException if the
+   *     time runs out or a NoSuchElementException if every nonce has been tried. Cancelling it
+   *     stops the search.
+   * @throws IllegalArgumentException if the state is not for the next block of the chain.
+   * @throws IllegalStateException if another search is still using the state.
+   */
+  public CompletableFuture<Block> mineAsync(
+      MiningState state, Duration timeout, Duration every, Consumer<MiningProgress> listener) {
+    ChainSnapshot tip = this.current;
+    if (state.getBlockNum() != tip.getSize()
+        || !tip.getHash().equals(state.getPrevHash())
+        || state.getTarget() != tip.getTarget()) {
+      throw new IllegalArgumentException("Not mining the next block: " + state.getBlockNum());
+    } // if
+    MiningJob job = new MiningJob(state, tip.getValidator());
+    return job.start(BACKGROUND, timeout, every, listener);
+  } // mineAsync(MiningState, Duration, Duration, Consumer<MiningProgress>)
+
+  /**
+   * Mine for the block that follows a snapshot of the chain and then some blocks that have been
+   * mined but not yet appended, so that a block can be mined while the ones before it are being
+   * appended. The target of the block is the one the chain will expect once the others are on it.
+   *
+   * @param tip A snapshot of the chain.
+   * @param ahead The blocks that follow the snapshot, in order.
+   * @param ts The transactions that go in the block.
+   * @return a new block that fits after the others.
+   * @throws IllegalArgumentException if there are no transactions.
+   */
+  Block mineAfter(ChainSnapshot tip, List<Block> ahead, List<Transaction> ts) {
+    int num = tip.getSize() + ahead.size();
+    Block before = ahead.isEmpty() ? tip.getBlock(num - 1) : ahead.get(ahead.size() - 1);
+    if (this.retargeter == null || ahead.isEmpty()) {
+      return this.mine(num, ts, tip.getValidator(), tip.getTarget(), before);
+    } // if
+    int compact = this.retargeter.targetFor(BlockChain.extendedBy(tip.store(), ahead), num);
+    return this.mine(num, ts, TargetValidator.fromCompact(compact), compact, before);
+  } // mineAfter(ChainSnapshot, List<Block>, List<Transaction>)
+
+  /**
+   * Get the difficulty target for the next block.
+   *
+   * @return the target, in compact form, or 0 if the chain uses a fixed validator.
+   */
+  public int getTarget() {
+    return this.current.getTarget();
+  } // getTarget()
+
+  /**
+   * Get the number of threads used for mining.
+   *
+   * @return the number of mining threads.
+   */
+  public int getMiningWorkers() {
+    return (this.miner == null) ? 1 : this.miner.getWorkers();
+  } // getMiningWorkers()
+
   /**
    * Get the number of blocks curently in the chain.
    *
    * @return the number of blocks in the chain, including the initial block.
    */
   public int getSize() {
-    return this.totalBlocks;
+    return this.current.getSize();
   } // getSize()
 
+  /**
+   * Get a block by its number. Takes constant time.
+   *
+   * @param num The number of the block, between 0 (inclusive) and getSize() (exclusive).
+   * @return the block with that number.
+   * @throws IndexOutOfBoundsException if there is no block with that number.
+   */
+  public Block getBlock(int num) {
+    return this.current.getBlock(num);
+  } // getBlock(int)
+
+  /**
+   * Get a snapshot of the chain as it is now. The snapshot does not change as the chain does, and
+   * may be read from any thread without locks.
+   *
+   * @return the snapshot.
+   */
+  public ChainSnapshot snapshot() {
+    return this.current;
+  } // snapshot()
+
+  /**
+   * Find a block by its hash, without locks. Takes constant expected time, as
+   * ChainSnapshot.findByHash does.
+   *
+   * @param hash The hash of the block.
+   * @return the number of the block with that hash in the latest snapshot, or -1 if there is no
+   *     such block.
+   */
+  public int findByHash(Hash hash) {
+    return this.current.findByHash(hash);
+  } // findByHash(Hash)
+
   /**
    * Add a block to the end of the chain.
    *
    * @param blk The block to add to the end of the chain.
    * @throws IllegalArgumentException if (a) the hash is not valid, (b) the hash is not appropriate
-   *     for the contents, or (c) the previous hash is incorrect.
+   *     for the contents, (c) the previous hash is incorrect, or (d) the chain is retargeted and
+   *     the block's target is not the next one or its mining time is not after the last block's.
+   * @throws UncheckedIOException if the chain has a log and the block cannot be written to it, in
+   *     which case the chain is unchanged.
    */
-  public void append(Block blk) throws IllegalArgumentException {
+  public synchronized void append(Block blk) throws IllegalArgumentException {
     checkBlock(blk);
 
-    Node<Block> newNode = new Node<Block>(blk);
-    // if(this.head == null) {
-    //   this.head = newNode;
-    //   this.tail = this.head;
-    // } else {
-    this.tail.setNext(newNode);
-    newNode.setPrevious(this.tail);
-    this.tail = newNode;
-    // }
-    this.totalBlocks++;
-    this.processTransaction(this.balances, blk.getTransaction());
+    blk.setAppendedAt(System.currentTimeMillis());
+    this.logAppend(blk);
+    boolean tracked = this.complete();
+    BlockHashIndex hashes = this.hashIndex();
+    if (hashes != null) {
+      hashes.put(blk.getHash(), this.blocks.size());
+    } // if
+    this.blocks.add(blk);
+    if (tracked) {
+      this.ledgers.add(this.ledgers.latest().apply(blk.getTransactions()));
+    } // if
+    this.updateTarget();
+    this.publish();
+    if (tracked
+        && this.checkpointInterval > 0
+        && this.blocks.size() % this.checkpointInterval == 0) {
+      this.checkpoint();
+    } // if
   } // append()
 
+  /**
+   * Add a batch of blocks to the end of the chain, all or none. The batch is checked as a whole
+   * before anything is changed: the links, targets, mining times, and transactions in one
+   * sequential pass that stages new versions of the balances, and the hashes in parallel on the
+   * common fork-join pool. Unlike append, this also rejects transactions that overdraw their
+   * source.
+   *
+   * @param batch The blocks to add, in order.
+   * @throws BatchRejectedException if a block fails, in which case no block is added. The index in
+   *     the exception is relative to the start of the batch.
+   * @throws UncheckedIOException if the chain has a log and the blocks cannot be written to it, in
+   *     which case the chain is unchanged.
+   */
+  public synchronized void appendAll(List<Block> batch) {
+    List<Ledger> versions = new ArrayList<Ledger>(batch.size());
+    ValidationResult result = this.stage(batch, versions);
+    int checked = result.isValid() ? batch.size() : result.getIndex();
+    ValidationResult hashes =
+        this.chainValidator()
+            .checkHashes(batch.subList(0, checked), this.getHash(), ForkJoinPool.commonPool());
+    if (!hashes.isValid()) {
+      result = hashes;
+    } // if
+    if (!result.isValid()) {
+      throw new BatchRejectedException(result);
+    } // if
+
+    int start = this.blocks.size();
+    long now = System.currentTimeMillis();
+    try {
+      for (Block blk : batch) {
+        blk.setAppendedAt(now);
+        this.logAppend(blk);
+      } // for
+    } catch (UncheckedIOException e) {
+      this.unlog(start);
+      throw e;
+    } // try catch
+    BlockHashIndex known = this.hashIndex();
+    for (Block blk : batch) {
+      if (known != null) {
+        known.put(blk.getHash(), this.blocks.size());
+      } // if
+      this.blocks.add(blk);
+    } // for
+    for (Ledger version : versions) {
+      this.ledgers.add(version);
+    } // for
+    this.updateTarget();
+    this.publish();
+    if (this.checkpointInterval > 0
+        && start / this.checkpointInterval != this.blocks.size() / this.checkpointInterval) {
+      this.checkpoint();
+    } // if
+  } // appendAll(List<Block>)
+
+  /**
+   * Add a batch of blocks to the end of the chain, all or none, as appendAll(List) does.
+   *
+   * @param batch The blocks to add, in order.
+   * @throws BatchRejectedException if a block fails, in which case no block is added.
+   * @throws UncheckedIOException if the chain has a log and the blocks cannot be written to it.
+   */
+  public synchronized void appendAll(Iterator<Block> batch) {
+    List<Block> list = new ArrayList<Block>();
+    while (batch.hasNext()) {
+      list.add(batch.next());
+    } // while
+    this.appendAll(list);
+  } // appendAll(Iterator<Block>)
+
   /**
    * Attempt to remove the last block from the chain.
    *
    * @return false if the chain has only one block (in which case it's not removed) or true
    *     otherwise (in which case the last block is removed).
+   * @throws UncheckedIOException if the chain has a log and it cannot be truncated, in which case
+   *     the chain is unchanged.
    */
-  public boolean removeLast() {
-    if (this.totalBlocks <= 1) {
+  public synchronized boolean removeLast() {
+    if (this.blocks.size() <= 1) {
       return false;
     } else {
-      Transaction tailTransaction = this.tail.getData().getTransaction();
-      this.processTransaction(
-          this.balances,
-          new Transaction(
-              tailTransaction.getTarget(),
-              tailTransaction.getSource(),
-              tailTransaction.getAmount()));
-
-      this.tail.getPrevious().setNext(null);
-      this.tail = this.tail.getPrevious();
-      this.totalBlocks--;
+      this.dropLast();
+      this.dropStaleCheckpoints();
+      this.updateTarget();
+      this.publish();
       return true;
     } // if else
   } // removeLast()
 
   /**
-   * Get the hash of the last block in the chain.
+   * Remove blocks from the end of the chain until it has the given size. The balances go back to
+   * the version kept for the new last block, so nothing is replayed.
    *
-   * @return the hash of the last sblock in the chain.
+   * @param size The number of blocks to keep.
+   * @throws IllegalArgumentException if size is less than 1 or greater than the size of the chain.
+   * @throws UncheckedIOException if the chain has a log and it cannot be truncated.
    */
-  public Hash getHash() {
-    if (this.tail != null) {
-      return this.tail.getData().getHash();
-    } else {
-      return null;
-    } // if else
-  } // getHash()
+  public synchronized void rollback(int size) {
+    if (size < 1 || size > this.blocks.size()) {
+      throw new IllegalArgumentException(
+          "Cannot roll back a chain of " + this.blocks.size() + " blocks to " + size);
+    } // if
+    while (this.blocks.size() > size) {
+      this.dropLast();
+    } // while
+    this.dropStaleCheckpoints();
+    this.updateTarget();
+    this.publish();
+  } // rollback(int)
 
   /**
-   * Check if the NEW transaction is correct, assuming the block chain is valid.
+   * Take a ledger checkpoint of the current balances, saving it next to the log if there is one.
+   * Chains take checkpoints on their own every so many blocks; see setCheckpointInterval.
    *
-   * @param balanceMap the map to check the transaction against
-   * @param transaction the transaction to check
-   * @return true if transaction is valid
+   * @return the checkpoint.
+   * @throws UncheckedIOException if the checkpoint cannot be saved.
    */
-  private boolean isValidTransaction(Map<String, Integer> balanceMap, Transaction transaction) {
-    int sourceBalance = this.balance(balanceMap, transaction.getSource());
-    return (transaction.getSource().equals("") || sourceBalance >= transaction.getAmount())
-        && transaction.getAmount() >= 0;
-  } // isValidTransaction(Map<String, Integer>, Transaction)
+  public synchronized LedgerCheckpoint checkpoint() {
+    LedgerCheckpoint checkpoint =
+        new LedgerCheckpoint(this.blocks.size(), this.getHash(), this.ledger());
+    if (!this.checkpoints.isEmpty()
+        && this.checkpoints.peekLast().getBlockCount() == checkpoint.getBlockCount()) {
+      this.checkpoints.removeLast();
+    } // if
+    this.checkpoints.addLast(checkpoint);
+    try {
+      if (this.log != null) {
+        this.log.flush();
+        checkpoint.save(this.log.getFile());
+      } // if
+      this.trimCheckpoints();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to save a ledger checkpoint", e);
+    } // try catch
+    return checkpoint;
+  } // checkpoint()
 
   /**
-   * Process the transaction, adding to balances table. Does not check or assume that the
-   * transaction is correct. Thus source can have negative balance
+   * Get the most recent ledger checkpoint.
    *
-   * @param balanceMap the balance map to modify
-   * @param transaction the transaction to process
+   * @return the checkpoint, or null if there is none.
    */
-  private void processTransaction(Map<String, Integer> balanceMap, Transaction transaction) {
-    int sourceBalance = this.balance(balanceMap, transaction.getSource());
-    int targetBalance = this.balance(balanceMap, transaction.getTarget());
+  public synchronized LedgerCheckpoint getCheckpoint() {
+    return this.checkpoints.peekLast();
+  } // getCheckpoint()
 
-    if (!transaction.getSource().equals("")) {
-      balanceMap.put(transaction.getSource(), sourceBalance - transaction.getAmount());
-    } // if source is not empty
-    if (!transaction.getTarget().equals("")) {
-      balanceMap.put(transaction.getTarget(), targetBalance + transaction.getAmount());
-    } // is target is not empty
-  } // processTransaction(Map<String, Integer>, Transaction)
+  /**
+   * Set how often ledger checkpoints are taken as blocks are appended.
+   *
+   * @param blocksPerCheckpoint The number of blocks between checkpoints, or 0 for none.
+   * @throws IllegalArgumentException if blocksPerCheckpoint is negative.
+   */
+  public synchronized void setCheckpointInterval(int blocksPerCheckpoint) {
+    if (blocksPerCheckpoint < 0) {
+      throw new IllegalArgumentException("Negative checkpoint interval: " + blocksPerCheckpoint);
+    } // if
+    this.checkpointInterval = blocksPerCheckpoint;
+  } // setCheckpointInterval(int)
+
+  /**
+   * Get the hash of the last block in the chain.
+   *
+   * @return the hash of the last sblock in the chain.
+   */
+  public Hash getHash() {
+    return this.current.getHash();
+  } // getHash()
 
   /**
    * Checks if the NEW block is valid. Throws errors if invalid.
    *
    * @param blk The block to add to the end of the chain.
    * @throws IllegalArgumentException if (a) the hash is not valid, (b) the hash is not appropriate
-   *     for the contents, or (c) the previous hash is incorrect.
+   *     for the contents, (c) the previous hash is incorrect, or (d) the chain is retargeted and
+   *     the block's target is not the next one or its mining time is not after the last block's.
    */
   public void checkBlock(Block blk) throws IllegalArgumentException {
-    if (!this.validator.isValid(blk.getHash())) {
+    ChainSnapshot tip = this.current;
+    if (this.retargeter != null && blk.getTarget() != tip.getTarget()) {
+      throw new IllegalArgumentException("Difficulty target is incorrect: " + blk);
+    } else if (this.retargeter != null
+        && blk.getMinedAt() <= tip.getBlock(tip.getSize() - 1).getMinedAt()) {
+      throw new IllegalArgumentException("Mining time does not increase: " + blk);
+    } else if (!tip.getValidator().isValid(blk.getHash())) {
       throw new IllegalArgumentException("The Hash is not valid : " + blk);
     } else if (!blk.getHash().equals(Block.computeHash(blk))) {
       throw new IllegalArgumentException("Hash is not appropriate for the contents: " + blk);
-    } else if (blk.getPrevHash() != null && !blk.getPrevHash().equals(this.getHash())) {
+    } else if (blk.getPrevHash() != null && !blk.getPrevHash().equals(tip.getHash())) {
       throw new IllegalArgumentException(
-          "Previous hash is incorrect: " + blk + " tail: " + this.tail.getData());
+          "Previous hash is incorrect: " + blk + " tail: " + tip.getHash());
     } // check valid
   } // checkBloc(Block)
 
@@ -210,12 +943,7 @@ public class BlockChain implements Iterable<Transaction> {
    * @return true if the blockchain is correct and false otherwise.
    */
   public boolean isCorrect() {
-    try {
-      check();
-      return true;
-    } catch (Exception e) {
-      return false;
-    } // try catch
+    return this.validate().isValid();
   } // isCorrect()
 
   /**
@@ -226,53 +954,86 @@ public class BlockChain implements Iterable<Transaction> {
    * @throws Exception If things are wrong at any block.
    */
   public void check() throws Exception {
-    BlockChain dummy = new BlockChain(validator);
-
-    Iterator<Block> blkIterator = this.blocks();
-    while (blkIterator.hasNext()) {
-      Block blk = blkIterator.next();
-      // This check is separate because append does not check for invalid transaction
-      if (!this.isValidTransaction(dummy.balances, blk.getTransaction())) {
-        throw new IllegalArgumentException("Invalid transaction: " + blk);
-      } // if not valid
-      dummy.append(blk);
-    } // while iterator has next
+    ValidationResult result = this.validate();
+    if (!result.isValid()) {
+      throw new IllegalArgumentException(result.toString());
+    } // if
   } // check()
 
-  /** Recalculates the balance. */
-  private void recalculateBalance() {
-    Map<String, Integer> balanceMap = new HashMap<>();
+  /**
+   * Validate the blockchain, checking the same things as check, but reporting the first failing
+   * block instead of throwing. Does not mine or build another chain.
+   *
+   * @return the result of the validation.
+   */
+  public ValidationResult validate() {
+    return this.chainValidator().validate(this.current.store());
+  } // validate()
 
-    for (Transaction transaction : this) {
-      this.processTransaction(balanceMap, transaction);
-    } // for
+  /**
+   * Validate the blockchain as validate does, but check the hashes of the blocks in parallel on the
+   * common fork-join pool. The validator must be safe to call from several threads at once.
+   *
+   * @return the result of the validation.
+   */
+  public ValidationResult validateParallel() {
+    return this.chainValidator().validateParallel(this.current.store(), ForkJoinPool.commonPool());
+  } // validateParallel()
 
-    this.balances = balanceMap;
-  } // recalculateBalance
+  /**
+   * Verify the maintained balances against a full replay of the chain. Normally they agree, since
+   * append and removeLast keep the balances up to date; they can only disagree if a block was
+   * modified after it was added. If they disagree, the balances after every block are replaced by
+   * the replay.
+   *
+   * @return true if the balances matched the replay and false otherwise.
+   */
+  public synchronized boolean verifyBalances() {
+    LedgerHistory replayed = LedgerHistory.replay(this.blocks, this.genesis());
+    if (!this.complete()) {
+      this.ledgers = replayed;
+      this.publish();
+      return true;
+    } // if
+    Ledger expected = replayed.latest();
+    Ledger actual = this.ledgers.latest();
+    boolean consistent = true;
+    for (String user : expected.keySet()) {
+      consistent &= expected.balance(user) == actual.balance(user);
+    } // for
+    for (String user : actual.keySet()) {
+      consistent &= expected.balance(user) == actual.balance(user);
+    } // for
+    if (!consistent) {
+      this.ledgers = replayed;
+      this.publish();
+    } // if
+    return consistent;
+  } // verifyBalances()
 
   /**
-   * Find one user's balance. Will recalculate the balance.
+   * Find one user's balance. Takes logarithmic time, since the balances are kept up to date as
+   * blocks are added and removed.
    *
    * @param user The user whose balance we want to find.
    * @return that user's balance (or 0, if the user is not in the system).
    */
-  public int balance(String user) {
-    recalculateBalance();
-    return this.balance(this.balances, user);
+  public long balance(String user) {
+    return this.current.balance(user);
   } // balance()
 
   /**
-   * Returns the users current balance in the map being passed in. Assumes balanceMap is the most
-   * up-to-date
+   * Find one user's balance as of a block, without replaying the chain. Takes logarithmic time,
+   * since the balances after every block are kept, sharing all they have in common.
    *
-   * @param balanceMap
-   * @param user
-   * @return balance of user
+   * @param user The user whose balance we want to find.
+   * @param blockNum The number of the block.
+   * @return that user's balance after that block (or 0, if the user had none).
+   * @throws IndexOutOfBoundsException if there is no block with that number.
    */
-  private int balance(Map<String, Integer> balanceMap, String user) {
-    Integer balance = balanceMap.get(user);
-    return balance == null ? 0 : balance.intValue();
-  } // balance(Map<String, Integer>, String)
+  public long balance(String user, int blockNum) {
+    return this.current.balance(user, blockNum);
+  } // balance(String, int)
 
   /**
    * Get an interator for all the blocks in the chain.
@@ -280,22 +1041,7 @@ public class BlockChain implements Iterable<Transaction> {
    * @return an iterator for all the blocks in the chain.
    */
   public Iterator<Block> blocks() {
-    return new Iterator<Block>() {
-      Node<Block> nextNode = head;
-
-      public boolean hasNext() {
-        return nextNode != null;
-      } // hasNext()
-
-      public Block next() {
-        if (!hasNext()) {
-          throw new NoSuchElementException();
-        } // if
-        Block ret = nextNode.getData();
-        nextNode = nextNode.getNext();
-        return ret;
-      } // next()
-    };
+    return this.current.blocks();
   } // blocks()
 
   /**
@@ -304,43 +1050,17 @@ public class BlockChain implements Iterable<Transaction> {
    * @return an iterator of all the people in the system.
    */
   public Iterator<String> users() {
-    Iterator<String> namesIterator = balances.keySet().iterator();
-
-    return new Iterator<String>() {
-      public boolean hasNext() {
-        return namesIterator.hasNext();
-      } // hasNext()
-
-      public String next() {
-        if (!hasNext()) {
-          throw new NoSuchElementException();
-        } // if
-        return namesIterator.next();
-      } // next()
-    };
+    return this.current.users();
   } // users()
 
   /**
-   * Get an interator for all the transactions in the chain.
+   * Get an interator for all the transactions in the chain, as of the moment it is created.
+   * Transactions of blocks that have not been decoded are read from the log without decoding the
+   * blocks.
    *
    * @return an iterator for all the blocks in the chain.
    */
   public Iterator<Transaction> iterator() {
-    return new Iterator<Transaction>() {
-      Node<Block> nextNode = head;
-
-      public boolean hasNext() {
-        return nextNode != null;
-      } // hasNext()
-
-      public Transaction next() {
-        if (!hasNext()) {
-          throw new NoSuchElementException();
-        } // if
-        Transaction ret = nextNode.getData().getTransaction();
-        nextNode = nextNode.getNext();
-        return ret;
-      } // next()
-    };
+    return this.current.iterator();
   } // iterator()
 } // class BlockChain
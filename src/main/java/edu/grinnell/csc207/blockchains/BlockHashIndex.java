@@ -0,0 +1,201 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * An index from block hashes to block numbers. Each hash is keyed by its last eight bytes, packed
+ * into a long and stored in an open-addressing table, so the index holds no Hash objects. (The
+ * leading bytes of a mined hash are often forced to zero by the validator, so the trailing bytes
+ * make a better key.) Since different hashes can share a key, lookups confirm each candidate
+ * against the hash of the block itself, which a store backed by a log reads without decoding the
+ * block.
+ *
+ * <p>One thread adds to the index while any number of others look up hashes without locks. Slots
+ * are published with release ordering, and a table is never changed once it has been replaced by a
+ * bigger one. Entries are never removed, since readers of earlier snapshots may still need them;
+ * instead, a lookup checks the candidate against the blocks it was given, so an entry for a block
+ * that has since been removed, or replaced, is skipped. Once most entries are retired this way, the
+ * owner should build a new index.
+ *
+ * @author Harrison Zhu
+ */
+public class BlockHashIndex {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** Marks an empty slot. */
+  private static final int EMPTY = -1;
+
+  /** The initial number of slots. Must be a power of two. */
+  private static final int INITIAL_CAPACITY = 64;
+
+  /** The multiplier used to spread keys over the slots (2^64 over the golden ratio). */
+  private static final long SPREAD = 0x9E3779B97F4A7C15L;
+
+  /** Reads and writes the block numbers of a table with memory ordering. */
+  private static final VarHandle NUMS = MethodHandles.arrayElementVarHandle(int[].class);
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The current table. Replaced, never changed, when the index grows. */
+  private volatile Table table = new Table(INITIAL_CAPACITY);
+
+  /** The number of entries, including retired ones. */
+  private int size;
+
+  /** The number of entries for blocks that have been removed. */
+  private int retired;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /** Create an empty index. */
+  public BlockHashIndex() {
+    // The table starts empty.
+  } // BlockHashIndex()
+
+  /**
+   * Build an index of the blocks in a store.
+   *
+   * @param blocks The blocks.
+   * @return the index.
+   */
+  public static BlockHashIndex of(BlockStore blocks) {
+    BlockHashIndex built = new BlockHashIndex();
+    for (int i = 0; i < blocks.size(); i++) {
+      built.put(blocks.hash(i), i);
+    } // for
+    return built;
+  } // of(BlockStore)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the number of entries for blocks that have not been retired.
+   *
+   * @return the number of entries.
+   */
+  public int size() {
+    return this.size - this.retired;
+  } // size()
+
+  /**
+   * Record the number of the block with the given hash. Only one thread may add to the index.
+   *
+   * @param hash The hash of the block.
+   * @param num The number of the block.
+   */
+  public void put(Hash hash, int num) {
+    Table current = this.table;
+    if (2 * (this.size + 1) > current.nums.length) {
+      Table bigger = new Table(current.nums.length * 2);
+      for (int i = 0; i < current.nums.length; i++) {
+        if (current.nums[i] != EMPTY) {
+          bigger.insert(current.keys[i], current.nums[i]);
+        } // if
+      } // for
+      this.table = bigger;
+      current = bigger;
+    } // if
+    current.insert(hash.trailingLong(), num);
+    this.size++;
+  } // put(Hash, int)
+
+  /**
+   * Find the number of the block with the given hash. May be called from any thread.
+   *
+   * @param hash The hash to look for.
+   * @param blocks The blocks to look in, used to tell apart hashes that share a key and to skip
+   *     entries for blocks they do not hold.
+   * @return the number of the block, or -1 if no block in both the index and blocks has that hash.
+   */
+  public int find(Hash hash, BlockStore blocks) {
+    Table current = this.table;
+    long key = hash.trailingLong();
+    int mask = current.nums.length - 1;
+    int i = current.slot(key);
+    for (int num = (int) NUMS.getAcquire(current.nums, i);
+        num != EMPTY;
+        num = (int) NUMS.getAcquire(current.nums, i)) {
+      if (current.keys[i] == key && num < blocks.size() && hash.equals(blocks.hash(num))) {
+        return num;
+      } // if
+      i = (i + 1) & mask;
+    } // for
+    return -1;
+  } // find(Hash, BlockStore)
+
+  /**
+   * Note that a block in the index has been removed. Its entry stays, for the sake of readers that
+   * still hold the block, and is skipped by lookups in blocks that do not.
+   *
+   * @return true if most entries are retired, so that a new index is worth building.
+   */
+  public boolean retire() {
+    this.retired++;
+    return 2 * this.retired > this.size;
+  } // retire()
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /** The slots of the index. */
+  private static final class Table {
+    /** The keys. */
+    final long[] keys;
+
+    /** The block numbers, or EMPTY for empty slots. */
+    final int[] nums;
+
+    /** The log (base 2) of the number of slots. */
+    final int bits;
+
+    /**
+     * Create an empty table.
+     *
+     * @param capacity The number of slots. Must be a power of two.
+     */
+    Table(int capacity) {
+      this.keys = new long[capacity];
+      this.nums = new int[capacity];
+      Arrays.fill(this.nums, EMPTY);
+      this.bits = Integer.numberOfTrailingZeros(capacity);
+    } // Table(int)
+
+    /**
+     * Find the home slot of a key.
+     *
+     * @param key The key.
+     * @return the slot where probing for that key starts.
+     */
+    int slot(long key) {
+      return (int) ((key * SPREAD) >>> (Long.SIZE - this.bits));
+    } // slot(long)
+
+    /**
+     * Add an entry without checking the load. The key is written before the number is published, so
+     * a reader that sees the number also sees the key.
+     *
+     * @param key The key.
+     * @param num The block number.
+     */
+    void insert(long key, int num) {
+      int mask = this.nums.length - 1;
+      int i = this.slot(key);
+      while (this.nums[i] != EMPTY) {
+        i = (i + 1) & mask;
+      } // while
+      this.keys[i] = key;
+      NUMS.setRelease(this.nums, i, num);
+    } // insert(long, int)
+  } // class Table
+} // class BlockHashIndex
@@ -0,0 +1,408 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Computes block hashes while reusing its buffers. The contents of a block (number, source, target,
+ * amount, and previous hash) are serialized once into a reusable buffer, after which each nonce is
+ * written into the last eight bytes and hashed in place, with no allocation per nonce.
+ *
+ * <p>In midstate mode, the hasher also feeds the fixed prefix to a digest once, on reset, and keeps
+ * that digest as the "midstate". Each nonce then clones the midstate and feeds it only the nonce,
+ * so SHA-256 only compresses the final one or two 64-byte blocks. The results are identical to
+ * those of the plain mode. MessageDigest offers no way to restore a saved state into an existing
+ * digest, so unlike the plain mode, midstate mode allocates one short-lived digest per nonce. Since
+ * the clone also costs about as much as one compression, the midstate is only used when the prefix
+ * fills at least one complete block.
+ *
+ * <p>A block with several transactions is serialized as its number, a tag byte, the number of
+ * transactions, their Merkle root, and the previous hash, so the root is computed once per reset,
+ * not once per nonce. The tag (0xFF) never occurs in UTF-8, in which sources and targets are
+ * encoded, so no block with one transaction serializes to the same bytes as one with several.
+ *
+ * <p>A block with a difficulty target (one on a retargeted chain) has its target and mining time
+ * serialized after the previous hash, so that its hash covers both. A block without one is
+ * serialized without them, exactly as before chains could be retargeted.
+ *
+ * <p>A hasher owns its digest and buffers, so it must only be used by one thread at a time.
+ *
+ * @author Harrison Zhu
+ */
+public class BlockHasher {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The number of bytes in a SHA-256 digest. */
+  public static final int DIGEST_BYTES = 32;
+
+  /** The number of bytes in one SHA-256 message block. */
+  private static final int BLOCK_BYTES = 64;
+
+  /** Marks the header of a block with several transactions. Never a byte of UTF-8. */
+  private static final byte MERKLE_TAG = (byte) 0xFF;
+
+  /** The number of bytes of the target and mining time of a block that has a target. */
+  private static final int STAMP_BYTES = Integer.BYTES + Long.BYTES;
+
+  /** The initial size of the payload buffer. Large enough for most blocks. */
+  private static final int INITIAL_CAPACITY = 128;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The message digest. */
+  private final MessageDigest digest;
+
+  /** The serialized block, ending with the nonce. */
+  private byte[] payload = new byte[INITIAL_CAPACITY];
+
+  /** A view of the payload, used to write numbers. */
+  private ByteBuffer buffer = ByteBuffer.wrap(this.payload);
+
+  /** The number of bytes of the payload in use, including the nonce. */
+  private int length;
+
+  /** The most recent digest. */
+  private final byte[] output = new byte[DIGEST_BYTES];
+
+  /** A hash that shares the output array and so always holds the most recent digest. */
+  private final Hash current = Hash.wrap(this.output);
+
+  /** Whether to hash nonces from the cached midstate. */
+  private final boolean midstate;
+
+  /** A digest that has been fed the fixed prefix. Null if not using the midstate. */
+  private MessageDigest prefixDigest;
+
+  /** The bytes of the nonce. */
+  private final byte[] nonceBytes = new byte[Long.BYTES];
+
+  /** The validator candidates are checked against. */
+  private HashValidator validator;
+
+  /** The validator, if it can check raw digests, or null otherwise. */
+  private DigestValidator digestValidator;
+
+  /** The largest valid value of the first eight bytes of a digest. */
+  private long leadingLimit;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /** Create a new hasher that uses the platform SHA-256 digest for every nonce. */
+  public BlockHasher() {
+    this(false);
+  } // BlockHasher()
+
+  /**
+   * Create a new hasher.
+   *
+   * @param useMidstate Whether to hash nonces from the cached state after the fixed prefix.
+   */
+  public BlockHasher(boolean useMidstate) {
+    this.digest = BlockHasher.newDigest();
+    this.midstate = useMidstate;
+  } // BlockHasher(boolean)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Create a fresh SHA-256 message digest.
+   *
+   * @return a new message digest.
+   */
+  static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException("Failed to initialize MessageDigest", e);
+    } // try catch
+  } // newDigest()
+
+  /**
+   * Make sure the payload can hold at least the given number of bytes.
+   *
+   * @param capacity The number of bytes needed.
+   */
+  private void ensureCapacity(int capacity) {
+    if (capacity > this.payload.length) {
+      this.payload = new byte[Math.max(capacity, this.payload.length * 2)];
+      this.buffer = ByteBuffer.wrap(this.payload);
+    } // if
+  } // ensureCapacity(int)
+
+  /**
+   * Feed the fixed prefix to the midstate digest, or clear the midstate if it would not pay off.
+   * Assumes the payload has just been serialized.
+   */
+  private void prepareMidstate() {
+    int prefixLength = this.length - Long.BYTES;
+    if (prefixLength < BLOCK_BYTES) {
+      this.prefixDigest = null;
+      return;
+    } // if
+    if (this.prefixDigest == null) {
+      this.prefixDigest = BlockHasher.newDigest();
+    } // if
+    this.prefixDigest.reset();
+    this.prefixDigest.update(this.payload, 0, prefixLength);
+  } // prepareMidstate()
+
+  /**
+   * Get the number of bytes serialized for the target and mining time of a block.
+   *
+   * @param compact The target, in compact form, or 0 if the block has none.
+   * @return the number of bytes.
+   */
+  private static int stampBytes(int compact) {
+    return (compact == 0) ? 0 : STAMP_BYTES;
+  } // stampBytes(int)
+
+  /**
+   * Serialize the end of the fixed prefix, the previous hash and the target and mining time, and
+   * prepare the midstate.
+   *
+   * @param pos Where the previous hash goes.
+   * @param prevHash The hash of the previous block (or null, for none).
+   * @param compact The target, in compact form, or 0 if the block has none.
+   * @param millis The mining time, serialized only if the block has a target.
+   */
+  private void finish(int pos, Hash prevHash, int compact, long millis) {
+    int end = pos;
+    if (prevHash != null) {
+      prevHash.copyTo(this.payload, end);
+      end += prevHash.length();
+    } // if
+    if (compact != 0) {
+      this.buffer.putInt(end, compact); // target
+      this.buffer.putLong(end + Integer.BYTES, millis); // mining time
+    } // if
+    if (this.midstate) {
+      this.prepareMidstate();
+    } // if
+  } // finish(int, Hash, int, long)
+
+  /**
+   * Serialize the parts of a block with one transaction that stay fixed while mining.
+   *
+   * @param num The number of the block.
+   * @param theTransaction The transaction for the block.
+   * @param prevHash The hash of the previous block (or null, for none).
+   * @param compact The target, in compact form, or 0 if the block has none.
+   * @param millis The mining time, serialized only if the block has a target.
+   */
+  private void reset(int num, Transaction theTransaction, Hash prevHash, int compact, long millis) {
+    byte[] source = theTransaction.getSource().getBytes(StandardCharsets.UTF_8);
+    byte[] target = theTransaction.getTarget().getBytes(StandardCharsets.UTF_8);
+    int prevLength = (prevHash == null) ? 0 : prevHash.length();
+    this.length =
+        Integer.BYTES
+            + source.length
+            + target.length
+            + Integer.BYTES
+            + prevLength
+            + BlockHasher.stampBytes(compact)
+            + Long.BYTES;
+    this.ensureCapacity(this.length);
+
+    int pos = 0;
+    this.buffer.putInt(pos, num); // block number
+    pos += Integer.BYTES;
+    System.arraycopy(source, 0, this.payload, pos, source.length); // source
+    pos += source.length;
+    System.arraycopy(target, 0, this.payload, pos, target.length); // target
+    pos += target.length;
+    this.buffer.putInt(pos, theTransaction.getAmount()); // amount
+    pos += Integer.BYTES;
+    this.finish(pos, prevHash, compact, millis);
+  } // reset(int, Transaction, Hash, int, long)
+
+  /**
+   * Hash the most recently reset block with the given nonce, starting from a clone of the midstate.
+   *
+   * @param nonce The nonce of the block.
+   * @throws CloneNotSupportedException if the platform digest cannot be cloned.
+   * @throws DigestException if the digest cannot be written.
+   */
+  private void digestFromMidstate(long nonce) throws CloneNotSupportedException, DigestException {
+    MessageDigest resumed = (MessageDigest) this.prefixDigest.clone();
+    for (int i = 0; i < Long.BYTES; i++) {
+      this.nonceBytes[i] = (byte) (nonce >>> (Byte.SIZE * (Long.BYTES - 1 - i)));
+    } // for
+    resumed.update(this.nonceBytes);
+    resumed.digest(this.output, 0, DIGEST_BYTES);
+  } // digestFromMidstate(long)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Determine whether this hasher hashes nonces from the cached midstate.
+   *
+   * @return true if in midstate mode and false otherwise.
+   */
+  public boolean usesMidstate() {
+    return this.midstate;
+  } // usesMidstate()
+
+  /**
+   * Serialize the parts of a block that stay fixed while mining.
+   *
+   * @param num The number of the block.
+   * @param theTransaction The transaction for the block.
+   * @param prevHash The hash of the previous block (or null, for none).
+   */
+  public void reset(int num, Transaction theTransaction, Hash prevHash) {
+    this.reset(num, theTransaction, prevHash, 0, 0);
+  } // reset(int, Transaction, Hash)
+
+  /**
+   * Serialize the parts of a block that stay fixed while mining. A block with one transaction is
+   * serialized as reset(int, Transaction, Hash) does, and one with several by a tag, the number of
+   * transactions, and their Merkle root.
+   *
+   * @param num The number of the block.
+   * @param theTransactions The transactions for the block, in order.
+   * @param prevHash The hash of the previous block (or null, for none).
+   * @throws IllegalArgumentException if there are no transactions.
+   */
+  public void reset(int num, List<Transaction> theTransactions, Hash prevHash) {
+    this.reset(num, theTransactions, prevHash, 0, 0);
+  } // reset(int, List<Transaction>, Hash)
+
+  /**
+   * Serialize the parts of a block that stay fixed while mining, as reset(int, List, Hash) does,
+   * followed by the target and mining time if there is a target.
+   *
+   * @param num The number of the block.
+   * @param theTransactions The transactions for the block, in order.
+   * @param prevHash The hash of the previous block (or null, for none).
+   * @param compact The target, in compact form, or 0 if the block has none.
+   * @param millis The mining time, in milliseconds since the epoch. Ignored if compact is 0.
+   * @throws IllegalArgumentException if there are no transactions.
+   */
+  public void reset(
+      int num, List<Transaction> theTransactions, Hash prevHash, int compact, long millis) {
+    if (theTransactions.size() == 1) {
+      this.reset(num, theTransactions.get(0), prevHash, compact, millis);
+      return;
+    } // if
+    Hash root = MerkleTree.root(theTransactions);
+    int prevLength = (prevHash == null) ? 0 : prevHash.length();
+    this.length =
+        Integer.BYTES
+            + 1
+            + Integer.BYTES
+            + root.length()
+            + prevLength
+            + BlockHasher.stampBytes(compact)
+            + Long.BYTES;
+    this.ensureCapacity(this.length);
+
+    int pos = 0;
+    this.buffer.putInt(pos, num); // block number
+    pos += Integer.BYTES;
+    this.payload[pos++] = MERKLE_TAG; // tag
+    this.buffer.putInt(pos, theTransactions.size()); // number of transactions
+    pos += Integer.BYTES;
+    root.copyTo(this.payload, pos); // Merkle root
+    pos += root.length();
+    this.finish(pos, prevHash, compact, millis);
+  } // reset(int, List<Transaction>, Hash, int, long)
+
+  /**
+   * Serialize the parts of a block that stay fixed while mining.
+   *
+   * @param blk The block.
+   */
+  public void reset(Block blk) {
+    this.reset(
+        blk.getNum(), blk.getTransactions(), blk.getPrevHash(), blk.getTarget(), blk.getMinedAt());
+  } // reset(Block)
+
+  /**
+   * Hash the most recently reset block with the given nonce. The result is left in a buffer that is
+   * overwritten by the next call.
+   *
+   * @param nonce The nonce of the block.
+   * @return the digest, valid until the next call.
+   */
+  public byte[] digest(long nonce) {
+    try {
+      if (this.prefixDigest != null) {
+        this.digestFromMidstate(nonce);
+        return this.output;
+      } // if
+      this.buffer.putLong(this.length - Long.BYTES, nonce); // nonce
+      this.digest.update(this.payload, 0, this.length);
+      this.digest.digest(this.output, 0, DIGEST_BYTES);
+    } catch (CloneNotSupportedException | DigestException e) {
+      throw new IllegalStateException("Failed to compute digest", e);
+    } // try catch
+    return this.output;
+  } // digest(long)
+
+  /**
+   * Set the validator that tryNonce checks candidates against.
+   *
+   * @param check The validator.
+   */
+  public void setValidator(HashValidator check) {
+    this.validator = check;
+    if (check instanceof DigestValidator) {
+      this.digestValidator = (DigestValidator) check;
+      this.leadingLimit = this.digestValidator.leadingLimit();
+    } else {
+      this.digestValidator = null;
+    } // if else
+  } // setValidator(HashValidator)
+
+  /**
+   * Hash the most recently reset block with the given nonce and check the result against the
+   * validator. Digest validators check the raw digest, rejecting most candidates with a single
+   * comparison of the first eight bytes; other validators get the current hash.
+   *
+   * @param nonce The nonce of the block.
+   * @return true if the hash is valid and false otherwise.
+   */
+  public boolean tryNonce(long nonce) {
+    byte[] result = this.digest(nonce);
+    if (this.digestValidator != null) {
+      return Long.compareUnsigned(Hash.readLong(result, 0), this.leadingLimit) <= 0
+          && this.digestValidator.isValid(result);
+    } // if
+    return this.validator.isValid(this.current);
+  } // tryNonce(long)
+
+  /**
+   * Get the most recent digest as a hash. The hash shares its bytes with this hasher, so it changes
+   * with every call to digest and must not be kept.
+   *
+   * @return the most recent digest.
+   */
+  Hash current() {
+    return this.current;
+  } // current()
+
+  /**
+   * Compute the hash of a block.
+   *
+   * @param blk The block to hash.
+   * @return the hash of the block.
+   */
+  public Hash hash(Block blk) {
+    this.reset(blk);
+    return new Hash(this.digest(blk.getNonce()));
+  } // hash(Block)
+} // class BlockHasher
@@ -0,0 +1,776 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * An append-only log of blocks in a single segment file. Each block is written as a binary record:
+ * the length of the body, the body (number, transaction, previous hash, nonce, hash, target, and
+ * times), and a CRC32C of the body. All numbers are big-endian. A block with several transactions
+ * keeps the first in the usual place and ends its body with the number of others and then the
+ * others, so records of blocks with one transaction are the same as they always were.
+ *
+ * <p>Records are collected in a buffer and written through a file channel in large batches. When
+ * they are forced to disk depends on the durability policy. Removing the last block truncates the
+ * file. On opening, the log is scanned for record boundaries, and a torn or corrupt record at the
+ * end (left by a crash during a write) is cut off.
+ *
+ * <p>Next to the segment file is an index file (with the suffix ".idx") holding the offset of each
+ * record as a big-endian long. Opening a log loads the index in bulk and only scans records the
+ * index does not cover, so opening takes time proportional to the number of blocks written since
+ * the index was last flushed, not to the size of the chain. Blocks are read by number from a memory
+ * mapping of the segment file and decoded only when asked for.
+ *
+ * <p>A log may be shared between threads: each public method holds the lock of the log.
+ *
+ * @author Harrison Zhu
+ */
+public class BlockLog implements Closeable {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The default number of blocks between forces under the BATCH policy. */
+  public static final int DEFAULT_BATCH = 256;
+
+  /** The size of the write buffer. */
+  private static final int BUFFER_BYTES = 1 << 16;
+
+  /** The bytes in a record that are not part of the body: the length and the checksum. */
+  private static final int FRAME_BYTES = 2 * Integer.BYTES;
+
+  /** The length written in place of the previous hash of the first block. */
+  private static final int NO_HASH = -1;
+
+  /** The suffix of the index file. */
+  private static final String INDEX_SUFFIX = ".idx";
+
+  /** The log (base 2) of the number of bytes each mapping of the segment file starts apart. */
+  private static final int REGION_BITS = 30;
+
+  /** How far each mapping extends into the next, so that records crossing a boundary fit. */
+  private static final int REGION_OVERLAP = 1 << 20;
+
+  // +------------------+--------------------------------------------
+  // | Durability types |
+  // +------------------+
+
+  /** When appended blocks are forced to disk. */
+  public enum Durability {
+    /** Force only on flush and close. A crash may lose any block not yet flushed. */
+    NONE,
+
+    /** Force every batch of blocks, and on flush and close. A crash may lose one batch. */
+    BATCH,
+
+    /** Force on every append and removal. Nothing acknowledged is lost, but appends are slow. */
+    SYNC
+  } // enum Durability
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The path of the segment file. */
+  private final Path path;
+
+  /** The segment file. */
+  private final FileChannel channel;
+
+  /** The index file. */
+  private final FileChannel indexChannel;
+
+  /** When blocks are forced to disk. */
+  private final Durability durability;
+
+  /** The number of blocks between forces under the BATCH policy. */
+  private final int batchSize;
+
+  /** Records not yet written to the channel. */
+  private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+
+  /** The offset of each record in the file. Only the first count are used. */
+  private long[] offsets = new long[64];
+
+  /** The number of records. */
+  private int count;
+
+  /** The number of bytes written to the channel. Buffered records follow. */
+  private long written;
+
+  /** The number of offsets written to the index file. */
+  private int indexed;
+
+  /** Mappings of the segment file, made as they are needed. */
+  private MappedByteBuffer[] regions;
+
+  /** The end of the part of the segment file that may be read through the mappings. */
+  private long mappedEnd;
+
+  /** The number of changes since the last force. */
+  private int unforced;
+
+  /** Computes record checksums. */
+  private final CRC32C crc = new CRC32C();
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Open a log with the BATCH policy, creating the file if it does not exist.
+   *
+   * @param file The segment file.
+   * @throws IOException if the file cannot be opened or read.
+   */
+  public BlockLog(Path file) throws IOException {
+    this(file, Durability.BATCH, DEFAULT_BATCH);
+  } // BlockLog(Path)
+
+  /**
+   * Open a log, creating the file if it does not exist.
+   *
+   * @param file The segment file.
+   * @param policy When appended blocks are forced to disk.
+   * @param blocksPerForce The number of blocks between forces under the BATCH policy.
+   * @throws IOException if the file cannot be opened or read.
+   * @throws IllegalArgumentException if blocksPerForce is less than 1.
+   */
+  public BlockLog(Path file, Durability policy, int blocksPerForce) throws IOException {
+    if (blocksPerForce < 1) {
+      throw new IllegalArgumentException("Need at least one block per force: " + blocksPerForce);
+    } // if
+    this.path = file;
+    this.durability = policy;
+    this.batchSize = blocksPerForce;
+    this.channel =
+        FileChannel.open(
+            file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      this.indexChannel =
+          FileChannel.open(
+              file.resolveSibling(file.getFileName() + INDEX_SUFFIX),
+              StandardOpenOption.CREATE,
+              StandardOpenOption.READ,
+              StandardOpenOption.WRITE);
+    } catch (IOException e) {
+      this.channel.close();
+      throw e;
+    } // try catch
+    try {
+      this.open();
+    } catch (IOException e) {
+      this.channel.close();
+      this.indexChannel.close();
+      throw e;
+    } // try catch
+  } // BlockLog(Path, Durability, int)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Load the index and find the records it does not cover.
+   *
+   * @throws IOException if the files cannot be read.
+   */
+  private void open() throws IOException {
+    long size = this.channel.size();
+    int entries = (int) Math.min(this.indexChannel.size() / Long.BYTES, Integer.MAX_VALUE - 8);
+    this.offsets = new long[Math.max(this.offsets.length, entries)];
+    if (entries > 0) {
+      this.indexChannel
+          .map(FileChannel.MapMode.READ_ONLY, 0, (long) entries * Long.BYTES)
+          .asLongBuffer()
+          .get(this.offsets, 0, entries);
+    } // if
+
+    // Trust the offsets that increase and lie in the file, as long as the last one is sound.
+    long previous = -1;
+    while (this.count < entries
+        && this.offsets[this.count] > previous
+        && this.offsets[this.count] < size
+        && (this.count > 0 || this.offsets[0] == 0)) {
+      previous = this.offsets[this.count++];
+    } // while
+    long pos = 0;
+    while (this.count > 0 && pos == 0) {
+      pos = this.recordEnd(this.offsets[this.count - 1], size);
+      if (pos == 0) {
+        this.count--;
+      } // if
+    } // while
+    this.indexed = this.count;
+    if (this.indexChannel.size() > (long) this.count * Long.BYTES) {
+      this.indexChannel.truncate((long) this.count * Long.BYTES);
+    } // if
+
+    this.scan(pos, size);
+    this.mappedEnd = this.written;
+    this.regions = new MappedByteBuffer[(int) (this.mappedEnd >>> REGION_BITS) + 1];
+    this.drain();
+  } // open()
+
+  /**
+   * Check the record at an offset.
+   *
+   * @param pos The offset of the record.
+   * @param size The size of the file.
+   * @return the offset just past the record, or 0 if it is torn or corrupt.
+   * @throws IOException if the file cannot be read.
+   */
+  private long recordEnd(long pos, long size) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+    this.readFully(header, pos);
+    int length = header.getInt(0);
+    if (length < 0 || pos + FRAME_BYTES + length > size) {
+      return 0;
+    } // if
+    ByteBuffer record = ByteBuffer.allocate(length + Integer.BYTES);
+    this.readFully(record, pos + Integer.BYTES);
+    this.crc.reset();
+    this.crc.update(record.array(), 0, length);
+    return (record.getInt(length) == (int) this.crc.getValue()) ? pos + FRAME_BYTES + length : 0;
+  } // recordEnd(long, long)
+
+  /**
+   * Fill a buffer from the segment file.
+   *
+   * @param buf The buffer.
+   * @param pos The offset of the first byte to read.
+   * @throws IOException if the file cannot be read.
+   */
+  private void readFully(ByteBuffer buf, long pos) throws IOException {
+    while (buf.hasRemaining()) {
+      int n = this.channel.read(buf, pos);
+      if (n < 0) {
+        throw new EOFException("Log ends at " + pos);
+      } // if
+      pos += n;
+    } // while
+  } // readFully(ByteBuffer, long)
+
+  /**
+   * Find the records in the file after an offset, cutting off a torn or corrupt record at the end.
+   *
+   * @param from The offset just past the last known record.
+   * @param size The size of the file.
+   * @throws IOException if the file cannot be read.
+   */
+  private void scan(long from, long size) throws IOException {
+    DataInputStream in = this.streamFrom(from);
+    long pos = from;
+    byte[] body = new byte[0];
+    while (pos + FRAME_BYTES <= size) {
+      int length = in.readInt();
+      if (length < 0 || pos + FRAME_BYTES + length > size) {
+        break;
+      } // if
+      if (body.length < length) {
+        body = new byte[Math.max(length, 2 * body.length)];
+      } // if
+      in.readFully(body, 0, length);
+      this.crc.reset();
+      this.crc.update(body, 0, length);
+      if (in.readInt() != (int) this.crc.getValue()) {
+        break;
+      } // if
+      this.addOffset(pos);
+      pos += FRAME_BYTES + length;
+    } // while
+    if (pos < size) {
+      this.channel.truncate(pos);
+      this.channel.force(true);
+    } // if
+    this.written = pos;
+  } // scan(long, long)
+
+  /**
+   * Open a buffered stream over the file, starting at an offset. Reads through the stream move the
+   * position of the channel, which is otherwise unused.
+   *
+   * @param pos The offset of the first byte to read.
+   * @return the stream.
+   * @throws IOException if the file cannot be read.
+   */
+  private DataInputStream streamFrom(long pos) throws IOException {
+    this.channel.position(pos);
+    InputStream raw = Channels.newInputStream(this.channel);
+    return new DataInputStream(new BufferedInputStream(raw, BUFFER_BYTES));
+  } // streamFrom(long)
+
+  /**
+   * Record the offset of a new record.
+   *
+   * @param pos The offset.
+   */
+  private void addOffset(long pos) {
+    if (this.count == this.offsets.length) {
+      this.offsets = Arrays.copyOf(this.offsets, 2 * this.count);
+    } // if
+    this.offsets[this.count++] = pos;
+  } // addOffset(long)
+
+  /**
+   * Get the offset just past the last record, including buffered records.
+   *
+   * @return the offset.
+   */
+  private long end() {
+    return this.written + this.buffer.position();
+  } // end()
+
+  /**
+   * Write the buffered records to the channel.
+   *
+   * @throws IOException if the records cannot be written.
+   */
+  private void drain() throws IOException {
+    this.buffer.flip();
+    while (this.buffer.hasRemaining()) {
+      this.written += this.channel.write(this.buffer, this.written);
+    } // while
+    this.buffer.clear();
+
+    if (this.indexed < this.count) {
+      ByteBuffer entries = ByteBuffer.allocate((this.count - this.indexed) * Long.BYTES);
+      entries.asLongBuffer().put(this.offsets, this.indexed, this.count - this.indexed);
+      long at = (long) this.indexed * Long.BYTES;
+      while (entries.hasRemaining()) {
+        at += this.indexChannel.write(entries, at);
+      } // while
+      this.indexed = this.count;
+    } // if
+  } // drain()
+
+  /**
+   * Note a change, forcing it to disk if the policy calls for it.
+   *
+   * @throws IOException if the file cannot be written.
+   */
+  private void changed() throws IOException {
+    this.unforced++;
+    if (this.durability == Durability.SYNC
+        || (this.durability == Durability.BATCH && this.unforced >= this.batchSize)) {
+      this.flush();
+    } // if
+  } // changed()
+
+  /**
+   * Write a length-prefixed string.
+   *
+   * @param buf The buffer to write to.
+   * @param bytes The bytes of the string.
+   */
+  private static void putBytes(ByteBuffer buf, byte[] bytes) {
+    buf.putInt(bytes.length);
+    buf.put(bytes);
+  } // putBytes(ByteBuffer, byte[])
+
+  /**
+   * Read a length-prefixed string.
+   *
+   * @param buf The buffer to read from.
+   * @return the string.
+   */
+  private static String getString(ByteBuffer buf) {
+    byte[] bytes = new byte[buf.getInt()];
+    buf.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  } // getString(ByteBuffer)
+
+  /**
+   * Read a length-prefixed hash.
+   *
+   * @param buf The buffer to read from.
+   * @return the hash, or null if none was written.
+   */
+  private static Hash getHash(ByteBuffer buf) {
+    int length = buf.getInt();
+    if (length == NO_HASH) {
+      return null;
+    } // if
+    byte[] bytes = new byte[length];
+    buf.get(bytes);
+    return new Hash(bytes);
+  } // getHash(ByteBuffer)
+
+  /**
+   * Skip a length-prefixed string or hash.
+   *
+   * @param buf The buffer to read from.
+   */
+  private static void skip(ByteBuffer buf) {
+    int length = buf.getInt();
+    if (length != NO_HASH) {
+      buf.position(buf.position() + length);
+    } // if
+  } // skip(ByteBuffer)
+
+  /**
+   * Encode a transaction as its source, target, and amount.
+   *
+   * @param buf The buffer to write to.
+   * @param transaction The transaction.
+   */
+  private static void putTransaction(ByteBuffer buf, Transaction transaction) {
+    BlockLog.putBytes(buf, transaction.getSource().getBytes(StandardCharsets.UTF_8));
+    BlockLog.putBytes(buf, transaction.getTarget().getBytes(StandardCharsets.UTF_8));
+    buf.putInt(transaction.getAmount());
+  } // putTransaction(ByteBuffer, Transaction)
+
+  /**
+   * Decode a transaction.
+   *
+   * @param buf The buffer, positioned at the source of the transaction.
+   * @return the transaction.
+   */
+  private static Transaction getTransaction(ByteBuffer buf) {
+    String source = BlockLog.getString(buf);
+    String target = BlockLog.getString(buf);
+    return new Transaction(source, target, buf.getInt());
+  } // getTransaction(ByteBuffer)
+
+  /**
+   * Decode the transactions after the first, if any, and add them to a list.
+   *
+   * @param body The body, positioned after the times.
+   * @param transactions The list, which holds the first transaction.
+   */
+  private static void getOthers(ByteBuffer body, List<Transaction> transactions) {
+    if (!body.hasRemaining()) {
+      return;
+    } // if
+    int others = body.getInt();
+    for (int i = 0; i < others; i++) {
+      transactions.add(BlockLog.getTransaction(body));
+    } // for
+  } // getOthers(ByteBuffer, List<Transaction>)
+
+  /**
+   * Decode the transactions in the body of a record.
+   *
+   * @param body The body, positioned at its start.
+   * @return the transactions.
+   */
+  private static List<Transaction> decodeTransactions(ByteBuffer body) {
+    body.getInt(); // number
+    List<Transaction> transactions = new ArrayList<Transaction>(1);
+    transactions.add(BlockLog.getTransaction(body));
+    BlockLog.skip(body); // previous hash
+    body.getLong(); // nonce
+    BlockLog.skip(body); // hash
+    body.getInt(); // target
+    body.getLong(); // mined at
+    body.getLong(); // appended at
+    BlockLog.getOthers(body, transactions);
+    return transactions;
+  } // decodeTransactions(ByteBuffer)
+
+  /**
+   * Decode the body of a record.
+   *
+   * @param body The body.
+   * @return the block.
+   */
+  static Block decode(ByteBuffer body) {
+    int num = body.getInt();
+    List<Transaction> transactions = new ArrayList<Transaction>(1);
+    transactions.add(BlockLog.getTransaction(body));
+    Hash prevHash = BlockLog.getHash(body);
+    long nonce = body.getLong();
+    Hash hash = BlockLog.getHash(body);
+    int target = body.getInt();
+    long minedAt = body.getLong();
+    long appendedAt = body.getLong();
+    BlockLog.getOthers(body, transactions);
+    Block blk = new Block(num, transactions, prevHash, nonce, hash);
+    blk.setTarget(target);
+    blk.setMinedAt(minedAt);
+    blk.setAppendedAt(appendedAt);
+    return blk;
+  } // decode(ByteBuffer)
+
+  /**
+   * Check that a record number is in range.
+   *
+   * @param i The record number.
+   * @throws IndexOutOfBoundsException if there is no such record.
+   */
+  private void checkIndex(int i) {
+    if (i < 0 || i >= this.count) {
+      throw new IndexOutOfBoundsException("No block " + i + " in a log of " + this.count);
+    } // if
+  } // checkIndex(int)
+
+  /**
+   * Get a mapping of the segment file.
+   *
+   * @param k The number of the mapping.
+   * @return the mapping, which starts at offset k * 2^REGION_BITS.
+   * @throws IOException if the file cannot be mapped.
+   */
+  private MappedByteBuffer region(int k) throws IOException {
+    if (this.regions[k] == null) {
+      long base = (long) k << REGION_BITS;
+      long length = Math.min(this.mappedEnd - base, (1L << REGION_BITS) + REGION_OVERLAP);
+      this.regions[k] = this.channel.map(FileChannel.MapMode.READ_ONLY, base, length);
+    } // if
+    return this.regions[k];
+  } // region(int)
+
+  /**
+   * Get the body of a record, from the write buffer, a mapping, or the file. The result is only
+   * good until the log next changes.
+   *
+   * @param i The number of the record.
+   * @return the body, positioned at its start.
+   * @throws IOException if the record cannot be read.
+   * @throws IndexOutOfBoundsException if there is no such record.
+   */
+  private ByteBuffer body(int i) throws IOException {
+    this.checkIndex(i);
+    long pos = this.offsets[i];
+    long next = (i + 1 < this.count) ? this.offsets[i + 1] : this.end();
+    int length = (int) (next - pos) - FRAME_BYTES;
+    long from = pos + Integer.BYTES;
+    if (pos >= this.written) {
+      return ByteBuffer.wrap(this.buffer.array(), (int) (from - this.written), length);
+    } // if
+    if (next <= this.mappedEnd) {
+      int k = (int) (pos >>> REGION_BITS);
+      long base = (long) k << REGION_BITS;
+      MappedByteBuffer region = this.region(k);
+      if (next - base <= region.capacity()) {
+        return region.slice((int) (from - base), length);
+      } // if
+    } // if
+    ByteBuffer result = ByteBuffer.allocate(length);
+    this.readFully(result, from);
+    return result.flip();
+  } // body(int)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the path of the segment file. Files related to the log are kept next to it.
+   *
+   * @return the path.
+   */
+  public Path getFile() {
+    return this.path;
+  } // getFile()
+
+  /**
+   * Get the durability policy.
+   *
+   * @return the policy.
+   */
+  public Durability getDurability() {
+    return this.durability;
+  } // getDurability()
+
+  /**
+   * Get the number of blocks in the log.
+   *
+   * @return the number of blocks.
+   */
+  public synchronized int size() {
+    return this.count;
+  } // size()
+
+  /**
+   * Add a block to the end of the log.
+   *
+   * @param blk The block.
+   * @throws IOException if the block cannot be written.
+   */
+  public synchronized void append(Block blk) throws IOException {
+    List<Transaction> transactions = blk.getTransactions();
+    int transactionBytes = 0;
+    for (Transaction transaction : transactions) {
+      transactionBytes +=
+          3 * Integer.BYTES
+              + transaction.getSource().getBytes(StandardCharsets.UTF_8).length
+              + transaction.getTarget().getBytes(StandardCharsets.UTF_8).length;
+    } // for
+    int others = transactions.size() - 1;
+    Hash prevHash = blk.getPrevHash();
+    int prevLength = (prevHash == null) ? 0 : prevHash.length();
+    int hashLength = blk.getHash().length();
+    int length =
+        4 * Integer.BYTES
+            + transactionBytes
+            + ((others > 0) ? Integer.BYTES : 0)
+            + prevLength
+            + hashLength
+            + 3 * Long.BYTES;
+    if (this.buffer.remaining() < length + FRAME_BYTES) {
+      this.drain();
+      if (this.buffer.capacity() < length + FRAME_BYTES) {
+        this.buffer = ByteBuffer.allocate(length + FRAME_BYTES);
+      } // if
+    } // if
+
+    long pos = this.end();
+    ByteBuffer buf = this.buffer;
+    buf.putInt(length);
+    int start = buf.position();
+    buf.putInt(blk.getNum());
+    BlockLog.putTransaction(buf, transactions.get(0));
+    if (prevHash == null) {
+      buf.putInt(NO_HASH);
+    } else {
+      buf.putInt(prevLength);
+      prevHash.copyTo(buf.array(), buf.position());
+      buf.position(buf.position() + prevLength);
+    } // if else
+    buf.putLong(blk.getNonce());
+    buf.putInt(hashLength);
+    blk.getHash().copyTo(buf.array(), buf.position());
+    buf.position(buf.position() + hashLength);
+    buf.putInt(blk.getTarget());
+    buf.putLong(blk.getMinedAt());
+    buf.putLong(blk.getAppendedAt());
+    if (others > 0) {
+      buf.putInt(others);
+      for (Transaction transaction : transactions.subList(1, transactions.size())) {
+        BlockLog.putTransaction(buf, transaction);
+      } // for
+    } // if
+    this.crc.reset();
+    this.crc.update(buf.array(), start, length);
+    buf.putInt((int) this.crc.getValue());
+
+    this.addOffset(pos);
+    this.changed();
+  } // append(Block)
+
+  /**
+   * Remove the last block from the log, truncating the file.
+   *
+   * @return false if the log is empty and true otherwise.
+   * @throws IOException if the file cannot be truncated.
+   */
+  public synchronized boolean removeLast() throws IOException {
+    if (this.count == 0) {
+      return false;
+    } // if
+    long pos = this.offsets[--this.count];
+    if (pos >= this.written) {
+      this.buffer.position((int) (pos - this.written));
+    } else {
+      this.buffer.clear();
+      this.channel.truncate(pos);
+      this.written = pos;
+      this.mappedEnd = Math.min(this.mappedEnd, pos);
+    } // if else
+    if (this.indexed > this.count) {
+      this.indexed = this.count;
+      this.indexChannel.truncate((long) this.count * Long.BYTES);
+    } // if
+    this.changed();
+    return true;
+  } // removeLast()
+
+  /**
+   * Read one block from the log.
+   *
+   * @param i The number of the record, which is the number of the block.
+   * @return the block.
+   * @throws IOException if the block cannot be read.
+   * @throws IndexOutOfBoundsException if there is no such record.
+   */
+  public synchronized Block read(int i) throws IOException {
+    return BlockLog.decode(this.body(i));
+  } // read(int)
+
+  /**
+   * Read the transactions of one block, without decoding the rest of it.
+   *
+   * @param i The number of the block.
+   * @return the transactions, in order.
+   * @throws IOException if the block cannot be read.
+   * @throws IndexOutOfBoundsException if there is no such block.
+   */
+  public synchronized List<Transaction> readTransactions(int i) throws IOException {
+    return BlockLog.decodeTransactions(this.body(i));
+  } // readTransactions(int)
+
+  /**
+   * Read the hash of one block, without decoding the rest of it.
+   *
+   * @param i The number of the block.
+   * @return the hash.
+   * @throws IOException if the block cannot be read.
+   * @throws IndexOutOfBoundsException if there is no such block.
+   */
+  public synchronized Hash readHash(int i) throws IOException {
+    ByteBuffer body = this.body(i);
+    body.getInt(); // number
+    BlockLog.skip(body); // source
+    BlockLog.skip(body); // target
+    body.getInt(); // amount
+    BlockLog.skip(body); // previous hash
+    body.getLong(); // nonce
+    return BlockLog.getHash(body);
+  } // readHash(int)
+
+  /**
+   * Read every block in the log, in order.
+   *
+   * @return the blocks.
+   * @throws IOException if the blocks cannot be read.
+   */
+  public synchronized List<Block> readAll() throws IOException {
+    List<Block> result = new ArrayList<Block>(this.count);
+    for (int i = 0; i < this.count; i++) {
+      result.add(this.read(i));
+    } // for
+    return result;
+  } // readAll()
+
+  /**
+   * Write every buffered block and force the file to disk, whatever the policy.
+   *
+   * @throws IOException if the file cannot be written.
+   */
+  public synchronized void flush() throws IOException {
+    this.drain();
+    this.channel.force(false);
+    this.indexChannel.force(false);
+    this.unforced = 0;
+  } // flush()
+
+  /**
+   * Flush and close the log.
+   *
+   * @throws IOException if the file cannot be written.
+   */
+  public synchronized void close() throws IOException {
+    try {
+      this.flush();
+    } finally {
+      this.channel.close();
+      this.indexChannel.close();
+    } // try finally
+  } // close()
+} // class BlockLog
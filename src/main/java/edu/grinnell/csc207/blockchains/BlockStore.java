@@ -0,0 +1,442 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * A growable array of blocks. The blocks are kept in fixed-size chunks, so growing the store only
+ * copies the (small) table of chunks, never the blocks themselves. Block i is at position i, so in
+ * a valid chain a block can be found by its number in constant time.
+ *
+ * <p>A store may be backed by a block log. The blocks in the log are not read when the store is
+ * created; each is decoded the first time it is asked for and kept from then on. Transactions and
+ * hashes can also be read straight from the log, without decoding whole blocks.
+ *
+ * <p>A store can hand out frozen views of its current contents, which other threads may read
+ * without locks while the store changes. To keep the views stable, the store never changes a slot
+ * that a view might see: removing a block leaves its slot alone, and adding a block into a slot
+ * that was used before copies the chunk (and the table) first. A copy is private to the store until
+ * the next view is handed out, so after removing many blocks, each chunk is copied at most once on
+ * the way back up, not once per block. Blocks decoded from the log are published with
+ * compare-and-set, so every reader sees the same, fully built block.
+ *
+ * <p>A view may decode a block long after it was frozen, so the store must never let it read a
+ * record that has since been rewritten. The store decodes each block before removing it from the
+ * log, into the chunk it holds; and before it stops sharing a chunk or the table with the views, it
+ * decodes the blocks of that chunk and creates the chunks the views might need. So a block removed
+ * from the log is always in memory for every view that can see it.
+ *
+ * @author Harrison Zhu
+ */
+public class BlockStore extends AbstractList<Block> implements RandomAccess {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The log (base 2) of the number of blocks in a chunk. */
+  private static final int CHUNK_BITS = 10;
+
+  /** The number of blocks in a chunk. */
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+  /** Mask to find the position of a block within its chunk. */
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  /** The initial number of slots in the table of chunks. */
+  private static final int INITIAL_CHUNKS = 4;
+
+  /** Reads and writes the slots of chunks with memory ordering. */
+  private static final VarHandle BLOCKS = MethodHandles.arrayElementVarHandle(Block[].class);
+
+  /** Reads and writes the slots of tables of chunks with memory ordering. */
+  private static final VarHandle CHUNKS = MethodHandles.arrayElementVarHandle(Block[][].class);
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The chunks of blocks. Chunks past the last block may be null. */
+  private Block[][] chunks = new Block[INITIAL_CHUNKS][];
+
+  /** The number of blocks in the store. */
+  private int size;
+
+  /** The log that holds the blocks not yet decoded, or null if every block is in memory. */
+  private final BlockLog source;
+
+  /** One past the highest position ever used. Slots below it may be visible to views. */
+  private int highWater;
+
+  /** Whether this store is a frozen view. */
+  private final boolean frozen;
+
+  /** Whether a view may hold the table of chunks, which must then be copied before it changes. */
+  private boolean tableShared;
+
+  /** The chunks copied since the last view was handed out, which no view holds. */
+  private final BitSet copied = new BitSet();
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /** Create an empty store. */
+  public BlockStore() {
+    this.source = null;
+    this.frozen = false;
+  } // BlockStore()
+
+  /**
+   * Create a store holding the blocks in a log, which are decoded as they are needed.
+   *
+   * @param log The log.
+   */
+  public BlockStore(BlockLog log) {
+    this.source = log;
+    this.size = log.size();
+    this.highWater = this.size;
+    this.frozen = false;
+    int needed = (this.size >>> CHUNK_BITS) + 1;
+    this.chunks = new Block[Math.max(INITIAL_CHUNKS, Integer.highestOneBit(needed) << 1)][];
+  } // BlockStore(BlockLog)
+
+  /**
+   * Create a frozen view of a store.
+   *
+   * @param original The store.
+   */
+  private BlockStore(BlockStore original) {
+    this.chunks = original.chunks;
+    this.size = original.size;
+    this.source = original.source;
+    this.highWater = original.size;
+    this.frozen = true;
+  } // BlockStore(BlockStore)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Check that a position holds a block.
+   *
+   * @param index The position.
+   * @throws IndexOutOfBoundsException if there is no block at that position.
+   */
+  private void checkIndex(int index) {
+    if (index < 0 || index >= this.size) {
+      throw new IndexOutOfBoundsException("No block " + index + " in " + this.size + " blocks");
+    } // if
+  } // checkIndex(int)
+
+  /**
+   * Make sure the store may be changed.
+   *
+   * @throws UnsupportedOperationException if the store is a frozen view.
+   */
+  private void checkMutable() {
+    if (this.frozen) {
+      throw new UnsupportedOperationException("Frozen views cannot be changed");
+    } // if
+  } // checkMutable()
+
+  /**
+   * Get the chunk holding a position, creating it if need be. Chunks are created with
+   * compare-and-set, since views may create them at the same time as the store.
+   *
+   * @param index The position.
+   * @return the chunk.
+   */
+  private Block[] chunkFor(int index) {
+    int k = index >>> CHUNK_BITS;
+    Block[] chunk = (Block[]) CHUNKS.getAcquire(this.chunks, k);
+    if (chunk == null) {
+      Block[] fresh = new Block[CHUNK_SIZE];
+      chunk = (Block[]) CHUNKS.compareAndExchange(this.chunks, k, (Block[]) null, fresh);
+      if (chunk == null) {
+        chunk = fresh;
+      } // if
+    } // if
+    return chunk;
+  } // chunkFor(int)
+
+  /**
+   * Decode a block from the source and keep it, unless another thread got there first.
+   *
+   * @param index The position of the block.
+   * @return the block.
+   * @throws UncheckedIOException if the block cannot be read.
+   */
+  private Block materialize(int index) {
+    Block blk;
+    try {
+      blk = this.source.read(index);
+    } catch (IOException | IndexOutOfBoundsException e) {
+      return this.removed(index, e);
+    } // try catch
+    Block[] chunk = this.chunkFor(index);
+    Block other = (Block) BLOCKS.compareAndExchange(chunk, index & CHUNK_MASK, (Block) null, blk);
+    return (other == null) ? blk : other;
+  } // materialize(int)
+
+  /**
+   * Get a block that could not be read from the source. A store decodes its last block before
+   * removing it from the log, into a chunk every view that can see it shares, so if a view finds
+   * the record gone, the block is in memory.
+   *
+   * @param index The position of the block.
+   * @param failure Why the block could not be read.
+   * @return the block.
+   * @throws UncheckedIOException if the block is not in memory either.
+   */
+  private Block removed(int index, Exception failure) {
+    Block blk = this.loaded(index);
+    if (blk == null) {
+      throw new UncheckedIOException(
+          "Failed to read block " + index,
+          (failure instanceof IOException) ? (IOException) failure : new IOException(failure));
+    } // if
+    return blk;
+  } // removed(int, Exception)
+
+  /**
+   * Create every chunk that views might read, so that they stay shared after the store copies the
+   * table. Otherwise a view and the store could each create their own chunk, and the view would
+   * miss the blocks the store decodes before removing them from the log.
+   */
+  private void shareChunks() {
+    if (this.source == null || this.highWater == 0) {
+      return;
+    } // if
+    for (int index = 0; index < this.highWater; index += CHUNK_SIZE) {
+      this.chunkFor(index);
+    } // for
+  } // shareChunks()
+
+  /**
+   * Decode the blocks of a chunk that are still in the store, so that views sharing the chunk keep
+   * them once the store has its own copy, even if the records are later removed from the log.
+   *
+   * @param k The number of the chunk.
+   * @throws UncheckedIOException if a block cannot be read.
+   */
+  private void fillChunk(int k) {
+    if (this.source == null) {
+      return;
+    } // if
+    int end = Math.min(this.size, (k + 1) << CHUNK_BITS);
+    for (int index = k << CHUNK_BITS; index < end; index++) {
+      if (this.loaded(index) == null) {
+        this.materialize(index);
+      } // if
+    } // for
+  } // fillChunk(int)
+
+  /**
+   * Get a block if it is in memory.
+   *
+   * @param index The position of the block.
+   * @return the block, or null if it has not been decoded yet.
+   */
+  private Block loaded(int index) {
+    Block[] chunk = (Block[]) CHUNKS.getAcquire(this.chunks, index >>> CHUNK_BITS);
+    return (chunk == null) ? null : (Block) BLOCKS.getAcquire(chunk, index & CHUNK_MASK);
+  } // loaded(int)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the number of blocks in the store.
+   *
+   * @return the number of blocks.
+   */
+  public int size() {
+    return this.size;
+  } // size()
+
+  /**
+   * Get a block.
+   *
+   * @param index The position of the block.
+   * @return the block at that position.
+   * @throws IndexOutOfBoundsException if there is no block at that position.
+   */
+  public Block get(int index) {
+    this.checkIndex(index);
+    Block blk = this.loaded(index);
+    return (blk == null) ? this.materialize(index) : blk;
+  } // get(int)
+
+  /**
+   * Get the transactions of a block, reading them from the log if the block has not been decoded.
+   *
+   * @param index The position of the block.
+   * @return the transactions, in order.
+   * @throws IndexOutOfBoundsException if there is no block at that position.
+   * @throws UncheckedIOException if the transactions cannot be read.
+   */
+  public List<Transaction> transactions(int index) {
+    this.checkIndex(index);
+    Block blk = this.loaded(index);
+    if (blk != null) {
+      return blk.getTransactions();
+    } // if
+    try {
+      List<Transaction> result = this.source.readTransactions(index);
+      // The block may have been removed, and the record replaced, while it was read.
+      blk = this.loaded(index);
+      return (blk == null) ? result : blk.getTransactions();
+    } catch (IOException | IndexOutOfBoundsException e) {
+      return this.removed(index, e).getTransactions();
+    } // try catch
+  } // transactions(int)
+
+  /**
+   * Get the hash of a block, reading it from the log if the block has not been decoded.
+   *
+   * @param index The position of the block.
+   * @return the hash.
+   * @throws IndexOutOfBoundsException if there is no block at that position.
+   * @throws UncheckedIOException if the hash cannot be read.
+   */
+  public Hash hash(int index) {
+    this.checkIndex(index);
+    Block blk = this.loaded(index);
+    if (blk != null) {
+      return blk.getHash();
+    } // if
+    try {
+      Hash result = this.source.readHash(index);
+      // The block may have been removed, and the record replaced, while it was read.
+      blk = this.loaded(index);
+      return (blk == null) ? result : blk.getHash();
+    } catch (IOException | IndexOutOfBoundsException e) {
+      return this.removed(index, e).getHash();
+    } // try catch
+  } // hash(int)
+
+  /**
+   * Get the last block.
+   *
+   * @return the last block, or null if the store is empty.
+   */
+  public Block last() {
+    return (this.size == 0) ? null : this.get(this.size - 1);
+  } // last()
+
+  /**
+   * Get a frozen view of the blocks now in the store. The view does not change when the store does,
+   * and may be read from any thread.
+   *
+   * @return the view.
+   */
+  public BlockStore freeze() {
+    if (this.frozen) {
+      return this;
+    } // if
+    this.tableShared = true;
+    this.copied.clear();
+    return new BlockStore(this);
+  } // freeze()
+
+  /**
+   * Add a block to the end of the store.
+   *
+   * @param blk The block to add.
+   * @return true.
+   * @throws UnsupportedOperationException if the store is a frozen view.
+   * @throws UncheckedIOException if a block that views share cannot be read from the log.
+   */
+  public boolean add(Block blk) {
+    this.checkMutable();
+    int k = this.size >>> CHUNK_BITS;
+    boolean reused = this.size < this.highWater && this.chunks[k] != null && !this.copied.get(k);
+    if (this.tableShared && (reused || k == this.chunks.length)) {
+      this.shareChunks();
+    } // if
+    if (k == this.chunks.length) {
+      Block[][] bigger = new Block[this.chunks.length * 2][];
+      System.arraycopy(this.chunks, 0, bigger, 0, this.chunks.length);
+      this.chunks = bigger;
+      this.tableShared = false;
+    } // if
+    if (reused) {
+      // A view may see this slot, so leave its chunk to the views.
+      this.fillChunk(k);
+      if (this.tableShared) {
+        this.chunks = this.chunks.clone();
+        this.tableShared = false;
+      } // if
+      this.chunks[k] = this.chunks[k].clone();
+      this.copied.set(k);
+    } // if
+    BLOCKS.setRelease(this.chunkFor(this.size), this.size & CHUNK_MASK, blk);
+    this.size++;
+    this.highWater = Math.max(this.highWater, this.size);
+    this.modCount++;
+    return true;
+  } // add(Block)
+
+  /**
+   * Remove the last block from the store. Its slot is left as it is, for the sake of views.
+   *
+   * @return the block removed.
+   * @throws NoSuchElementException if the store is empty.
+   * @throws UnsupportedOperationException if the store is a frozen view.
+   */
+  public Block removeLast() {
+    this.checkMutable();
+    if (this.size == 0) {
+      throw new NoSuchElementException();
+    } // if
+    Block removed = this.get(this.size - 1);
+    this.size--;
+    this.modCount++;
+    return removed;
+  } // removeLast()
+
+  /**
+   * Get an iterator for the blocks in the store, which walks each chunk in turn, decoding blocks as
+   * it reaches them. The iterator walks a frozen view, so it sees the blocks that were in the store
+   * when it was created, whatever happens to the store afterwards.
+   *
+   * @return an iterator for the blocks.
+   */
+  public Iterator<Block> iterator() {
+    BlockStore view = this.freeze();
+    return new Iterator<Block>() {
+      int next = 0;
+
+      Block[] chunk = null;
+
+      public boolean hasNext() {
+        return this.next < view.size;
+      } // hasNext()
+
+      public Block next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        } // if
+        if ((this.next & CHUNK_MASK) == 0) {
+          this.chunk = view.chunkFor(this.next);
+        } // if
+        Block blk = (Block) BLOCKS.getAcquire(this.chunk, this.next & CHUNK_MASK);
+        if (blk == null) {
+          blk = view.materialize(this.next);
+        } // if
+        this.next++;
+        return blk;
+      } // next()
+    };
+  } // iterator()
+} // class BlockStore
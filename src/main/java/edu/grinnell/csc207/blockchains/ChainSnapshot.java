@@ -0,0 +1,275 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An unchanging view of a blockchain as it was at one moment: its blocks, the difficulty target for
+ * the next block, and the balances after each block. A chain publishes a new snapshot each time it
+ * changes, so a snapshot can be read from any thread, without locks, while the chain moves on.
+ * Everything read from one snapshot agrees; in particular, its iterators see exactly its blocks.
+ *
+ * @author Harrison Zhu
+ */
+public class ChainSnapshot implements Iterable<Transaction> {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** A frozen view of the blocks. */
+  private final BlockStore blocks;
+
+  /** The difficulty target for the next block, in compact form, or 0 if it is fixed. */
+  private final int target;
+
+  /** The validator for the next block. */
+  private final HashValidator validator;
+
+  /**
+   * The balances after each block. May cover only the first few blocks, if the chain had not
+   * computed the rest, in which case the rest are computed when first needed.
+   */
+  private volatile LedgerHistory ledgers;
+
+  /**
+   * The index of hashes, shared with the chain, which only adds to it. Null if the chain had not
+   * built one, in which case one is built from the blocks when first needed.
+   */
+  private volatile BlockHashIndex index;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a snapshot.
+   *
+   * @param view A frozen view of the blocks.
+   * @param next The difficulty target for the next block.
+   * @param check The validator for the next block.
+   * @param history A frozen view of the balances after each block, or of the first few blocks.
+   * @param hashes The index of hashes of the chain, or null if it has not built one.
+   */
+  ChainSnapshot(
+      BlockStore view,
+      int next,
+      HashValidator check,
+      LedgerHistory history,
+      BlockHashIndex hashes) {
+    this.blocks = view;
+    this.target = next;
+    this.validator = check;
+    this.ledgers = history;
+    this.index = hashes;
+  } // ChainSnapshot(BlockStore, int, HashValidator, LedgerHistory, BlockHashIndex)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Get the frozen view of the blocks.
+   *
+   * @return the view.
+   */
+  BlockStore store() {
+    return this.blocks;
+  } // store()
+
+  /**
+   * Get the validator for the next block.
+   *
+   * @return the validator.
+   */
+  HashValidator getValidator() {
+    return this.validator;
+  } // getValidator()
+
+  /**
+   * Get the balances after each block, replaying the blocks that are not covered yet. Threads that
+   * race to replay them compute the same versions, so the race is harmless.
+   *
+   * @return a frozen view of the versions.
+   */
+  LedgerHistory ledgers() {
+    LedgerHistory history = this.ledgers;
+    if (history.getBlockCount() < this.blocks.size()) {
+      history = LedgerHistory.replay(this.blocks, history).freeze();
+      this.ledgers = history;
+    } // if
+    return history;
+  } // ledgers()
+
+  /**
+   * Get the balances after the last block.
+   *
+   * @return the balances.
+   */
+  Ledger ledger() {
+    return this.ledgers().latest();
+  } // ledger()
+
+  /**
+   * Get the index of hashes, if one has been built, so the chain can keep adding to it.
+   *
+   * @return the index, or null if none has been built.
+   */
+  BlockHashIndex builtIndex() {
+    return this.index;
+  } // builtIndex()
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the number of blocks.
+   *
+   * @return the number of blocks, including the initial block.
+   */
+  public int getSize() {
+    return this.blocks.size();
+  } // getSize()
+
+  /**
+   * Get a block by its number.
+   *
+   * @param num The number of the block, between 0 (inclusive) and getSize() (exclusive).
+   * @return the block with that number.
+   * @throws IndexOutOfBoundsException if there is no block with that number.
+   */
+  public Block getBlock(int num) {
+    return this.blocks.get(num);
+  } // getBlock(int)
+
+  /**
+   * Get the hash of the last block.
+   *
+   * @return the hash of the last block, or null if there are no blocks.
+   */
+  public Hash getHash() {
+    int size = this.blocks.size();
+    return (size == 0) ? null : this.blocks.hash(size - 1);
+  } // getHash()
+
+  /**
+   * Find a block of this snapshot by its hash. Takes constant expected time, once the index of
+   * hashes has been built; if the chain had not built it, the first lookup builds it.
+   *
+   * @param hash The hash of the block.
+   * @return the number of the block with that hash, or -1 if the snapshot has no such block.
+   */
+  public int findByHash(Hash hash) {
+    BlockHashIndex hashes = this.index;
+    if (hashes == null) {
+      // Threads that race to build it build the same index, so the race is harmless.
+      hashes = BlockHashIndex.of(this.blocks);
+      this.index = hashes;
+    } // if
+    return hashes.find(hash, this.blocks);
+  } // findByHash(Hash)
+
+  /**
+   * Get the difficulty target for the next block.
+   *
+   * @return the target, in compact form, or 0 if the chain uses a fixed validator.
+   */
+  public int getTarget() {
+    return this.target;
+  } // getTarget()
+
+  /**
+   * Find one user's balance.
+   *
+   * @param user The user whose balance we want to find.
+   * @return that user's balance (or 0, if the user is not in the system).
+   */
+  public long balance(String user) {
+    return this.ledger().balance(user);
+  } // balance(String)
+
+  /**
+   * Find one user's balance as of a block. Takes logarithmic time, unless the block comes before
+   * the checkpoint the balances were rebuilt from, in which case the blocks up to it are replayed.
+   *
+   * @param user The user whose balance we want to find.
+   * @param blockNum The number of the block.
+   * @return that user's balance after the block (or 0, if the user had none).
+   * @throws IndexOutOfBoundsException if there is no block with that number.
+   */
+  public long balance(String user, int blockNum) {
+    if (blockNum < 0 || blockNum >= this.blocks.size()) {
+      throw new IndexOutOfBoundsException("No block " + blockNum + " in " + this.blocks.size());
+    } // if
+    Ledger version = this.ledgers().get(blockNum);
+    if (version != null) {
+      return version.balance(user);
+    } // if
+    Balances replayed = new Balances(this.ledger().getAccounts());
+    for (int i = 0; i <= blockNum; i++) {
+      replayed.apply(this.blocks.transactions(i));
+    } // for
+    return replayed.balance(user);
+  } // balance(String, int)
+
+  /**
+   * Get an iterator for the blocks.
+   *
+   * @return an iterator for the blocks.
+   */
+  public Iterator<Block> blocks() {
+    return this.blocks.iterator();
+  } // blocks()
+
+  /**
+   * Get an iterator for the people who participated in the system.
+   *
+   * @return an iterator of the people in the system.
+   */
+  public Iterator<String> users() {
+    Iterator<String> names = this.ledger().keySet().iterator();
+    return new Iterator<String>() {
+      public boolean hasNext() {
+        return names.hasNext();
+      } // hasNext()
+
+      public String next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        } // if
+        return names.next();
+      } // next()
+    };
+  } // users()
+
+  /**
+   * Get an iterator for the transactions of every block, in order, block by block. Transactions of
+   * blocks that have not been decoded are read from the log without decoding the blocks.
+   *
+   * @return an iterator for the transactions.
+   */
+  public Iterator<Transaction> iterator() {
+    return new Iterator<Transaction>() {
+      int nextBlock = 0;
+
+      Iterator<Transaction> current = Collections.emptyIterator();
+
+      public boolean hasNext() {
+        while (!this.current.hasNext() && this.nextBlock < blocks.size()) {
+          List<Transaction> transactions = blocks.transactions(this.nextBlock++);
+          this.current = transactions.iterator();
+        } // while
+        return this.current.hasNext();
+      } // hasNext()
+
+      public Transaction next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        } // if
+        return this.current.next();
+      } // next()
+    };
+  } // iterator()
+} // class ChainSnapshot
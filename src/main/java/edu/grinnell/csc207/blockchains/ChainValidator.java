@@ -0,0 +1,275 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Validates a sequence of blocks without mining or building a second blockchain. The blocks are
+ * walked once, rehashing each block and tracking balances in a scratch ledger.
+ *
+ * <p>The checks on hashes are independent from block to block, so they can also be spread over a
+ * fork-join pool, leaving only the balance checks for a single sequential pass.
+ *
+ * <p>For chains whose difficulty is retargeted, each block is checked against the target stored
+ * with it, and the stored targets are checked against the retargeting schedule. That schedule is
+ * computed from the blocks' mining times, which must increase from block to block. The hashes of
+ * such blocks cover both the target and the mining time, so neither can be rewritten without mining
+ * the block again.
+ *
+ * @author Harrison Zhu
+ */
+public class ChainValidator {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The number of blocks below which a parallel task checks its blocks itself. */
+  private static final int SEQUENTIAL_THRESHOLD = 1024;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The validator every hash must satisfy, or null if the difficulty is retargeted. */
+  private final HashValidator validator;
+
+  /** The retargeting schedule, or null if every block uses the same validator. */
+  private final Retargeter retargeter;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a chain validator.
+   *
+   * @param check The validator every hash must satisfy.
+   */
+  public ChainValidator(HashValidator check) {
+    this.validator = check;
+    this.retargeter = null;
+  } // ChainValidator(HashValidator)
+
+  /**
+   * Create a chain validator for a chain whose difficulty is retargeted.
+   *
+   * @param schedule The retargeting schedule.
+   */
+  public ChainValidator(Retargeter schedule) {
+    this.validator = null;
+    this.retargeter = schedule;
+  } // ChainValidator(Retargeter)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Get the validator for a block.
+   *
+   * @param blk The block.
+   * @param previous The validator for the previous block, reused if the target is the same.
+   * @return the validator for blk.
+   */
+  private HashValidator validatorFor(Block blk, HashValidator previous) {
+    if (this.retargeter == null) {
+      return this.validator;
+    } // if
+    if (previous instanceof TargetValidator
+        && ((TargetValidator) previous).toCompact() == blk.getTarget()) {
+      return previous;
+    } // if
+    return TargetValidator.fromCompact(blk.getTarget());
+  } // validatorFor(Block, HashValidator)
+
+  /**
+   * Check the hashes of one block: (b) the hash is valid, (c) the hash is correct for the contents,
+   * and (d) the previous hash field is correct.
+   *
+   * @param blk The block to check.
+   * @param previous The hash of the previous block (or null, for the initial block).
+   * @param hasher The hasher used to rehash the block.
+   * @param check The validator the hash must satisfy.
+   * @return the reason the block fails, or null if it passes.
+   */
+  private static ValidationResult.Reason checkHashes(
+      Block blk, Hash previous, BlockHasher hasher, HashValidator check) {
+    if (!check.isValid(blk.getHash())) {
+      return ValidationResult.Reason.INVALID_HASH;
+    } // if
+    hasher.reset(blk);
+    hasher.digest(blk.getNonce());
+    if (!blk.getHash().equals(hasher.current())) {
+      return ValidationResult.Reason.HASH_MISMATCH;
+    } // if
+    if (blk.getPrevHash() != null && !blk.getPrevHash().equals(previous)) {
+      return ValidationResult.Reason.WRONG_PREVIOUS_HASH;
+    } // if
+    return null;
+  } // checkHashes(Block, Hash, BlockHasher, HashValidator)
+
+  /**
+   * Check the transactions, target, and mining time of one block, updating the ledger with the
+   * transactions that pass. Each transaction is checked against the balances left by the ones
+   * before it.
+   *
+   * @param blocks The blocks.
+   * @param i The index of the block to check.
+   * @param ledger The balances before the block.
+   * @return the reason the block fails, or null if it passes.
+   */
+  private ValidationResult.Reason checkLedger(List<Block> blocks, int i, Balances ledger) {
+    Block blk = blocks.get(i);
+    if (!ledger.applyValid(blk.getTransactions())) {
+      return ValidationResult.Reason.INVALID_TRANSACTION;
+    } // if
+    if (this.retargeter == null) {
+      return null;
+    } // if
+    if (blk.getTarget() != this.retargeter.targetFor(blocks, i)) {
+      return ValidationResult.Reason.WRONG_TARGET;
+    } // if
+    if (i > 0 && blk.getMinedAt() <= blocks.get(i - 1).getMinedAt()) {
+      return ValidationResult.Reason.TIME_NOT_INCREASING;
+    } // if
+    return null;
+  } // checkLedger(List<Block>, int, Balances)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Validate a sequence of blocks, starting with the initial block. Checks that (a) the balances
+   * are legal at every step, (b) every block has a valid hash, (c) every block has a hash that is
+   * correct for its contents, (d) every block has a correct previous hash field, and (e) if the
+   * chain is retargeted, every block has the scheduled target and a later mining time than the one
+   * before.
+   *
+   * @param blocks The blocks to validate, in order.
+   * @return the result of the validation.
+   */
+  public ValidationResult validate(List<Block> blocks) {
+    Balances ledger = new Balances(new AccountRegistry());
+    BlockHasher hasher = new BlockHasher();
+    HashValidator check = null;
+    Hash previous = null;
+    for (int i = 0; i < blocks.size(); i++) {
+      Block blk = blocks.get(i);
+      ValidationResult.Reason reason = this.checkLedger(blocks, i, ledger);
+      if (reason == null) {
+        check = this.validatorFor(blk, check);
+        reason = ChainValidator.checkHashes(blk, previous, hasher, check);
+      } // if
+      if (reason != null) {
+        return ValidationResult.failure(i, reason, blk);
+      } // if
+      previous = blk.getHash();
+    } // for
+    return ValidationResult.valid();
+  } // validate(List<Block>)
+
+  /**
+   * Validate a sequence of blocks as validate does, checking the hashes in parallel. The hash
+   * validator is called from several threads at once, so it must be thread safe. Reports the same
+   * failure as validate.
+   *
+   * @param blocks The blocks to validate, in order.
+   * @param pool The pool used to check hashes.
+   * @return the result of the validation.
+   */
+  public ValidationResult validateParallel(List<Block> blocks, ForkJoinPool pool) {
+    ValidationResult hashes = pool.invoke(new HashCheck(blocks, null, 0, blocks.size()));
+    int end = hashes.isValid() ? blocks.size() : hashes.getIndex() + 1;
+
+    Balances ledger = new Balances(new AccountRegistry());
+    for (int i = 0; i < end; i++) {
+      ValidationResult.Reason reason = this.checkLedger(blocks, i, ledger);
+      if (reason != null) {
+        return ValidationResult.failure(i, reason, blocks.get(i));
+      } // if
+    } // for
+    return hashes;
+  } // validateParallel(List<Block>, ForkJoinPool)
+
+  /**
+   * Check the hashes of blocks that are to follow a block with a given hash, in parallel. Checks
+   * only (b), (c), and (d) of validate, and checks each block against the target stored with it.
+   *
+   * @param batch The blocks, in order.
+   * @param previous The hash of the block that the first block is to follow.
+   * @param pool The pool used to check hashes.
+   * @return the result of the check, with indices relative to the start of the batch.
+   */
+  public ValidationResult checkHashes(List<Block> batch, Hash previous, ForkJoinPool pool) {
+    return pool.invoke(new HashCheck(batch, previous, 0, batch.size()));
+  } // checkHashes(List<Block>, Hash, ForkJoinPool)
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /** Finds the first block in a range whose hashes fail. */
+  private class HashCheck extends RecursiveTask<ValidationResult> {
+    /** Tasks are never serialized, but RecursiveTask is Serializable. */
+    private static final long serialVersionUID = 1L;
+
+    /** The blocks. */
+    private final List<Block> blocks;
+
+    /** The hash of the block before the first, or null if there is none. */
+    private final Hash first;
+
+    /** The first index to check. */
+    private final int lo;
+
+    /** One past the last index to check. */
+    private final int hi;
+
+    /**
+     * Create a task checking blocks lo (inclusive) to hi (exclusive).
+     *
+     * @param theBlocks The blocks.
+     * @param before The hash of the block before the first, or null if there is none.
+     * @param from The first index to check.
+     * @param to One past the last index to check.
+     */
+    HashCheck(List<Block> theBlocks, Hash before, int from, int to) {
+      this.blocks = theBlocks;
+      this.first = before;
+      this.lo = from;
+      this.hi = to;
+    } // HashCheck(List<Block>, Hash, int, int)
+
+    /**
+     * Check the range.
+     *
+     * @return the first failure in the range, or a valid result if there is none.
+     */
+    protected ValidationResult compute() {
+      if (this.hi - this.lo <= SEQUENTIAL_THRESHOLD) {
+        BlockHasher hasher = new BlockHasher();
+        HashValidator check = null;
+        Hash previous = (this.lo == 0) ? this.first : this.blocks.get(this.lo - 1).getHash();
+        for (int i = this.lo; i < this.hi; i++) {
+          Block blk = this.blocks.get(i);
+          check = validatorFor(blk, check);
+          ValidationResult.Reason reason = checkHashes(blk, previous, hasher, check);
+          if (reason != null) {
+            return ValidationResult.failure(i, reason, blk);
+          } // if
+          previous = blk.getHash();
+        } // for
+        return ValidationResult.valid();
+      } // if
+
+      int mid = (this.lo + this.hi) >>> 1;
+      HashCheck right = new HashCheck(this.blocks, this.first, mid, this.hi);
+      right.fork();
+      ValidationResult left = new HashCheck(this.blocks, this.first, this.lo, mid).compute();
+      ValidationResult rightResult = right.join();
+      return left.isValid() ? rightResult : left;
+    } // compute()
+  } // class HashCheck
+} // class ChainValidator
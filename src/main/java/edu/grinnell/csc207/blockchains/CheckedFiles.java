@@ -0,0 +1,105 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Small files that are replaced whole and must never be seen half written, such as ledger
+ * checkpoints and saved mining states. Each file holds its contents followed by a CRC32C of them.
+ * It is written to a temporary file, forced to disk, and moved into place, after which the
+ * directory is forced too, so that once a write returns the new file survives a crash.
+ *
+ * @author Harrison Zhu
+ */
+final class CheckedFiles {
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /** Keep the class from being instantiated. */
+  private CheckedFiles() {
+    // Only static methods.
+  } // CheckedFiles()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Force a directory to disk, so that a file moved into it stays there.
+   *
+   * @param dir The directory.
+   * @throws IOException if the directory cannot be forced.
+   */
+  private static void forceDirectory(Path dir) throws IOException {
+    FileChannel channel;
+    try {
+      channel = FileChannel.open(dir, StandardOpenOption.READ);
+    } catch (IOException e) {
+      // Some platforms (such as Windows) cannot open directories, and have no need to.
+      return;
+    } // try catch
+    try (channel) {
+      channel.force(true);
+    } // try
+  } // forceDirectory(Path)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Replace a file with the given contents, followed by their CRC32C, all or nothing.
+   *
+   * @param file The file.
+   * @param contents The contents.
+   * @throws IOException if the file cannot be written.
+   */
+  static void writeAtomically(Path file, byte[] contents) throws IOException {
+    CRC32C crc = new CRC32C();
+    crc.update(contents);
+    ByteBuffer buf = ByteBuffer.allocate(contents.length + Integer.BYTES);
+    buf.put(contents).putInt((int) crc.getValue()).flip();
+
+    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (FileChannel channel =
+        FileChannel.open(
+            temp,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      while (buf.hasRemaining()) {
+        channel.write(buf);
+      } // while
+      channel.force(true);
+    } // try
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    CheckedFiles.forceDirectory(file.toAbsolutePath().getParent());
+  } // writeAtomically(Path, byte[])
+
+  /**
+   * Check the CRC32C of the contents of a file written by writeAtomically.
+   *
+   * @param data Everything read from the file.
+   * @return a buffer over the contents, without the CRC32C, or null if the file is damaged.
+   */
+  static ByteBuffer readChecked(byte[] data) {
+    if (data.length < Integer.BYTES) {
+      return null;
+    } // if
+    int length = data.length - Integer.BYTES;
+    CRC32C crc = new CRC32C();
+    crc.update(data, 0, length);
+    ByteBuffer buf = ByteBuffer.wrap(data);
+    if (buf.getInt(length) != (int) crc.getValue()) {
+      return null;
+    } // if
+    return buf.limit(length);
+  } // readChecked(byte[])
+} // class CheckedFiles
@@ -0,0 +1,27 @@
+package edu.grinnell.csc207.blockchains;
+
+/**
+ * Hash validators that can also check a raw SHA-256 digest, so that miners need not build a Hash
+ * for every candidate. A digest validator also bounds the first eight bytes of any valid digest, so
+ * that miners can reject most candidates with a single comparison.
+ *
+ * @author Harrison Zhu
+ */
+public interface DigestValidator extends HashValidator {
+  /**
+   * Determine if a raw digest meets the criterion.
+   *
+   * @param digest The 32 bytes of the digest.
+   * @return true if the digest is valid and false otherwise.
+   */
+  boolean isValid(byte[] digest);
+
+  /**
+   * Get the largest value the first eight bytes of a valid digest can have, read as an unsigned
+   * big-endian long. A digest whose first eight bytes exceed this is certainly invalid; one whose
+   * first eight bytes do not must still be checked with isValid.
+   *
+   * @return the limit on the first eight bytes.
+   */
+  long leadingLimit();
+} // interface DigestValidator
@@ -1,20 +1,53 @@
 package edu.grinnell.csc207.blockchains;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 
 /**
  * Encapsulated hashes.
  *
+ * <p>SHA-256 hashes (32 bytes) are stored compactly as four big-endian longs, which saves the array
+ * object and lets comparisons work a word at a time. Hashes of any other length are stored as an
+ * array of bytes.
+ *
  * @author Harrison Zhu
  * @author Samuel A. Rebelsky
  */
-public class Hash {
+public class Hash implements Comparable<Hash> {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The hex digits, indexed by value. */
+  private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+  /** The number of bytes in a hash stored as words. */
+  static final int WORD_BYTES = 4 * Long.BYTES;
+
+  /** Reads big-endian longs from byte arrays. */
+  private static final VarHandle LONGS =
+      MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
   // +--------+------------------------------------------------------
   // | Fields |
   // +--------+
 
-  /** the data, in bytes, represented by the hash. */
-  private byte[] byteData;
+  /** the data, in bytes, represented by the hash. Null if the hash is stored as words. */
+  private final byte[] byteData;
+
+  /** Bytes 0-7 of a hash stored as words. */
+  private final long w0;
+
+  /** Bytes 8-15 of a hash stored as words. */
+  private final long w1;
+
+  /** Bytes 16-23 of a hash stored as words. */
+  private final long w2;
+
+  /** Bytes 24-31 of a hash stored as words. */
+  private final long w3;
 
   // +--------------+------------------------------------------------
   // | Constructors |
@@ -26,9 +59,79 @@ public class Hash {
    * @param data The data to copy into the hash.
    */
   public Hash(byte[] data) {
-    this.byteData = data.clone();
+    this(data, true);
   } // Hash(byte[])
 
+  /**
+   * Create a new encapsulated hash.
+   *
+   * @param data The data in the hash.
+   * @param copy Whether to copy data (or pack it into words); if false, the hash shares data.
+   */
+  private Hash(byte[] data, boolean copy) {
+    if (copy && data.length == WORD_BYTES) {
+      this.byteData = null;
+      this.w0 = Hash.readLong(data, 0);
+      this.w1 = Hash.readLong(data, Long.BYTES);
+      this.w2 = Hash.readLong(data, 2 * Long.BYTES);
+      this.w3 = Hash.readLong(data, 3 * Long.BYTES);
+    } else {
+      this.byteData = copy ? data.clone() : data;
+      this.w0 = 0;
+      this.w1 = 0;
+      this.w2 = 0;
+      this.w3 = 0;
+    } // if else
+  } // Hash(byte[], boolean)
+
+  /**
+   * Create a hash that shares, rather than copies, the given bytes. Used for scratch hashes whose
+   * bytes are overwritten in place.
+   *
+   * @param data The bytes to share.
+   * @return a hash backed by data.
+   */
+  static Hash wrap(byte[] data) {
+    return new Hash(data, false);
+  } // wrap(byte[])
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Read eight bytes of an array as a big-endian long.
+   *
+   * @param data The array.
+   * @param offset The position of the first byte.
+   * @return the long.
+   */
+  static long readLong(byte[] data, int offset) {
+    return (long) LONGS.get(data, offset);
+  } // readLong(byte[], int)
+
+  /**
+   * Get one of the four words of a 32-byte hash, however it is stored.
+   *
+   * @param k The index of the word, between 0 and 3.
+   * @return bytes 8k to 8k+7, as a big-endian long.
+   */
+  long word(int k) {
+    if (this.byteData != null) {
+      return Hash.readLong(this.byteData, k * Long.BYTES);
+    } // if
+    switch (k) {
+      case 0:
+        return this.w0;
+      case 1:
+        return this.w1;
+      case 2:
+        return this.w2;
+      default:
+        return this.w3;
+    } // switch
+  } // word(int)
+
   // +---------+-----------------------------------------------------
   // | Methods |
   // +---------+
@@ -39,7 +142,7 @@ public class Hash {
    * @return the number of bytes in the hash.
    */
   public int length() {
-    return this.byteData.length;
+    return (this.byteData == null) ? WORD_BYTES : this.byteData.length;
   } // length()
 
   /**
@@ -49,7 +152,13 @@ public class Hash {
    * @return the ith byte
    */
   public byte get(int i) {
-    return byteData[i];
+    if (this.byteData != null) {
+      return this.byteData[i];
+    } // if
+    if (i < 0 || i >= WORD_BYTES) {
+      throw new ArrayIndexOutOfBoundsException(i);
+    } // if
+    return (byte) (this.word(i / Long.BYTES) >>> (Byte.SIZE * (Long.BYTES - 1 - i % Long.BYTES)));
   } // get()
 
   /**
@@ -58,24 +167,86 @@ public class Hash {
    * @return a copy of the bytes in the hash.
    */
   public byte[] getBytes() {
-    return this.byteData.clone();
+    if (this.byteData != null) {
+      return this.byteData.clone();
+    } // if
+    byte[] result = new byte[WORD_BYTES];
+    this.copyTo(result, 0);
+    return result;
   } // getBytes()
 
+  /**
+   * Count the zero bits at the start of the hash.
+   *
+   * @return the number of leading zero bits, which is 8 * length() if every bit is zero.
+   */
+  public int leadingZeroBits() {
+    if (this.byteData == null) {
+      for (int k = 0; k < WORD_BYTES / Long.BYTES; k++) {
+        long w = this.word(k);
+        if (w != 0) {
+          return k * Long.SIZE + Long.numberOfLeadingZeros(w);
+        } // if
+      } // for
+      return WORD_BYTES * Byte.SIZE;
+    } // if
+    for (int i = 0; i < this.byteData.length; i++) {
+      if (this.byteData[i] != 0) {
+        return i * Byte.SIZE + Integer.numberOfLeadingZeros(this.byteData[i] & 0xFF) - 24;
+      } // if
+    } // for
+    return this.byteData.length * Byte.SIZE;
+  } // leadingZeroBits()
+
+  /**
+   * Get the last eight bytes of the hash as a big-endian long. Shorter hashes are padded with
+   * leading zeros.
+   *
+   * @return the last eight bytes.
+   */
+  long trailingLong() {
+    if (this.byteData == null) {
+      return this.w3;
+    } // if
+    long result = 0;
+    for (int i = Math.max(0, this.byteData.length - Long.BYTES); i < this.byteData.length; i++) {
+      result = (result << Byte.SIZE) | Byte.toUnsignedLong(this.byteData[i]);
+    } // for
+    return result;
+  } // trailingLong()
+
+  /**
+   * Copy the bytes in the hash into an array.
+   *
+   * @param dest The array to copy into.
+   * @param offset The position in dest of the first byte.
+   */
+  void copyTo(byte[] dest, int offset) {
+    if (this.byteData != null) {
+      System.arraycopy(this.byteData, 0, dest, offset, this.byteData.length);
+      return;
+    } // if
+    for (int i = 0; i < WORD_BYTES; i++) {
+      dest[offset + i] = this.get(i);
+    } // for
+  } // copyTo(byte[], int)
+
   /**
    * Convert to a hex string.
    *
    * @return the hash as a hex string.
    */
   public String toString() {
-    StringBuilder str = new StringBuilder();
+    int length = this.length();
+    char[] chars = new char[2 * length];
 
-    for (byte b : this.byteData) {
-      int unsignedInt = Byte.toUnsignedInt(b);
-      String hex = String.format("%02X", unsignedInt);
-      str.append(hex);
+    for (int i = 0; i < length; i++) {
+      int unsignedInt = Byte.toUnsignedInt(this.get(i));
+      chars[2 * i] = HEX_DIGITS[unsignedInt >>> 4];
+      chars[2 * i + 1] = HEX_DIGITS[unsignedInt & 0xF];
     } // for
 
-    return str.toString();
+    return new String(chars);
   } // toString()
 
   /**
@@ -85,15 +256,50 @@ public class Hash {
    * @return true if the two objects are conceptually equal and false otherwise.
    */
   public boolean equals(Object other) {
-    return other instanceof Hash && Arrays.equals(this.byteData, ((Hash) other).getBytes());
+    if (!(other instanceof Hash)) {
+      return false;
+    } // if
+    Hash that = (Hash) other;
+    if (this.byteData != null && that.byteData != null) {
+      return Arrays.equals(this.byteData, that.byteData);
+    } // if
+    return this.length() == that.length()
+        && this.word(0) == that.word(0)
+        && this.word(1) == that.word(1)
+        && this.word(2) == that.word(2)
+        && this.word(3) == that.word(3);
   } // equals(Object)
 
   /**
-   * Get the hash code of this object.
+   * Compare to another hash, treating each as an unsigned big-endian number. Shorter hashes that
+   * are a prefix of longer ones come first.
+   *
+   * @param other The hash to compare to.
+   * @return a negative number, zero, or a positive number if this hash is less than, equal to, or
+   *     greater than other.
+   */
+  public int compareTo(Hash other) {
+    if (this.length() == WORD_BYTES && other.length() == WORD_BYTES) {
+      for (int k = 0; k < WORD_BYTES / Long.BYTES; k++) {
+        int result = Long.compareUnsigned(this.word(k), other.word(k));
+        if (result != 0) {
+          return result;
+        } // if
+      } // for
+      return 0;
+    } // if
+    byte[] mine = (this.byteData == null) ? this.getBytes() : this.byteData;
+    byte[] theirs = (other.byteData == null) ? other.getBytes() : other.byteData;
+    return Arrays.compareUnsigned(mine, theirs);
+  } // compareTo(Hash)
+
+  /**
+   * Get the hash code of this object. Digests are already well mixed, so we simply fold the last
+   * eight bytes.
    *
    * @return the hash code.
    */
   public int hashCode() {
-    return this.toString().hashCode();
+    return Long.hashCode(this.trailingLong());
   } // hashCode()
 } // class Hash
@@ -0,0 +1,94 @@
+package edu.grinnell.csc207.blockchains;
+
+/**
+ * Validates hashes that start with at least a given number of zero bits. Unlike counting zero
+ * bytes, difficulty can be changed by factors of two.
+ *
+ * @author Harrison Zhu
+ */
+public class LeadingZeroBitsValidator implements DigestValidator {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The number of leading zero bits required. */
+  private final int bits;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a validator.
+   *
+   * @param zeroBits The number of leading zero bits required.
+   * @throws IllegalArgumentException if zeroBits is negative.
+   */
+  public LeadingZeroBitsValidator(int zeroBits) {
+    if (zeroBits < 0) {
+      throw new IllegalArgumentException("Negative number of bits: " + zeroBits);
+    } // if
+    this.bits = zeroBits;
+  } // LeadingZeroBitsValidator(int)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the number of leading zero bits required.
+   *
+   * @return the number of bits.
+   */
+  public int getBits() {
+    return this.bits;
+  } // getBits()
+
+  /**
+   * Determine if a hash starts with enough zero bits.
+   *
+   * @param hash The hash we're checking.
+   * @return true if the hash is valid and false otherwise.
+   */
+  public boolean isValid(Hash hash) {
+    return hash.leadingZeroBits() >= this.bits;
+  } // isValid(Hash)
+
+  /**
+   * Determine if a digest starts with enough zero bits.
+   *
+   * @param digest The bytes of the digest.
+   * @return true if the digest is valid and false otherwise.
+   */
+  public boolean isValid(byte[] digest) {
+    int whole = this.bits / Byte.SIZE;
+    if (whole > digest.length || (whole == digest.length && this.bits % Byte.SIZE != 0)) {
+      return false;
+    } // if
+    for (int i = 0; i < whole; i++) {
+      if (digest[i] != 0) {
+        return false;
+      } // if
+    } // for
+    int rest = this.bits % Byte.SIZE;
+    return rest == 0 || (digest[whole] & 0xFF) >>> (Byte.SIZE - rest) == 0;
+  } // isValid(byte[])
+
+  /**
+   * Get the largest value the first eight bytes of a valid digest can have.
+   *
+   * @return the limit on the first eight bytes.
+   */
+  public long leadingLimit() {
+    return (this.bits >= Long.SIZE) ? 0 : -1L >>> this.bits;
+  } // leadingLimit()
+
+  /**
+   * Get a string representation of the validator.
+   *
+   * @return a string representation of the validator.
+   */
+  public String toString() {
+    return "[Leading zero bits: " + this.bits + "]";
+  } // toString()
+} // class LeadingZeroBitsValidator
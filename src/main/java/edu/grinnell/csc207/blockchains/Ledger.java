@@ -0,0 +1,399 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable map from users to balances. Changing a balance gives a new ledger that shares all
+ * but one path of its structure with the old one, so a ledger can be handed to other threads and
+ * read without locks while the chain moves on.
+ *
+ * <p>Users are keyed by their numbers in an account registry, which are dense, so the ledger is a
+ * radix trie over account numbers: each level consumes five bits of the number, and the leaves hold
+ * 32 balances each as primitive longs. Lookups and updates walk from the root to a leaf, which
+ * takes time logarithmic (base 32) in the number of accounts, and never box a balance. The map
+ * methods, which take and give names and boxed balances, are for occasional use.
+ *
+ * @author Harrison Zhu
+ */
+public final class Ledger extends AbstractMap<String, Long> {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The number of bits of an account number consumed at each level. */
+  private static final int BITS = 5;
+
+  /** The number of children of each node. */
+  private static final int WIDTH = 1 << BITS;
+
+  /** Mask for the bits of one level. */
+  private static final int MASK = WIDTH - 1;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The registry that numbers the users. */
+  private final AccountRegistry accounts;
+
+  /** The root of the trie: a leaf if shift is 0 and an array of children otherwise. */
+  private final Object root;
+
+  /** The number of bits of an account number consumed below the root's level. */
+  private final int shift;
+
+  /** The number of users. */
+  private final int count;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a ledger.
+   *
+   * @param registry The registry that numbers the users.
+   * @param theRoot The root of the trie.
+   * @param theShift The number of bits consumed below the root's level.
+   * @param theCount The number of users.
+   */
+  private Ledger(AccountRegistry registry, Object theRoot, int theShift, int theCount) {
+    this.accounts = registry;
+    this.root = theRoot;
+    this.shift = theShift;
+    this.count = theCount;
+  } // Ledger(AccountRegistry, Object, int, int)
+
+  /**
+   * Create an empty ledger.
+   *
+   * @param registry The registry that numbers the users.
+   * @return the ledger.
+   */
+  public static Ledger empty(AccountRegistry registry) {
+    return new Ledger(registry, Leaf.EMPTY, 0, 0);
+  } // empty(AccountRegistry)
+
+  /**
+   * Create a ledger holding the balances in a map.
+   *
+   * @param registry The registry that numbers the users.
+   * @param balances The balances.
+   * @return the ledger.
+   */
+  public static Ledger of(AccountRegistry registry, Map<String, Long> balances) {
+    Ledger result = Ledger.empty(registry);
+    for (Map.Entry<String, Long> entry : balances.entrySet()) {
+      result = result.with(registry.intern(entry.getKey()), entry.getValue());
+    } // for
+    return result;
+  } // of(AccountRegistry, Map<String, Long>)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Find the leaf holding an account.
+   *
+   * @param id The account number.
+   * @return the leaf, or null if there is none.
+   */
+  private Leaf leaf(int id) {
+    if (id < 0 || ((long) id >>> this.shift) >= WIDTH) {
+      return null;
+    } // if
+    Object node = this.root;
+    for (int s = this.shift; s > 0 && node != null; s -= BITS) {
+      node = ((Object[]) node)[(id >>> s) & MASK];
+    } // for
+    return (Leaf) node;
+  } // leaf(int)
+
+  /**
+   * Set a balance below a node.
+   *
+   * @param node The node, or null if there is none yet.
+   * @param s The number of bits consumed below the node's level.
+   * @param id The account number.
+   * @param balance The new balance.
+   * @return the updated node; the original is unchanged.
+   */
+  private static Object put(Object node, int s, int id, long balance) {
+    if (s == 0) {
+      return ((node == null) ? Leaf.EMPTY : (Leaf) node).with(id & MASK, balance);
+    } // if
+    Object[] children = (node == null) ? new Object[WIDTH] : ((Object[]) node).clone();
+    int k = (id >>> s) & MASK;
+    children[k] = Ledger.put(children[k], s - BITS, id, balance);
+    return children;
+  } // put(Object, int, int, long)
+
+  /**
+   * Add the entries below a node to a list.
+   *
+   * @param node The node, or null.
+   * @param s The number of bits consumed below the node's level.
+   * @param base The smallest account number below the node.
+   * @param entries The list.
+   */
+  private void collect(Object node, int s, int base, List<Map.Entry<String, Long>> entries) {
+    if (node == null) {
+      return;
+    } else if (s == 0) {
+      Leaf leaf = (Leaf) node;
+      for (int i = 0; i < WIDTH; i++) {
+        if ((leaf.present & (1 << i)) != 0) {
+          entries.add(
+              new SimpleImmutableEntry<String, Long>(this.accounts.name(base + i), leaf.values[i]));
+        } // if
+      } // for
+    } else {
+      Object[] children = (Object[]) node;
+      for (int k = 0; k < WIDTH; k++) {
+        this.collect(children[k], s - BITS, base + (k << s), entries);
+      } // for
+    } // if else
+  } // collect(Object, int, int, List<Map.Entry<String, Long>>)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the registry that numbers the users.
+   *
+   * @return the registry.
+   */
+  public AccountRegistry getAccounts() {
+    return this.accounts;
+  } // getAccounts()
+
+  /**
+   * Get the number of users.
+   *
+   * @return the number of users.
+   */
+  public int size() {
+    return this.count;
+  } // size()
+
+  /**
+   * Get the balance of an account.
+   *
+   * @param id The account number.
+   * @return the balance, or 0 if the account is not in the ledger.
+   */
+  public long balance(int id) {
+    Leaf leaf = this.leaf(id);
+    return (leaf == null) ? 0 : leaf.values[id & MASK];
+  } // balance(int)
+
+  /**
+   * Get the balance of a user.
+   *
+   * @param user The user.
+   * @return the balance, or 0 if the user is not in the ledger.
+   */
+  public long balance(String user) {
+    return this.balance(this.accounts.lookup(user));
+  } // balance(String)
+
+  /**
+   * Determine whether an account is in the ledger.
+   *
+   * @param id The account number.
+   * @return true if the account has a balance and false otherwise.
+   */
+  public boolean contains(int id) {
+    Leaf leaf = this.leaf(id);
+    return leaf != null && (leaf.present & (1 << (id & MASK))) != 0;
+  } // contains(int)
+
+  /**
+   * Get the balance of a user.
+   *
+   * @param user The user.
+   * @return the balance, or null if the user is not in the ledger.
+   */
+  public Long get(Object user) {
+    if (!(user instanceof String)) {
+      return null;
+    } // if
+    int id = this.accounts.lookup((String) user);
+    return this.contains(id) ? this.balance(id) : null;
+  } // get(Object)
+
+  /**
+   * Determine whether a user is in the ledger.
+   *
+   * @param user The user.
+   * @return true if the user has a balance and false otherwise.
+   */
+  public boolean containsKey(Object user) {
+    return (user instanceof String) && this.contains(this.accounts.lookup((String) user));
+  } // containsKey(Object)
+
+  /**
+   * Set the balance of an account.
+   *
+   * @param id The account number.
+   * @param balance The new balance.
+   * @return a ledger with the new balance; this ledger is unchanged.
+   */
+  public Ledger with(int id, long balance) {
+    Object top = this.root;
+    int s = this.shift;
+    while (((long) id >>> s) >= WIDTH) {
+      Object[] children = new Object[WIDTH];
+      children[0] = top;
+      top = children;
+      s += BITS;
+    } // while
+    int added = this.contains(id) ? 0 : 1;
+    return new Ledger(this.accounts, Ledger.put(top, s, id, balance), s, this.count + added);
+  } // with(int, long)
+
+  /**
+   * Set the balance of a user.
+   *
+   * @param user The user.
+   * @param balance The new balance.
+   * @return a ledger with the new balance; this ledger is unchanged.
+   */
+  public Ledger with(String user, long balance) {
+    return this.with(this.accounts.intern(user), balance);
+  } // with(String, long)
+
+  /**
+   * Determine whether a transaction is legal against these balances: its amount is not negative,
+   * and its source (unless it is a deposit) can cover it.
+   *
+   * @param transaction The transaction.
+   * @return true if the transaction is legal and false otherwise.
+   */
+  public boolean isValid(Transaction transaction) {
+    return transaction.getAmount() >= 0
+        && (transaction.getSource().equals("")
+            || this.balance(transaction.getSource()) >= transaction.getAmount());
+  } // isValid(Transaction)
+
+  /**
+   * Apply a transaction: take the amount from the source and give it to the target, skipping either
+   * if it is empty. Does not check that the transaction is valid.
+   *
+   * @param transaction The transaction.
+   * @return a ledger with the transaction applied; this ledger is unchanged.
+   */
+  public Ledger apply(Transaction transaction) {
+    Ledger result = this;
+    if (!transaction.getSource().equals("")) {
+      int id = this.accounts.intern(transaction.getSource());
+      result = result.with(id, result.balance(id) - transaction.getAmount());
+    } // if
+    if (!transaction.getTarget().equals("")) {
+      int id = this.accounts.intern(transaction.getTarget());
+      result = result.with(id, result.balance(id) + transaction.getAmount());
+    } // if
+    return result;
+  } // apply(Transaction)
+
+  /**
+   * Apply the transactions of a block, in order. Does not check that they are valid.
+   *
+   * @param transactions The transactions.
+   * @return a ledger with the transactions applied; this ledger is unchanged.
+   */
+  public Ledger apply(List<Transaction> transactions) {
+    Ledger result = this;
+    for (Transaction transaction : transactions) {
+      result = result.apply(transaction);
+    } // for
+    return result;
+  } // apply(List<Transaction>)
+
+  /**
+   * Apply the transactions of a block, in order, if each is legal against the balances left by the
+   * ones before it.
+   *
+   * @param transactions The transactions.
+   * @return a ledger with the transactions applied, or null if any is illegal; this ledger is
+   *     unchanged.
+   */
+  public Ledger applyValid(List<Transaction> transactions) {
+    Ledger result = this;
+    for (Transaction transaction : transactions) {
+      if (!result.isValid(transaction)) {
+        return null;
+      } // if
+      result = result.apply(transaction);
+    } // for
+    return result;
+  } // applyValid(List<Transaction>)
+
+  /**
+   * Get the entries of the ledger. Iterating takes a copy of the entries first.
+   *
+   * @return the entries.
+   */
+  public Set<Map.Entry<String, Long>> entrySet() {
+    return new AbstractSet<Map.Entry<String, Long>>() {
+      public Iterator<Map.Entry<String, Long>> iterator() {
+        List<Map.Entry<String, Long>> entries =
+            new ArrayList<Map.Entry<String, Long>>(Ledger.this.count);
+        Ledger.this.collect(Ledger.this.root, Ledger.this.shift, 0, entries);
+        return entries.iterator();
+      } // iterator()
+
+      public int size() {
+        return Ledger.this.count;
+      } // size()
+    };
+  } // entrySet()
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /** The balances of 32 consecutive accounts. */
+  private static final class Leaf {
+    /** The leaf with no accounts. */
+    static final Leaf EMPTY = new Leaf(new long[WIDTH], 0);
+
+    /** The balances. */
+    final long[] values;
+
+    /** Which of the accounts are in the ledger. */
+    final int present;
+
+    /**
+     * Create a leaf.
+     *
+     * @param theValues The balances.
+     * @param thePresent Which of the accounts are in the ledger.
+     */
+    Leaf(long[] theValues, int thePresent) {
+      this.values = theValues;
+      this.present = thePresent;
+    } // Leaf(long[], int)
+
+    /**
+     * Set a balance.
+     *
+     * @param i The position of the account in the leaf.
+     * @param balance The new balance.
+     * @return the updated leaf; this leaf is unchanged.
+     */
+    Leaf with(int i, long balance) {
+      long[] copy = this.values.clone();
+      copy[i] = balance;
+      return new Leaf(copy, this.present | (1 << i));
+    } // with(int, long)
+  } // class Leaf
+} // class Ledger
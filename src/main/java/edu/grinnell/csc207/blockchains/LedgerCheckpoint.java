@@ -0,0 +1,209 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A snapshot of the balances of a blockchain after a given number of blocks, tagged with the hash
+ * of the last of those blocks. A chain can rebuild its balances from a checkpoint by replaying only
+ * the blocks that follow it, provided the hash still matches.
+ *
+ * <p>Checkpoints of a logged chain are saved next to the log, one file per checkpoint, named for
+ * the log with the suffix ".ckpt." and the number of blocks. Each file holds the number of blocks,
+ * the hash, and the balances (as longs), and is written with CheckedFiles, so a crash never leaves
+ * a partial checkpoint.
+ *
+ * @author Harrison Zhu
+ */
+public class LedgerCheckpoint {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /**
+   * The first four bytes of every checkpoint file. Files from before balances were longs have
+   * another magic number, so they are treated as damaged and rebuilt.
+   */
+  private static final int MAGIC = 0x4C434B32;
+
+  /** The infix of checkpoint file names. */
+  private static final String SUFFIX = ".ckpt.";
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The number of blocks covered. */
+  private final int blockCount;
+
+  /** The hash of the last block covered. */
+  private final Hash tailHash;
+
+  /** The balances after the blocks covered. */
+  private final Map<String, Long> balances;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Take a checkpoint.
+   *
+   * @param count The number of blocks covered.
+   * @param tail The hash of the last block covered.
+   * @param ledger The balances after those blocks, which are copied.
+   */
+  public LedgerCheckpoint(int count, Hash tail, Map<String, Long> ledger) {
+    this.blockCount = count;
+    this.tailHash = tail;
+    this.balances = Collections.unmodifiableMap(new HashMap<String, Long>(ledger));
+  } // LedgerCheckpoint(int, Hash, Map<String, Long>)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Get the path of the checkpoint of a log after a number of blocks.
+   *
+   * @param log The segment file of the log.
+   * @param count The number of blocks.
+   * @return the path.
+   */
+  static Path pathFor(Path log, int count) {
+    return log.resolveSibling(log.getFileName() + SUFFIX + count);
+  } // pathFor(Path, int)
+
+  /**
+   * Decode a checkpoint file.
+   *
+   * @param data The contents of the file.
+   * @return the checkpoint, or null if the file is damaged.
+   */
+  private static LedgerCheckpoint decode(byte[] data) {
+    ByteBuffer buf = CheckedFiles.readChecked(data);
+    if (buf == null || buf.remaining() < Integer.BYTES || buf.getInt() != MAGIC) {
+      return null;
+    } // if
+    try {
+      int count = buf.getInt();
+      byte[] hash = new byte[buf.getInt()];
+      buf.get(hash);
+      int entries = buf.getInt();
+      Map<String, Long> ledger = new HashMap<String, Long>();
+      for (int i = 0; i < entries; i++) {
+        byte[] user = new byte[buf.getInt()];
+        buf.get(user);
+        ledger.put(new String(user, StandardCharsets.UTF_8), buf.getLong());
+      } // for
+      return new LedgerCheckpoint(count, new Hash(hash), ledger);
+    } catch (BufferUnderflowException | NegativeArraySizeException e) {
+      return null;
+    } // try catch
+  } // decode(byte[])
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the number of blocks covered.
+   *
+   * @return the number of blocks.
+   */
+  public int getBlockCount() {
+    return this.blockCount;
+  } // getBlockCount()
+
+  /**
+   * Get the hash of the last block covered.
+   *
+   * @return the hash.
+   */
+  public Hash getTailHash() {
+    return this.tailHash;
+  } // getTailHash()
+
+  /**
+   * Get the balances after the blocks covered.
+   *
+   * @return an unmodifiable view of the balances.
+   */
+  public Map<String, Long> getBalances() {
+    return this.balances;
+  } // getBalances()
+
+  /**
+   * Save the checkpoint next to a log.
+   *
+   * @param log The segment file of the log.
+   * @throws IOException if the checkpoint cannot be written.
+   */
+  public void save(Path log) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeInt(this.blockCount);
+    byte[] hash = this.tailHash.getBytes();
+    out.writeInt(hash.length);
+    out.write(hash);
+    out.writeInt(this.balances.size());
+    for (Map.Entry<String, Long> entry : this.balances.entrySet()) {
+      byte[] user = entry.getKey().getBytes(StandardCharsets.UTF_8);
+      out.writeInt(user.length);
+      out.write(user);
+      out.writeLong(entry.getValue());
+    } // for
+    CheckedFiles.writeAtomically(
+        LedgerCheckpoint.pathFor(log, this.blockCount), bytes.toByteArray());
+  } // save(Path)
+
+  /**
+   * Delete the checkpoint of a log after a number of blocks, if there is one.
+   *
+   * @param log The segment file of the log.
+   * @param count The number of blocks.
+   * @throws IOException if the checkpoint cannot be deleted.
+   */
+  public static void delete(Path log, int count) throws IOException {
+    Files.deleteIfExists(LedgerCheckpoint.pathFor(log, count));
+  } // delete(Path, int)
+
+  /**
+   * Load the checkpoints saved next to a log, skipping any that are damaged.
+   *
+   * @param log The segment file of the log.
+   * @return the checkpoints, in order of the number of blocks covered.
+   * @throws IOException if the directory cannot be read.
+   */
+  public static List<LedgerCheckpoint> loadAll(Path log) throws IOException {
+    List<LedgerCheckpoint> result = new ArrayList<LedgerCheckpoint>();
+    Path dir = log.toAbsolutePath().getParent();
+    String prefix = log.getFileName() + SUFFIX;
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, prefix + "*")) {
+      for (Path file : files) {
+        String count = file.getFileName().toString().substring(prefix.length());
+        if (count.matches("[0-9]+")) {
+          LedgerCheckpoint checkpoint = LedgerCheckpoint.decode(Files.readAllBytes(file));
+          if (checkpoint != null && Integer.toString(checkpoint.blockCount).equals(count)) {
+            result.add(checkpoint);
+          } // if
+        } // if
+      } // for
+    } // try
+    result.sort((a, b) -> Integer.compare(a.blockCount, b.blockCount));
+    return result;
+  } // loadAll(Path)
+} // class LedgerCheckpoint
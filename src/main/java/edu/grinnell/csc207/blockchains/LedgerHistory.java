@@ -0,0 +1,226 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.BitSet;
+
+/**
+ * The versions of a ledger, one per block: version n holds the balances after blocks 0 through n.
+ * Since ledgers share structure, keeping every version costs memory in proportion to the number of
+ * balances changed, not to the number of blocks times the number of users.
+ *
+ * <p>A history may start part way through the chain (for example, at a checkpoint), in which case
+ * earlier versions are missing. Like a block store, a history keeps its versions in fixed-size
+ * chunks and can hand out frozen views that do not change as it does: it never changes a slot that
+ * a view might see, and copies each chunk it must change at most once per view handed out.
+ *
+ * @author Harrison Zhu
+ */
+public class LedgerHistory {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The log (base 2) of the number of versions in a chunk. */
+  private static final int CHUNK_BITS = 10;
+
+  /** The number of versions in a chunk. */
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+  /** Mask to find the position of a version within its chunk. */
+  private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+  /** The initial number of slots in the table of chunks. */
+  private static final int INITIAL_CHUNKS = 4;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The chunks of versions, by position in the history. */
+  private Ledger[][] chunks;
+
+  /** The number of the block of the first version. */
+  private final int first;
+
+  /** The number of versions. */
+  private int size;
+
+  /** One past the highest position ever used. Slots below it may be visible to views. */
+  private int highWater;
+
+  /** Whether this history is a frozen view. */
+  private final boolean frozen;
+
+  /** Whether a view may hold the table of chunks, which must then be copied before it changes. */
+  private boolean tableShared;
+
+  /** The chunks copied since the last view was handed out, which no view holds. */
+  private final BitSet copied = new BitSet();
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a history that starts with a version.
+   *
+   * @param blockNum The number of the block of the version.
+   * @param ledger The balances after that block.
+   */
+  public LedgerHistory(int blockNum, Ledger ledger) {
+    this.chunks = new Ledger[INITIAL_CHUNKS][];
+    this.first = blockNum;
+    this.frozen = false;
+    this.add(ledger);
+  } // LedgerHistory(int, Ledger)
+
+  /**
+   * Create a view of a history.
+   *
+   * @param original The history.
+   * @param freeze Whether the view is frozen. A history that is not frozen must be the only one to
+   *     add to the chunks of the original, and may only add versions after the original's.
+   */
+  private LedgerHistory(LedgerHistory original, boolean freeze) {
+    this.chunks = original.chunks;
+    this.first = original.first;
+    this.size = original.size;
+    this.highWater = original.size;
+    this.frozen = freeze;
+    this.tableShared = true;
+  } // LedgerHistory(LedgerHistory, boolean)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the number of the block of the first version.
+   *
+   * @return the block number.
+   */
+  public int getFirst() {
+    return this.first;
+  } // getFirst()
+
+  /**
+   * Get the number of blocks covered, which is one more than the number of the block of the latest
+   * version.
+   *
+   * @return the number of blocks.
+   */
+  public int getBlockCount() {
+    return this.first + this.size;
+  } // getBlockCount()
+
+  /**
+   * Get the balances after a block.
+   *
+   * @param blockNum The number of the block.
+   * @return the balances, or null if the history does not hold that version.
+   */
+  public Ledger get(int blockNum) {
+    int i = blockNum - this.first;
+    if (i < 0 || i >= this.size) {
+      return null;
+    } // if
+    return this.chunks[i >>> CHUNK_BITS][i & CHUNK_MASK];
+  } // get(int)
+
+  /**
+   * Get the latest version.
+   *
+   * @return the balances after the last block covered.
+   */
+  public Ledger latest() {
+    return this.get(this.getBlockCount() - 1);
+  } // latest()
+
+  /**
+   * Add the version for the next block.
+   *
+   * @param ledger The balances after the next block.
+   * @throws UnsupportedOperationException if the history is a frozen view.
+   */
+  public void add(Ledger ledger) {
+    if (this.frozen) {
+      throw new UnsupportedOperationException("Frozen views cannot be changed");
+    } // if
+    int k = this.size >>> CHUNK_BITS;
+    if (k == this.chunks.length) {
+      Ledger[][] bigger = new Ledger[this.chunks.length * 2][];
+      System.arraycopy(this.chunks, 0, bigger, 0, this.chunks.length);
+      this.chunks = bigger;
+      this.tableShared = false;
+    } // if
+    if (this.chunks[k] == null) {
+      this.chunks[k] = new Ledger[CHUNK_SIZE];
+    } else if (this.size < this.highWater && !this.copied.get(k)) {
+      // A view may see this slot, so leave its chunk to the views.
+      if (this.tableShared) {
+        this.chunks = this.chunks.clone();
+        this.tableShared = false;
+      } // if
+      this.chunks[k] = this.chunks[k].clone();
+      this.copied.set(k);
+    } // if else
+    this.chunks[k][this.size & CHUNK_MASK] = ledger;
+    this.size++;
+    this.highWater = Math.max(this.highWater, this.size);
+  } // add(Ledger)
+
+  /**
+   * Drop the latest version. The first version is never dropped.
+   *
+   * @return true if a version was dropped and false if only the first remains.
+   * @throws UnsupportedOperationException if the history is a frozen view.
+   */
+  public boolean removeLast() {
+    if (this.frozen) {
+      throw new UnsupportedOperationException("Frozen views cannot be changed");
+    } // if
+    if (this.size <= 1) {
+      return false;
+    } // if
+    this.size--;
+    return true;
+  } // removeLast()
+
+  /**
+   * Get a frozen view of the versions now in the history.
+   *
+   * @return the view.
+   */
+  public LedgerHistory freeze() {
+    if (this.frozen) {
+      return this;
+    } // if
+    this.tableShared = true;
+    this.copied.clear();
+    return new LedgerHistory(this, true);
+  } // freeze()
+
+  /**
+   * Build the rest of the history of a chain by replaying its transactions.
+   *
+   * @param blocks The blocks of the chain.
+   * @param seed A history of the first few blocks of the chain, which is not changed.
+   * @return a history that starts with the latest version of the seed and covers every block.
+   */
+  static LedgerHistory replay(BlockStore blocks, LedgerHistory seed) {
+    LedgerHistory history = new LedgerHistory(seed.getBlockCount() - 1, seed.latest());
+    for (int i = history.getBlockCount(); i < blocks.size(); i++) {
+      history.add(history.latest().apply(blocks.transactions(i)));
+    } // for
+    return history;
+  } // replay(BlockStore, LedgerHistory)
+
+  /**
+   * Get a history that starts with the versions of this one and can grow. Only one history may be
+   * thawed from a given history, and this one must not grow afterwards.
+   *
+   * @return the history.
+   */
+  LedgerHistory thaw() {
+    return new LedgerHistory(this, false);
+  } // thaw()
+} // class LedgerHistory
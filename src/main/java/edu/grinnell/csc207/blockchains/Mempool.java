@@ -0,0 +1,402 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of transactions waiting to be mined into a chain. Any number of threads may submit
+ * transactions while a miner takes them off in batches, in order of priority.
+ *
+ * <p>A transaction is accepted only if its source can cover it and every other debit of the source
+ * still pending, so the debit is held against the source's balance from the moment it is accepted.
+ * Credits still pending are not counted. As a result, the transactions accepted stay legal in any
+ * order, whichever of them end up in a block. Pending transactions are tracked by submission, not
+ * by value: submitting the same transaction object again while it is pending is rejected as a
+ * duplicate, but two separate payments with the same source, target, and amount are both accepted,
+ * if the source covers both.
+ *
+ * <p>Submitting never waits for the miner: the pending transactions are kept in a concurrent skip
+ * list, and the debits held for each source are updated atomically in a concurrent map, which drops
+ * a source once it has nothing pending, so the map does not grow with every source ever seen. A
+ * batch handed to the miner keeps its transactions (and their debits) pending until the miner
+ * settles the batch, once its block is on the chain, or restores it, if the block did not make it.
+ *
+ * @author Harrison Zhu
+ */
+public class Mempool {
+  // +-------+-------------------------------------------------------
+  // | Types |
+  // +-------+
+
+  /** The outcome of submitting a transaction. */
+  public enum Status {
+    /** The transaction was added to the pool. */
+    ACCEPTED,
+
+    /** The same transaction object is already pending. */
+    DUPLICATE,
+
+    /** The source cannot cover the transaction on top of its other pending debits. */
+    OVERDRAWN,
+
+    /** The amount of the transaction is negative. */
+    INVALID,
+
+    /** The pool is full. */
+    FULL
+  } // enum Status
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The default number of transactions the pool holds. */
+  public static final int DEFAULT_CAPACITY = 1 << 16;
+
+  /** Orders transactions by when they were submitted, and nothing else. */
+  public static final Comparator<Transaction> ARRIVAL_ORDER = (x, y) -> 0;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The chain the transactions are for. */
+  private final BlockChain chain;
+
+  /** The maximum number of transactions waiting for a batch. */
+  private final int capacity;
+
+  /** The transactions waiting for a batch, in the order they are handed out. */
+  private final ConcurrentSkipListSet<Entry> queue;
+
+  /** Every pending transaction, whether waiting or handed out, by the object submitted. */
+  private final ConcurrentHashMap<Submission, Entry> pending =
+      new ConcurrentHashMap<Submission, Entry>();
+
+  /** The total of the pending debits of each source that has any. */
+  private final ConcurrentHashMap<String, Long> debits = new ConcurrentHashMap<String, Long>();
+
+  /** The number of transactions waiting for a batch. */
+  private final AtomicInteger waiting = new AtomicInteger();
+
+  /** The next sequence number, which breaks ties in priority. */
+  private final AtomicLong sequence = new AtomicLong();
+
+  /** The number of transactions dropped because they were no longer legal. */
+  private final AtomicLong dropped = new AtomicLong();
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a pool that hands out transactions in the order they were submitted.
+   *
+   * @param theChain The chain the transactions are for.
+   */
+  public Mempool(BlockChain theChain) {
+    this(theChain, ARRIVAL_ORDER, DEFAULT_CAPACITY);
+  } // Mempool(BlockChain)
+
+  /**
+   * Create a pool.
+   *
+   * @param theChain The chain the transactions are for.
+   * @param priority Orders transactions, those to hand out first coming first. Transactions it
+   *     considers equal are handed out in the order they were submitted.
+   * @param maxWaiting The maximum number of transactions waiting for a batch.
+   * @throws IllegalArgumentException if maxWaiting is less than 1.
+   */
+  public Mempool(BlockChain theChain, Comparator<Transaction> priority, int maxWaiting) {
+    if (maxWaiting < 1) {
+      throw new IllegalArgumentException("Need room for at least one transaction: " + maxWaiting);
+    } // if
+    this.chain = theChain;
+    this.capacity = maxWaiting;
+    Comparator<Entry> order = Comparator.comparing((Entry e) -> e.transaction, priority);
+    this.queue = new ConcurrentSkipListSet<Entry>(order.thenComparingLong((Entry e) -> e.seq));
+  } // Mempool(BlockChain, Comparator<Transaction>, int)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Hold a debit against the balance of its source, if the balance covers it and every other debit
+   * held. The balance is read while the source's entry is locked, and a batch is only settled once
+   * its block is on the chain, so a debit is never missing from both the balance and the debits.
+   *
+   * @param transaction The transaction, which is not a deposit.
+   * @return true if the debit is held and false otherwise.
+   */
+  private boolean hold(Transaction transaction) {
+    long amount = transaction.getAmount();
+    boolean[] held = new boolean[1];
+    this.debits.compute(
+        transaction.getSource(),
+        (source, before) -> {
+          long total = (before == null) ? 0 : before;
+          if (this.chain.snapshot().balance(source) - total < amount) {
+            return before;
+          } // if
+          held[0] = true;
+          return total + amount;
+        });
+    return held[0];
+  } // hold(Transaction)
+
+  /**
+   * Release the debit held for a transaction.
+   *
+   * @param transaction The transaction.
+   */
+  private void release(Transaction transaction) {
+    if (!transaction.getSource().equals("")) {
+      long amount = transaction.getAmount();
+      this.debits.computeIfPresent(
+          transaction.getSource(), (k, before) -> (before == amount) ? null : before - amount);
+    } // if
+  } // release(Transaction)
+
+  /**
+   * Remove a transaction that has been handed out from the pool, releasing its debit.
+   *
+   * @param transaction The transaction.
+   */
+  private void remove(Transaction transaction) {
+    if (this.pending.remove(new Submission(transaction)) != null) {
+      this.release(transaction);
+    } // if
+  } // remove(Transaction)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Submit a transaction. Never waits for the miner.
+   *
+   * @param transaction The transaction.
+   * @return whether the transaction was accepted, and if not, why.
+   */
+  public Status submit(Transaction transaction) {
+    if (transaction.getAmount() < 0) {
+      return Status.INVALID;
+    } // if
+    if (this.waiting.incrementAndGet() > this.capacity) {
+      this.waiting.decrementAndGet();
+      return Status.FULL;
+    } // if
+    Entry entry = new Entry(transaction, this.sequence.getAndIncrement());
+    Submission key = new Submission(transaction);
+    if (this.pending.putIfAbsent(key, entry) != null) {
+      this.waiting.decrementAndGet();
+      return Status.DUPLICATE;
+    } // if
+    if (!transaction.getSource().equals("") && !this.hold(transaction)) {
+      this.pending.remove(key, entry);
+      this.waiting.decrementAndGet();
+      return Status.OVERDRAWN;
+    } // if
+    this.queue.add(entry);
+    return Status.ACCEPTED;
+  } // submit(Transaction)
+
+  /**
+   * Take the next batch of transactions for a block, in order of priority. Each transaction is
+   * checked against the balances of the chain as it is now, after the ones before it in the batch,
+   * and any that are no longer legal (because the chain changed without the pool) are dropped. The
+   * transactions stay pending until the batch is settled or restored.
+   *
+   * @param max The largest number of transactions to take.
+   * @return the batch, which is empty if no transactions are waiting.
+   */
+  public List<Transaction> nextBatch(int max) {
+    List<Transaction> batch = new ArrayList<Transaction>(Math.min(max, this.waiting.get()));
+    Ledger staged = this.chain.snapshot().ledger();
+    while (batch.size() < max) {
+      Entry entry = this.queue.pollFirst();
+      if (entry == null) {
+        break;
+      } // if
+      this.waiting.decrementAndGet();
+      if (staged.isValid(entry.transaction)) {
+        staged = staged.apply(entry.transaction);
+        batch.add(entry.transaction);
+      } else {
+        this.remove(entry.transaction);
+        this.dropped.incrementAndGet();
+      } // if else
+    } // while
+    return batch;
+  } // nextBatch(int)
+
+  /**
+   * Remove a batch from the pool once its block is on the chain, releasing the debits held for it.
+   * Until then, the debits count both on the chain and in the pool, so a submission may be turned
+   * away that could have been accepted, but none is accepted that should not be.
+   *
+   * @param batch The batch.
+   */
+  public void settle(List<Transaction> batch) {
+    for (Transaction transaction : batch) {
+      this.remove(transaction);
+    } // for
+  } // settle(List<Transaction>)
+
+  /**
+   * Put a batch whose block did not make it onto the chain back in the pool, in its original place.
+   *
+   * @param batch The batch.
+   */
+  public void restore(List<Transaction> batch) {
+    for (Transaction transaction : batch) {
+      Entry entry = this.pending.get(new Submission(transaction));
+      if (entry != null) {
+        this.waiting.incrementAndGet();
+        this.queue.add(entry);
+      } // if
+    } // for
+  } // restore(List<Transaction>)
+
+  /**
+   * Mine the next batch into a block, append it to the chain, and settle it.
+   *
+   * @param max The largest number of transactions to put in the block.
+   * @return the block, or null if no transactions are waiting.
+   * @throws IllegalArgumentException if the chain changed while the block was mined, so that it no
+   *     longer fits, in which case the batch is restored.
+   */
+  public Block mineNext(int max) {
+    List<Transaction> batch = this.nextBatch(max);
+    if (batch.isEmpty()) {
+      return null;
+    } // if
+    Block blk;
+    try {
+      blk = this.chain.mine(batch);
+      this.chain.append(blk);
+    } catch (RuntimeException e) {
+      this.restore(batch);
+      throw e;
+    } // try catch
+    this.settle(batch);
+    return blk;
+  } // mineNext(int)
+
+  /**
+   * Get the number of transactions waiting for a batch. While submissions are in progress, the
+   * count may include some that have not been decided yet.
+   *
+   * @return the number of transactions.
+   */
+  public int size() {
+    return this.waiting.get();
+  } // size()
+
+  /**
+   * Get the total of the pending debits of a user.
+   *
+   * @param user The user.
+   * @return the total, which is 0 if the user has none.
+   */
+  public long pendingDebits(String user) {
+    Long held = this.debits.get(user);
+    return (held == null) ? 0 : held;
+  } // pendingDebits(String)
+
+  /**
+   * Get the number of sources with debits pending.
+   *
+   * @return the number of sources.
+   */
+  int sourcesWithDebits() {
+    return this.debits.size();
+  } // sourcesWithDebits()
+
+  /**
+   * Get the number of transactions dropped from batches because they were no longer legal.
+   *
+   * @return the number of transactions.
+   */
+  public long getDropped() {
+    return this.dropped.get();
+  } // getDropped()
+
+  /**
+   * Get the transactions waiting for a batch, in the order they would be handed out.
+   *
+   * @return an unmodifiable copy of the transactions.
+   */
+  public List<Transaction> waiting() {
+    List<Transaction> result = new ArrayList<Transaction>();
+    for (Entry entry : this.queue) {
+      result.add(entry.transaction);
+    } // for
+    return Collections.unmodifiableList(result);
+  } // waiting()
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /** A pending transaction and its place in line. */
+  private static final class Entry {
+    /** The transaction. */
+    final Transaction transaction;
+
+    /** The sequence number, which breaks ties in priority. */
+    final long seq;
+
+    /**
+     * Create an entry.
+     *
+     * @param theTransaction The transaction.
+     * @param theSeq The sequence number.
+     */
+    Entry(Transaction theTransaction, long theSeq) {
+      this.transaction = theTransaction;
+      this.seq = theSeq;
+    } // Entry(Transaction, long)
+  } // class Entry
+
+  /** A transaction as submitted, equal only to itself and not to other equal transactions. */
+  private static final class Submission {
+    /** The transaction. */
+    final Transaction transaction;
+
+    /**
+     * Wrap a transaction.
+     *
+     * @param theTransaction The transaction.
+     */
+    Submission(Transaction theTransaction) {
+      this.transaction = theTransaction;
+    } // Submission(Transaction)
+
+    /**
+     * Determine whether another object wraps the same transaction object.
+     *
+     * @param other The object to compare to.
+     * @return true if it does, false otherwise.
+     */
+    public boolean equals(Object other) {
+      return (other instanceof Submission) && ((Submission) other).transaction == this.transaction;
+    } // equals(Object)
+
+    /**
+     * Get the identity hash code of the transaction.
+     *
+     * @return the hash code.
+     */
+    public int hashCode() {
+      return System.identityHashCode(this.transaction);
+    } // hashCode()
+  } // class Submission
+} // class Mempool
@@ -0,0 +1,98 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * Computes the Merkle root of the transactions in a block, so that the hash of the block commits to
+ * every transaction, in order, while hashing a fixed-size root for each nonce.
+ *
+ * <p>Each leaf is the SHA-256 of a zero byte followed by the transaction (length-prefixed source
+ * and target, then amount), and each inner node is the SHA-256 of a one byte followed by its two
+ * children. The prefixes keep a leaf from ever being taken for an inner node. A node without a
+ * partner is carried up to the next level unchanged, rather than paired with itself, so that no two
+ * lists of transactions have the same root.
+ *
+ * @author Harrison Zhu
+ */
+public final class MerkleTree {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The byte that starts the input of each leaf. */
+  private static final byte LEAF = 0;
+
+  /** The byte that starts the input of each inner node. */
+  private static final byte NODE = 1;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /** Keep the class from being instantiated. */
+  private MerkleTree() {
+    // Only static methods.
+  } // MerkleTree()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Hash one transaction as a leaf.
+   *
+   * @param md The digest to use.
+   * @param transaction The transaction.
+   * @return the hash of the leaf.
+   */
+  private static byte[] leaf(MessageDigest md, Transaction transaction) {
+    byte[] source = transaction.getSource().getBytes(StandardCharsets.UTF_8);
+    byte[] target = transaction.getTarget().getBytes(StandardCharsets.UTF_8);
+    ByteBuffer buf = ByteBuffer.allocate(1 + 3 * Integer.BYTES + source.length + target.length);
+    buf.put(LEAF);
+    buf.putInt(source.length).put(source);
+    buf.putInt(target.length).put(target);
+    buf.putInt(transaction.getAmount());
+    return md.digest(buf.array());
+  } // leaf(MessageDigest, Transaction)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Compute the Merkle root of a list of transactions.
+   *
+   * @param transactions The transactions, in block order.
+   * @return the root.
+   * @throws IllegalArgumentException if there are no transactions.
+   */
+  public static Hash root(List<Transaction> transactions) {
+    int n = transactions.size();
+    if (n == 0) {
+      throw new IllegalArgumentException("No transactions");
+    } // if
+    MessageDigest md = BlockHasher.newDigest();
+    byte[][] level = new byte[n][];
+    for (int i = 0; i < n; i++) {
+      level[i] = MerkleTree.leaf(md, transactions.get(i));
+    } // for
+    while (n > 1) {
+      int half = (n + 1) / 2;
+      for (int i = 0; i < n / 2; i++) {
+        md.update(NODE);
+        md.update(level[2 * i]);
+        md.update(level[2 * i + 1]);
+        level[i] = md.digest();
+      } // for
+      if (n % 2 == 1) {
+        level[half - 1] = level[n - 1];
+      } // if
+      n = half;
+    } // while
+    return new Hash(level[0]);
+  } // root(List<Transaction>)
+} // class MerkleTree
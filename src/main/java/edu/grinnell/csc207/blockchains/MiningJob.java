@@ -0,0 +1,205 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.time.Duration;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * One search for a nonce, run by a number of workers in the background and observed through a
+ * future. Worker i of n tries nonces i, i + n, i + 2n, and so on, starting from wherever the
+ * MiningState says it left off.
+ *
+ * <p>Each worker checks whether the future is done once every CHECK_INTERVAL nonces, which costs
+ * nothing next to the hashing in between, and stops if it is: that is, if another worker found the
+ * nonce, or the future was cancelled, or its deadline passed. At the same points, the workers
+ * record their position in the state, count their attempts and, once each progress interval, one of
+ * them reports on the search. The state is released once every worker has stopped.
+ *
+ * @author Harrison Zhu
+ */
+final class MiningJob {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The number of nonces each worker tries between checks. */
+  static final int CHECK_INTERVAL = 1 << 16;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The result of the search. */
+  private final CompletableFuture<Block> result = new CompletableFuture<Block>();
+
+  /** The block being mined and where each worker has got to. */
+  private final MiningState state;
+
+  /** The validator the hash of the block must satisfy. */
+  private final HashValidator check;
+
+  /** The number of workers that have yet to stop. */
+  private final AtomicInteger running = new AtomicInteger();
+
+  /** The number of nonces tried, counted at each check. */
+  private final LongAdder attempts = new LongAdder();
+
+  /** When the search started, in nanoseconds. */
+  private long startNanos;
+
+  /** The time between progress reports, in nanoseconds. */
+  private long progressNanos;
+
+  /** Receives progress reports, or null for none. */
+  private Consumer<MiningProgress> listener;
+
+  /** When the next progress report is due, in nanoseconds. */
+  private final AtomicLong nextReport = new AtomicLong();
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a search.
+   *
+   * @param theState The block to mine and where to start, which the search keeps up to date.
+   * @param theCheck The validator the hash of the block must satisfy.
+   */
+  MiningJob(MiningState theState, HashValidator theCheck) {
+    this.state = theState;
+    this.check = theCheck;
+  } // MiningJob(MiningState, HashValidator)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Search one worker's share of the nonce space until the search is over.
+   *
+   * @param worker The worker.
+   */
+  private void search(int worker) {
+    try {
+      BlockHasher hasher = new BlockHasher(true);
+      hasher.reset(
+          this.state.getBlockNum(),
+          this.state.getTransactions(),
+          this.state.getPrevHash(),
+          this.state.getTarget(),
+          this.state.getMinedAt());
+      hasher.setValidator(this.check);
+      long stride = this.state.getWorkers();
+      long nonce = this.state.getNext(worker);
+      while (!this.result.isDone()) {
+        for (int i = 0; i < CHECK_INTERVAL; i++) {
+          if (hasher.tryNonce(nonce)) {
+            this.state.solve(nonce);
+            this.result.complete(this.state.getBlock());
+            return;
+          } // if
+          long after = nonce + stride;
+          if (Long.compareUnsigned(after, nonce) < 0) {
+            this.state.finish(worker, nonce);
+            this.attempts.add(i + 1);
+            if (this.state.isExhausted()) {
+              this.result.completeExceptionally(
+                  new NoSuchElementException("No nonce satisfies the validator"));
+            } // if
+            return;
+          } // if
+          nonce = after;
+        } // for
+        this.state.advance(worker, nonce);
+        this.attempts.add(CHECK_INTERVAL);
+        this.report();
+      } // while
+    } catch (RuntimeException e) {
+      this.result.completeExceptionally(e);
+    } finally {
+      this.stopped();
+    } // try catch finally
+  } // search(int)
+
+  /** Note that a worker has stopped, and release the state if it was the last. */
+  private void stopped() {
+    if (this.running.decrementAndGet() == 0) {
+      this.state.release();
+    } // if
+  } // stopped()
+
+  /** Report on the search, if a report is due and no other worker is making it. */
+  private void report() {
+    if (this.listener == null) {
+      return;
+    } // if
+    long now = System.nanoTime();
+    long due = this.nextReport.get();
+    if (now - due >= 0 && this.nextReport.compareAndSet(due, now + this.progressNanos)) {
+      this.listener.accept(new MiningProgress(this.attempts.sum(), now - this.startNanos));
+    } // if
+  } // report()
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Start the workers.
+   *
+   * @param executor Runs the workers, each of which keeps its thread until the search is over.
+   * @param timeout How long to search before giving up, or null to search until cancelled.
+   * @param every The time between progress reports.
+   * @param progress Receives progress reports, on one of the workers, or null for none.
+   * @return a future that completes with the block, or exceptionally with a TimeoutException if the
+   *     time runs out or a NoSuchElementException if every nonce has been tried. Cancelling the
+   *     future stops the search.
+   * @throws IllegalStateException if another search is still using the state.
+   */
+  CompletableFuture<Block> start(
+      Executor executor, Duration timeout, Duration every, Consumer<MiningProgress> progress) {
+    if (this.state.isSolved()) {
+      this.result.complete(this.state.getBlock());
+      return this.result;
+    } // if
+    if (this.state.isExhausted()) {
+      this.result.completeExceptionally(
+          new NoSuchElementException("No nonce satisfies the validator"));
+      return this.result;
+    } // if
+    this.state.claim();
+    this.progressNanos = every.toNanos();
+    this.listener = progress;
+    this.startNanos = System.nanoTime();
+    this.nextReport.set(this.startNanos + this.progressNanos);
+    if (timeout != null) {
+      this.result.orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS);
+    } // if
+    int workers = this.state.getWorkers();
+    this.running.set(workers);
+    for (int i = 0; i < workers; i++) {
+      int worker = i;
+      if (this.state.isFinished(worker)) {
+        this.stopped();
+        continue;
+      } // if
+      try {
+        executor.execute(() -> this.search(worker));
+      } catch (RuntimeException e) {
+        this.result.completeExceptionally(e);
+        for (int j = i; j < workers; j++) {
+          this.stopped();
+        } // for
+        break;
+      } // try catch
+    } // for
+    return this.result;
+  } // start(Executor, Duration, Duration, Consumer<MiningProgress>)
+} // class MiningJob
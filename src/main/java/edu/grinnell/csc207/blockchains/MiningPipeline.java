@@ -0,0 +1,353 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Mines the transactions in a pool into a chain continuously. One thread takes batches from the
+ * pool and mines them (on the chain's workers, if it has several); another appends the mined
+ * blocks, in order, and settles their batches. A block's successor can be mined as soon as the
+ * block's hash is known, so the miner starts on the next block while the appender is still
+ * appending the last.
+ *
+ * <p>If a block cannot be appended (because something else changed the chain), its batch and those
+ * of every block mined after it are put back in the pool, and the miner starts again from the end
+ * of the chain.
+ *
+ * @author Harrison Zhu
+ */
+public class MiningPipeline {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The default largest number of transactions in a block. */
+  public static final int DEFAULT_BATCH = 256;
+
+  /** The default number of mined blocks that may wait to be appended. */
+  public static final int DEFAULT_DEPTH = 4;
+
+  /** How long the miner waits for transactions when the pool is empty. */
+  private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  /** How long the appender waits for a block before checking whether to stop. */
+  private static final long POLL_MILLIS = 10;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The chain to extend. */
+  private final BlockChain chain;
+
+  /** The pool the transactions come from. */
+  private final Mempool pool;
+
+  /** The largest number of transactions in a block. */
+  private final int batchSize;
+
+  /** Mined blocks waiting to be appended, in order. */
+  private final BlockingQueue<Mined> mined;
+
+  /** The thread that mines. */
+  private final Thread miner;
+
+  /** The thread that appends. */
+  private final Thread appender;
+
+  /** Whether the pipeline should keep mining. */
+  private volatile boolean running;
+
+  /** Whether the miner has stopped, so that nothing more will be mined. */
+  private volatile boolean minerDone;
+
+  /** Bumped each time a block cannot be appended, invalidating the blocks mined after it. */
+  private volatile int generation;
+
+  /** When the pipeline started, in nanoseconds. */
+  private volatile long startNanos;
+
+  /** When the pipeline stopped, in nanoseconds, or 0 if it is running. */
+  private volatile long stopNanos;
+
+  /** The number of blocks appended. */
+  private final AtomicLong blocksAppended = new AtomicLong();
+
+  /** The number of transactions appended. */
+  private final AtomicLong transactionsAppended = new AtomicLong();
+
+  /** The number of blocks that could not be mined or appended. */
+  private final AtomicLong failures = new AtomicLong();
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a pipeline with the default batch size and depth. It does nothing until started.
+   *
+   * @param theChain The chain to extend.
+   * @param thePool The pool the transactions come from, which must be for the same chain.
+   */
+  public MiningPipeline(BlockChain theChain, Mempool thePool) {
+    this(theChain, thePool, DEFAULT_BATCH, DEFAULT_DEPTH);
+  } // MiningPipeline(BlockChain, Mempool)
+
+  /**
+   * Create a pipeline. It does nothing until started.
+   *
+   * @param theChain The chain to extend.
+   * @param thePool The pool the transactions come from, which must be for the same chain.
+   * @param maxBatch The largest number of transactions in a block.
+   * @param depth The number of mined blocks that may wait to be appended before the miner waits.
+   * @throws IllegalArgumentException if maxBatch or depth is less than 1.
+   */
+  public MiningPipeline(BlockChain theChain, Mempool thePool, int maxBatch, int depth) {
+    if (maxBatch < 1 || depth < 1) {
+      throw new IllegalArgumentException("Batch size and depth must be positive: " + maxBatch);
+    } // if
+    this.chain = theChain;
+    this.pool = thePool;
+    this.batchSize = maxBatch;
+    this.mined = new ArrayBlockingQueue<Mined>(depth);
+    this.miner = new Thread(this::mineLoop, "pipeline-miner");
+    this.miner.setDaemon(true);
+    this.appender = new Thread(this::appendLoop, "pipeline-appender");
+    this.appender.setDaemon(true);
+  } // MiningPipeline(BlockChain, Mempool, int, int)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /** Take batches from the pool and mine them, until stopped. */
+  private void mineLoop() {
+    List<Block> ahead = new ArrayList<Block>();
+    int seen = this.generation;
+    try {
+      while (this.running) {
+        List<Transaction> batch = this.pool.nextBatch(this.batchSize);
+        if (batch.isEmpty()) {
+          LockSupport.parkNanos(IDLE_NANOS);
+          continue;
+        } // if
+        if (seen != this.generation) {
+          seen = this.generation;
+          ahead.clear();
+        } // if
+        ChainSnapshot tip = this.chain.snapshot();
+        while (!ahead.isEmpty() && ahead.get(0).getNum() < tip.getSize()) {
+          ahead.remove(0);
+        } // while
+        Block blk;
+        try {
+          blk = this.chain.mineAfter(tip, ahead, batch);
+        } catch (RuntimeException e) {
+          this.pool.restore(batch);
+          this.failures.incrementAndGet();
+          continue;
+        } // try catch
+        ahead.add(blk);
+        this.mined.put(new Mined(blk, batch, seen));
+      } // while
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      this.minerDone = true;
+    } // try finally
+  } // mineLoop()
+
+  /** Append mined blocks in order, until the miner is done and every block has been handled. */
+  private void appendLoop() {
+    try {
+      while (!this.minerDone || !this.mined.isEmpty()) {
+        Mined next = this.mined.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (next != null) {
+          this.append(next);
+        } // if
+      } // while
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } // try catch
+  } // appendLoop()
+
+  /**
+   * Append one mined block and settle its batch, or put the batch back if the block does not fit.
+   *
+   * @param next The block and its batch.
+   */
+  private void append(Mined next) {
+    if (next.generation != this.generation) {
+      this.pool.restore(next.batch);
+      return;
+    } // if
+    try {
+      this.chain.append(next.block);
+    } catch (RuntimeException e) {
+      this.pool.restore(next.batch);
+      this.failures.incrementAndGet();
+      this.generation++;
+      return;
+    } // try catch
+    this.pool.settle(next.batch);
+    this.blocksAppended.incrementAndGet();
+    this.transactionsAppended.addAndGet(next.batch.size());
+  } // append(Mined)
+
+  /**
+   * Get the time the pipeline has been running.
+   *
+   * @return the time, in seconds.
+   */
+  private double elapsedSeconds() {
+    long end = (this.stopNanos == 0) ? System.nanoTime() : this.stopNanos;
+    return (end - this.startNanos) / 1e9;
+  } // elapsedSeconds()
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Start mining. A pipeline can only be started once.
+   *
+   * @throws IllegalStateException if the pipeline has been started before.
+   */
+  public synchronized void start() {
+    if (this.startNanos != 0) {
+      throw new IllegalStateException("Pipeline already started");
+    } // if
+    this.startNanos = System.nanoTime();
+    this.running = true;
+    this.miner.start();
+    this.appender.start();
+  } // start()
+
+  /**
+   * Submit a transaction to the pool and wake the miner if it is waiting. Never waits for mining.
+   *
+   * @param transaction The transaction.
+   * @return whether the pool accepted the transaction, and if not, why.
+   */
+  public Mempool.Status submit(Transaction transaction) {
+    Mempool.Status status = this.pool.submit(transaction);
+    if (status == Mempool.Status.ACCEPTED) {
+      LockSupport.unpark(this.miner);
+    } // if
+    return status;
+  } // submit(Transaction)
+
+  /**
+   * Stop mining, after the block being mined, and wait until every mined block has been appended.
+   * Transactions still in the pool stay there.
+   *
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  public synchronized void shutdown() throws InterruptedException {
+    if (!this.running) {
+      return;
+    } // if
+    this.running = false;
+    LockSupport.unpark(this.miner);
+    this.miner.join();
+    this.appender.join();
+    this.stopNanos = System.nanoTime();
+  } // shutdown()
+
+  /**
+   * Get the number of blocks appended.
+   *
+   * @return the number of blocks.
+   */
+  public long getBlocksAppended() {
+    return this.blocksAppended.get();
+  } // getBlocksAppended()
+
+  /**
+   * Get the number of transactions appended.
+   *
+   * @return the number of transactions.
+   */
+  public long getTransactionsAppended() {
+    return this.transactionsAppended.get();
+  } // getTransactionsAppended()
+
+  /**
+   * Get the number of blocks that could not be mined or appended.
+   *
+   * @return the number of blocks.
+   */
+  public long getFailures() {
+    return this.failures.get();
+  } // getFailures()
+
+  /**
+   * Get the sustained rate of blocks appended, since the pipeline started.
+   *
+   * @return the rate, in blocks per second, or 0 if the pipeline has not started.
+   */
+  public double getBlocksPerSecond() {
+    return (this.startNanos == 0) ? 0 : this.blocksAppended.get() / this.elapsedSeconds();
+  } // getBlocksPerSecond()
+
+  /**
+   * Get the sustained rate of transactions appended, since the pipeline started.
+   *
+   * @return the rate, in transactions per second, or 0 if the pipeline has not started.
+   */
+  public double getTransactionsPerSecond() {
+    return (this.startNanos == 0) ? 0 : this.transactionsAppended.get() / this.elapsedSeconds();
+  } // getTransactionsPerSecond()
+
+  /**
+   * Get the number of transactions waiting in the pool.
+   *
+   * @return the number of transactions.
+   */
+  public int getQueueDepth() {
+    return this.pool.size();
+  } // getQueueDepth()
+
+  /**
+   * Get the number of mined blocks waiting to be appended.
+   *
+   * @return the number of blocks.
+   */
+  public int getPipelineDepth() {
+    return this.mined.size();
+  } // getPipelineDepth()
+
+  // +---------------+-----------------------------------------------
+  // | Inner classes |
+  // +---------------+
+
+  /** A mined block and the batch it holds. */
+  private static final class Mined {
+    /** The block. */
+    final Block block;
+
+    /** The batch from the pool. */
+    final List<Transaction> batch;
+
+    /** The generation the block was mined in. */
+    final int generation;
+
+    /**
+     * Create a mined block.
+     *
+     * @param theBlock The block.
+     * @param theBatch The batch from the pool.
+     * @param theGeneration The generation the block was mined in.
+     */
+    Mined(Block theBlock, List<Transaction> theBatch, int theGeneration) {
+      this.block = theBlock;
+      this.batch = theBatch;
+      this.generation = theGeneration;
+    } // Mined(Block, List<Transaction>, int)
+  } // class Mined
+} // class MiningPipeline
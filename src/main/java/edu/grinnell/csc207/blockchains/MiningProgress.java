@@ -0,0 +1,76 @@
+package edu.grinnell.csc207.blockchains;
+
+/**
+ * A report on a search for a nonce that is still going: how many nonces have been tried, and how
+ * long it has taken.
+ *
+ * @author Harrison Zhu
+ */
+public class MiningProgress {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The number of nonces tried, across every worker. */
+  private final long attempts;
+
+  /** The time since the search started, in nanoseconds. */
+  private final long elapsedNanos;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a report.
+   *
+   * @param tried The number of nonces tried.
+   * @param elapsed The time since the search started, in nanoseconds.
+   */
+  public MiningProgress(long tried, long elapsed) {
+    this.attempts = tried;
+    this.elapsedNanos = elapsed;
+  } // MiningProgress(long, long)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the number of nonces tried.
+   *
+   * @return the number of nonces, across every worker.
+   */
+  public long getAttempts() {
+    return this.attempts;
+  } // getAttempts()
+
+  /**
+   * Get the time since the search started.
+   *
+   * @return the time, in nanoseconds.
+   */
+  public long getElapsedNanos() {
+    return this.elapsedNanos;
+  } // getElapsedNanos()
+
+  /**
+   * Get the average rate of the search so far.
+   *
+   * @return the rate, in hashes per second, or 0 if no time has passed.
+   */
+  public double getHashesPerSecond() {
+    return (this.elapsedNanos <= 0) ? 0 : this.attempts * 1e9 / this.elapsedNanos;
+  } // getHashesPerSecond()
+
+  /**
+   * Get a string representation of the report.
+   *
+   * @return a string of the form [Attempts: attempts, Seconds: seconds, Rate: rate H/s].
+   */
+  public String toString() {
+    return String.format(
+        "[Attempts: %d, Seconds: %.1f, Rate: %.0f H/s]",
+        this.attempts, this.elapsedNanos / 1e9, this.getHashesPerSecond());
+  } // toString()
+} // class MiningProgress
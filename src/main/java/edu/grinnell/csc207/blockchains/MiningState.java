@@ -0,0 +1,438 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Where a search for a nonce has got to, so that it can stop and later carry on exactly where it
+ * left off, in this process or after a restart.
+ *
+ * <p>The nonce space is split among a fixed number of workers: worker i of n tries nonces i, i + n,
+ * i + 2n, and so on, treated as unsigned, until the next would pass 2^64 - 1. Together the workers
+ * try every nonce exactly once. The state records, for each worker, the first nonce it has yet to
+ * try, and is brought up to date each time the worker checks whether to stop; so a resumed search
+ * never skips a nonce, and repeats at most the nonces tried since the last check.
+ *
+ * <p>Saved states hold the contents of the block (including its target and mining time, which the
+ * hash of a block on a retargeted chain covers), the position of each worker, and the nonce found,
+ * if any, and are written with CheckedFiles, so a crash never leaves a partial state.
+ *
+ * @author Harrison Zhu
+ */
+public class MiningState {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The first four bytes of every saved state. */
+  private static final int MAGIC = 0x4D535432;
+
+  /**
+   * The first four bytes of states saved without a mining time. Those states are loaded only for
+   * blocks without a target, whose hashes do not cover the time.
+   */
+  private static final int UNTIMED_MAGIC = 0x4D535431;
+
+  /** The length recorded for a missing previous hash. */
+  private static final int NO_HASH = -1;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The number of the block. */
+  private final int num;
+
+  /** The transactions for the block. */
+  private final List<Transaction> transactions;
+
+  /** The hash of the previous block. */
+  private final Hash prevHash;
+
+  /** The difficulty target to stamp the block with. */
+  private final int target;
+
+  /** The mining time to stamp the block with, in milliseconds since the epoch. */
+  private final long minedAt;
+
+  /** The number of workers the nonce space is split among. */
+  private final int workers;
+
+  /** The first nonce each worker has yet to try, or the last it tried once it has finished. */
+  private final AtomicLongArray next;
+
+  /** Whether each worker has tried its whole share (1) or not (0). */
+  private final AtomicIntegerArray finished;
+
+  /** Whether a search is using the state. */
+  private final AtomicBoolean claimed = new AtomicBoolean(false);
+
+  /** The nonce found, if solved. */
+  private volatile long solution;
+
+  /** Whether a nonce has been found. Set after the solution. */
+  private volatile boolean solved;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create the state of a search that has not started.
+   *
+   * @param theNum The number of the block.
+   * @param theTransactions The transactions for the block, in order.
+   * @param thePrevHash The hash of the previous block, or null for the first block.
+   * @param compact The difficulty target to stamp the block with, or 0 for none.
+   * @param millis The mining time to stamp the block with, in milliseconds since the epoch.
+   * @param numWorkers The number of workers to split the nonce space among.
+   * @throws IllegalArgumentException if there are no transactions or numWorkers is less than 1.
+   */
+  public MiningState(
+      int theNum,
+      List<Transaction> theTransactions,
+      Hash thePrevHash,
+      int compact,
+      long millis,
+      int numWorkers) {
+    if (theTransactions.isEmpty()) {
+      throw new IllegalArgumentException("A block needs at least one transaction");
+    } // if
+    if (numWorkers < 1) {
+      throw new IllegalArgumentException("Need at least one worker: " + numWorkers);
+    } // if
+    this.num = theNum;
+    this.transactions = List.copyOf(theTransactions);
+    this.prevHash = thePrevHash;
+    this.target = compact;
+    this.minedAt = millis;
+    this.workers = numWorkers;
+    this.next = new AtomicLongArray(numWorkers);
+    this.finished = new AtomicIntegerArray(numWorkers);
+    for (int i = 0; i < numWorkers; i++) {
+      this.next.set(i, i);
+    } // for
+  } // MiningState(int, List<Transaction>, Hash, int, long, int)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Write a string as its length and UTF-8 bytes.
+   *
+   * @param out The stream to write to.
+   * @param str The string.
+   * @throws IOException if the string cannot be written.
+   */
+  private static void writeString(DataOutputStream out, String str) throws IOException {
+    byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  } // writeString(DataOutputStream, String)
+
+  /**
+   * Read a string written by writeString.
+   *
+   * @param buf The buffer, positioned at the length of the string.
+   * @return the string.
+   */
+  private static String readString(ByteBuffer buf) {
+    byte[] bytes = new byte[buf.getInt()];
+    buf.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  } // readString(ByteBuffer)
+
+  /**
+   * Decode a saved state.
+   *
+   * @param data The contents of the file.
+   * @return the state, or null if the file is damaged.
+   */
+  private static MiningState decode(byte[] data) {
+    ByteBuffer buf = CheckedFiles.readChecked(data);
+    if (buf == null || buf.remaining() < Integer.BYTES) {
+      return null;
+    } // if
+    int magic = buf.getInt();
+    if (magic != MAGIC && magic != UNTIMED_MAGIC) {
+      return null;
+    } // if
+    try {
+      int blockNum = buf.getInt();
+      int length = buf.getInt();
+      Hash prev = null;
+      if (length != NO_HASH) {
+        byte[] hash = new byte[length];
+        buf.get(hash);
+        prev = new Hash(hash);
+      } // if
+      int compact = buf.getInt();
+      long millis = 0;
+      if (magic == MAGIC) {
+        millis = buf.getLong();
+      } else if (compact != 0) {
+        return null;
+      } // if else
+      int count = buf.getInt();
+      List<Transaction> ts = new ArrayList<Transaction>();
+      for (int i = 0; i < count; i++) {
+        String source = MiningState.readString(buf);
+        String tgt = MiningState.readString(buf);
+        ts.add(new Transaction(source, tgt, buf.getInt()));
+      } // for
+      MiningState state = new MiningState(blockNum, ts, prev, compact, millis, buf.getInt());
+      for (int i = 0; i < state.workers; i++) {
+        state.next.set(i, buf.getLong());
+        state.finished.set(i, buf.get());
+      } // for
+      if (buf.get() != 0) {
+        state.solve(buf.getLong());
+      } // if
+      return state;
+    } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+      return null;
+    } // try catch
+  } // decode(byte[])
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the number of the block.
+   *
+   * @return the number of the block.
+   */
+  public int getBlockNum() {
+    return this.num;
+  } // getBlockNum()
+
+  /**
+   * Get the transactions for the block.
+   *
+   * @return an unmodifiable list of the transactions.
+   */
+  public List<Transaction> getTransactions() {
+    return this.transactions;
+  } // getTransactions()
+
+  /**
+   * Get the hash of the previous block.
+   *
+   * @return the hash.
+   */
+  public Hash getPrevHash() {
+    return this.prevHash;
+  } // getPrevHash()
+
+  /**
+   * Get the difficulty target to stamp the block with.
+   *
+   * @return the compact target.
+   */
+  public int getTarget() {
+    return this.target;
+  } // getTarget()
+
+  /**
+   * Get the mining time to stamp the block with.
+   *
+   * @return the time, in milliseconds since the epoch.
+   */
+  public long getMinedAt() {
+    return this.minedAt;
+  } // getMinedAt()
+
+  /**
+   * Get the number of workers the nonce space is split among.
+   *
+   * @return the number of workers.
+   */
+  public int getWorkers() {
+    return this.workers;
+  } // getWorkers()
+
+  /**
+   * Get the first nonce a worker has yet to try.
+   *
+   * @param worker The worker.
+   * @return the nonce, or the last the worker tried if it has tried its whole share.
+   */
+  public long getNext(int worker) {
+    return this.next.get(worker);
+  } // getNext(int)
+
+  /**
+   * Determine whether a worker has tried its whole share of the nonce space.
+   *
+   * @param worker The worker.
+   * @return true if it has, false otherwise.
+   */
+  public boolean isFinished(int worker) {
+    return this.finished.get(worker) != 0;
+  } // isFinished(int)
+
+  /**
+   * Determine whether every nonce has been tried.
+   *
+   * @return true if every worker has tried its whole share, false otherwise.
+   */
+  public boolean isExhausted() {
+    for (int i = 0; i < this.workers; i++) {
+      if (this.finished.get(i) == 0) {
+        return false;
+      } // if
+    } // for
+    return true;
+  } // isExhausted()
+
+  /**
+   * Get the number of nonces tried, as of the last check of each worker.
+   *
+   * @return the number of nonces.
+   */
+  public long getSearched() {
+    long total = 0;
+    for (int i = 0; i < this.workers; i++) {
+      total += Long.divideUnsigned(this.next.get(i) - i, this.workers) + this.finished.get(i);
+    } // for
+    return total;
+  } // getSearched()
+
+  /**
+   * Determine whether a nonce has been found.
+   *
+   * @return true if one has, false otherwise.
+   */
+  public boolean isSolved() {
+    return this.solved;
+  } // isSolved()
+
+  /**
+   * Get the block, once a nonce has been found.
+   *
+   * @return the block, stamped with its target and mining time, or null if no nonce has been found.
+   */
+  public Block getBlock() {
+    if (!this.solved) {
+      return null;
+    } // if
+    Block blk = new Block(this.num, this.transactions, this.prevHash, this.target, this.minedAt);
+    blk.solve(this.solution);
+    return blk;
+  } // getBlock()
+
+  /**
+   * Record that a worker has tried every nonce of its share before another.
+   *
+   * @param worker The worker.
+   * @param nonce The first nonce it has yet to try.
+   */
+  void advance(int worker, long nonce) {
+    this.next.set(worker, nonce);
+  } // advance(int, long)
+
+  /**
+   * Record that a worker has tried its whole share.
+   *
+   * @param worker The worker.
+   * @param last The last nonce it tried.
+   */
+  void finish(int worker, long last) {
+    this.next.set(worker, last);
+    this.finished.set(worker, 1);
+  } // finish(int, long)
+
+  /**
+   * Record the nonce found.
+   *
+   * @param nonce The nonce.
+   */
+  void solve(long nonce) {
+    this.solution = nonce;
+    this.solved = true;
+  } // solve(long)
+
+  /**
+   * Claim the state for a search.
+   *
+   * @throws IllegalStateException if another search is still using it.
+   */
+  void claim() {
+    if (!this.claimed.compareAndSet(false, true)) {
+      throw new IllegalStateException("Already being mined");
+    } // if
+  } // claim()
+
+  /** Let another search use the state. */
+  void release() {
+    this.claimed.set(false);
+  } // release()
+
+  /**
+   * Save the state. It may be saved while a search is using it, in which case it records each
+   * worker's position as of that worker's last check.
+   *
+   * @param file Where to save it.
+   * @throws IOException if the state cannot be written.
+   */
+  public void save(Path file) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeInt(this.num);
+    if (this.prevHash == null) {
+      out.writeInt(NO_HASH);
+    } else {
+      byte[] hash = this.prevHash.getBytes();
+      out.writeInt(hash.length);
+      out.write(hash);
+    } // if else
+    out.writeInt(this.target);
+    out.writeLong(this.minedAt);
+    out.writeInt(this.transactions.size());
+    for (Transaction transaction : this.transactions) {
+      MiningState.writeString(out, transaction.getSource());
+      MiningState.writeString(out, transaction.getTarget());
+      out.writeInt(transaction.getAmount());
+    } // for
+    out.writeInt(this.workers);
+    for (int i = 0; i < this.workers; i++) {
+      out.writeLong(this.next.get(i));
+      out.writeByte(this.finished.get(i));
+    } // for
+    boolean done = this.solved;
+    out.writeByte(done ? 1 : 0);
+    if (done) {
+      out.writeLong(this.solution);
+    } // if
+    CheckedFiles.writeAtomically(file, bytes.toByteArray());
+  } // save(Path)
+
+  /**
+   * Load a saved state.
+   *
+   * @param file Where it was saved.
+   * @return the state.
+   * @throws IOException if the file cannot be read or is damaged.
+   */
+  public static MiningState load(Path file) throws IOException {
+    MiningState state = MiningState.decode(Files.readAllBytes(file));
+    if (state == null) {
+      throw new IOException("Damaged mining state: " + file);
+    } // if
+    return state;
+  } // load(Path)
+} // class MiningState
@@ -0,0 +1,161 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Mines blocks using a pool of worker threads. The nonce space is split so that worker i of n tries
+ * nonces i, i + n, i + 2n, and so on, so no two workers try the same nonce and none is tried twice.
+ * As soon as one worker finds a valid nonce, every other worker stops.
+ *
+ * @author Harrison Zhu
+ */
+public class ParallelMiner {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The number of workers. */
+  private final int workers;
+
+  /** The threads that do the mining. */
+  private final ExecutorService pool;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a new miner with the given number of worker threads.
+   *
+   * @param numWorkers The number of worker threads.
+   * @throws IllegalArgumentException if numWorkers is less than 1.
+   */
+  public ParallelMiner(int numWorkers) {
+    if (numWorkers < 1) {
+      throw new IllegalArgumentException("Need at least one worker: " + numWorkers);
+    } // if
+    this.workers = numWorkers;
+    this.pool =
+        Executors.newFixedThreadPool(
+            numWorkers,
+            (r) -> {
+              Thread thread = new Thread(r, "miner");
+              thread.setDaemon(true);
+              return thread;
+            });
+  } // ParallelMiner(int)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the number of worker threads.
+   *
+   * @return the number of workers.
+   */
+  public int getWorkers() {
+    return this.workers;
+  } // getWorkers()
+
+  /**
+   * Mine a block with the given contents. The validator is shared by every worker, so it must be
+   * safe to call from several threads at once.
+   *
+   * @param num The number of the block.
+   * @param theTransaction The transaction for the block.
+   * @param prevHash The hash of the previous block.
+   * @param check The validator the hash of the block must satisfy.
+   * @return a block whose hash is valid.
+   */
+  public Block mine(int num, Transaction theTransaction, Hash prevHash, HashValidator check) {
+    return this.mine(num, Collections.singletonList(theTransaction), prevHash, check);
+  } // mine(int, Transaction, Hash, HashValidator)
+
+  /**
+   * Mine a block with several transactions. The validator is shared by every worker, so it must be
+   * safe to call from several threads at once.
+   *
+   * @param num The number of the block.
+   * @param theTransactions The transactions for the block, in order.
+   * @param prevHash The hash of the previous block.
+   * @param check The validator the hash of the block must satisfy.
+   * @return a block whose hash is valid.
+   * @throws IllegalArgumentException if there are no transactions.
+   */
+  public Block mine(
+      int num, List<Transaction> theTransactions, Hash prevHash, HashValidator check) {
+    Block blk = new Block(num, theTransactions, prevHash, 0, System.currentTimeMillis());
+    this.mine(blk, check);
+    return blk;
+  } // mine(int, List<Transaction>, Hash, HashValidator)
+
+  /**
+   * Mine a block that has been stamped with its target and mining time, setting its nonce and hash.
+   * The validator is shared by every worker, so it must be safe to call from several threads at
+   * once.
+   *
+   * @param blk The block, which has yet to be mined.
+   * @param check The validator the hash of the block must satisfy.
+   */
+  void mine(Block blk, HashValidator check) {
+    AtomicBoolean found = new AtomicBoolean(false);
+    List<Callable<Long>> tasks = new ArrayList<Callable<Long>>(this.workers);
+    for (int i = 0; i < this.workers; i++) {
+      long first = i;
+      tasks.add(() -> search(blk, check, first, found));
+    } // for
+
+    long nonce;
+    try {
+      nonce = this.pool.invokeAny(tasks);
+    } catch (InterruptedException e) {
+      found.set(true);
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while mining", e);
+    } catch (ExecutionException e) {
+      found.set(true);
+      throw new IllegalStateException("Mining failed", e.getCause());
+    } // try catch
+    blk.solve(nonce);
+  } // mine(Block, HashValidator)
+
+  /** Stop the worker threads. The miner may not be used afterwards. */
+  public void shutdown() {
+    this.pool.shutdownNow();
+  } // shutdown()
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Search one worker's share of the nonce space.
+   *
+   * @param blk The block.
+   * @param check The validator the hash of the block must satisfy.
+   * @param first The first nonce this worker tries.
+   * @param found Set once any worker has found a valid nonce.
+   * @return the valid nonce.
+   * @throws IllegalStateException if another worker found a nonce first.
+   */
+  private long search(Block blk, HashValidator check, long first, AtomicBoolean found) {
+    BlockHasher hasher = new BlockHasher(true);
+    hasher.reset(blk);
+    hasher.setValidator(check);
+    for (long nonce = first; !found.get(); nonce += this.workers) {
+      if (hasher.tryNonce(nonce)) {
+        found.set(true);
+        return nonce;
+      } // if
+    } // for
+    throw new IllegalStateException("Another worker found the nonce");
+  } // search(Block, HashValidator, long, AtomicBoolean)
+} // class ParallelMiner
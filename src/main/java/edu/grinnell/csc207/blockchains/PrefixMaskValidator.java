@@ -0,0 +1,122 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.util.Arrays;
+
+/**
+ * Validates hashes whose leading bytes match a pattern in the bits selected by a mask. For example,
+ * a mask of {0xFF, 0xF0} and a pattern of {0x00, 0x00} requires twelve leading zero bits; a pattern
+ * of {0x02, 0x20} requires the hash to start with 0x022.
+ *
+ * @author Harrison Zhu
+ */
+public class PrefixMaskValidator implements DigestValidator {
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The mask, padded with zero bytes to a whole number of longs. */
+  private final long[] mask;
+
+  /** The pattern, masked and padded to a whole number of longs. */
+  private final long[] pattern;
+
+  /** The mask. */
+  private final byte[] maskBytes;
+
+  /** The pattern, masked. */
+  private final byte[] patternBytes;
+
+  /** The number of bytes in the mask. */
+  private final int length;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a validator.
+   *
+   * @param theMask Which bits of the leading bytes to check.
+   * @param thePattern The values those bits must have.
+   * @throws IllegalArgumentException if the mask and the pattern differ in length.
+   */
+  public PrefixMaskValidator(byte[] theMask, byte[] thePattern) {
+    if (theMask.length != thePattern.length) {
+      throw new IllegalArgumentException(
+          "Mask and pattern differ in length: " + theMask.length + ", " + thePattern.length);
+    } // if
+    this.length = theMask.length;
+    int words = (this.length + Long.BYTES - 1) / Long.BYTES;
+    byte[] paddedMask = new byte[words * Long.BYTES];
+    byte[] paddedPattern = new byte[words * Long.BYTES];
+    for (int i = 0; i < this.length; i++) {
+      paddedMask[i] = theMask[i];
+      paddedPattern[i] = (byte) (thePattern[i] & theMask[i]);
+    } // for
+    this.maskBytes = Arrays.copyOf(paddedMask, this.length);
+    this.patternBytes = Arrays.copyOf(paddedPattern, this.length);
+    this.mask = new long[words];
+    this.pattern = new long[words];
+    for (int k = 0; k < words; k++) {
+      this.mask[k] = Hash.readLong(paddedMask, k * Long.BYTES);
+      this.pattern[k] = Hash.readLong(paddedPattern, k * Long.BYTES);
+    } // for
+  } // PrefixMaskValidator(byte[], byte[])
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Determine if a hash matches the pattern.
+   *
+   * @param hash The hash we're checking.
+   * @return true if the hash is valid and false otherwise.
+   */
+  public boolean isValid(Hash hash) {
+    if (hash.length() == Hash.WORD_BYTES && this.length <= Hash.WORD_BYTES) {
+      for (int k = 0; k < this.mask.length; k++) {
+        if ((hash.word(k) & this.mask[k]) != this.pattern[k]) {
+          return false;
+        } // if
+      } // for
+      return true;
+    } // if
+    if (hash.length() < this.length) {
+      return false;
+    } // if
+    for (int i = 0; i < this.length; i++) {
+      if ((hash.get(i) & this.maskBytes[i]) != this.patternBytes[i]) {
+        return false;
+      } // if
+    } // for
+    return true;
+  } // isValid(Hash)
+
+  /**
+   * Determine if a digest matches the pattern.
+   *
+   * @param digest The bytes of the digest.
+   * @return true if the digest is valid and false otherwise.
+   */
+  public boolean isValid(byte[] digest) {
+    if (digest.length < this.mask.length * Long.BYTES) {
+      return this.isValid(Hash.wrap(digest));
+    } // if
+    for (int k = 0; k < this.mask.length; k++) {
+      if ((Hash.readLong(digest, k * Long.BYTES) & this.mask[k]) != this.pattern[k]) {
+        return false;
+      } // if
+    } // for
+    return true;
+  } // isValid(byte[])
+
+  /**
+   * Get the largest value the first eight bytes of a valid digest can have.
+   *
+   * @return the limit on the first eight bytes.
+   */
+  public long leadingLimit() {
+    return (this.mask.length == 0) ? -1L : this.pattern[0] | ~this.mask[0];
+  } // leadingLimit()
+} // class PrefixMaskValidator
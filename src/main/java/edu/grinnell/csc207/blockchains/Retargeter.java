@@ -0,0 +1,140 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.math.BigInteger;
+import java.util.List;
+
+/**
+ * Adjusts the difficulty of a blockchain to keep blocks coming at a steady rate. Every interval
+ * blocks, the target is scaled by how long those blocks actually took to mine compared to how long
+ * they should have taken, so slow blocks make the next ones easier and fast blocks make them
+ * harder. Each adjustment is limited to a factor of four either way.
+ *
+ * <p>Targets are given in Bitcoin's compact form (see TargetValidator). The target in force for a
+ * block depends only on the mining times of the blocks before it, so a chain can be checked by
+ * recomputing its targets.
+ *
+ * <p>Each block is stamped with its target and the time its mining started before it is mined, and
+ * its hash covers both, so rewriting the mining times (and with them the targets after) means
+ * mining the blocks again. Mining times must increase from block to block, so no interval can claim
+ * to have taken no time at all.
+ *
+ * @author Harrison Zhu
+ */
+public class Retargeter {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The largest factor by which one adjustment can change the target. */
+  private static final int MAX_ADJUSTMENT = 4;
+
+  /** The largest target. */
+  private static final BigInteger MAX_TARGET =
+      BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE);
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The target of the first blocks, in compact form. */
+  private final int initialTarget;
+
+  /** The number of blocks between adjustments. */
+  private final int interval;
+
+  /** The desired time between blocks, in milliseconds. */
+  private final long blockMillis;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a retargeter.
+   *
+   * @param initial The target of the first blocks, in compact form.
+   * @param blocksPerAdjustment The number of blocks between adjustments; at least 2.
+   * @param millisPerBlock The desired time between blocks, in milliseconds; positive.
+   * @throws IllegalArgumentException if a parameter is out of range.
+   */
+  public Retargeter(int initial, int blocksPerAdjustment, long millisPerBlock) {
+    if (blocksPerAdjustment < 2 || millisPerBlock <= 0) {
+      throw new IllegalArgumentException(
+          "Invalid retargeting: " + blocksPerAdjustment + " blocks of " + millisPerBlock + "ms");
+    } // if
+    TargetValidator.fromCompact(initial); // Make sure the initial target is legal.
+    this.initialTarget = initial;
+    this.interval = blocksPerAdjustment;
+    this.blockMillis = millisPerBlock;
+  } // Retargeter(int, int, long)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the target of the first blocks.
+   *
+   * @return the initial target, in compact form.
+   */
+  public int getInitialTarget() {
+    return this.initialTarget;
+  } // getInitialTarget()
+
+  /**
+   * Get the number of blocks between adjustments.
+   *
+   * @return the number of blocks.
+   */
+  public int getInterval() {
+    return this.interval;
+  } // getInterval()
+
+  /**
+   * Get the desired time between blocks.
+   *
+   * @return the time, in milliseconds.
+   */
+  public long getBlockMillis() {
+    return this.blockMillis;
+  } // getBlockMillis()
+
+  /**
+   * Adjust a target given how long the last interval took.
+   *
+   * @param target The current target, in compact form.
+   * @param elapsedMillis The time between mining the first and last blocks of the interval.
+   * @return the new target, in compact form.
+   */
+  public int retarget(int target, long elapsedMillis) {
+    long expected = (this.interval - 1) * this.blockMillis;
+    long actual =
+        Math.max(expected / MAX_ADJUSTMENT, Math.min(expected * MAX_ADJUSTMENT, elapsedMillis));
+    BigInteger scaled =
+        TargetValidator.fromCompact(target)
+            .getTarget()
+            .multiply(BigInteger.valueOf(actual))
+            .divide(BigInteger.valueOf(expected));
+    return TargetValidator.fromNumber(scaled.min(MAX_TARGET).max(BigInteger.ONE)).toCompact();
+  } // retarget(int, long)
+
+  /**
+   * Find the target in force for a block, given the blocks before it.
+   *
+   * @param blocks The blocks of the chain; only those before index are used.
+   * @param index The number of the block.
+   * @return the target for that block, in compact form.
+   */
+  public int targetFor(List<Block> blocks, int index) {
+    if (index == 0) {
+      return this.initialTarget;
+    } // if
+    int previous = blocks.get(index - 1).getTarget();
+    if (index % this.interval != 0) {
+      return previous;
+    } // if
+    long elapsed =
+        blocks.get(index - 1).getMinedAt() - blocks.get(index - this.interval).getMinedAt();
+    return this.retarget(previous, elapsed);
+  } // targetFor(List<Block>, int)
+} // class Retargeter
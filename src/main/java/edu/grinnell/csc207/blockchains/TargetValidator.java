@@ -0,0 +1,183 @@
+package edu.grinnell.csc207.blockchains;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Validates hashes that, read as unsigned 256-bit big-endian numbers, are at most a target. This is
+ * how Bitcoin expresses difficulty; the target can be written compactly in Bitcoin's "bits" form, a
+ * one-byte exponent and a three-byte mantissa.
+ *
+ * @author Harrison Zhu
+ */
+public class TargetValidator implements DigestValidator {
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The number of bytes in a target. */
+  private static final int TARGET_BYTES = 32;
+
+  /** The number of bytes in the mantissa of a compact target. */
+  private static final int MANTISSA_BYTES = 3;
+
+  /** The sign bit of the mantissa of a compact target. */
+  private static final int SIGN_BIT = 0x00800000;
+
+  /** The bits of the mantissa of a compact target. */
+  private static final int MANTISSA_MASK = 0x007FFFFF;
+
+  /** The number of bits the exponent of a compact target is shifted by. */
+  private static final int EXPONENT_SHIFT = 24;
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The target, as 32 big-endian bytes. */
+  private final byte[] target;
+
+  /** The target, as a hash. */
+  private final Hash targetHash;
+
+  /** The target in compact form, computed once since validators compare it for every block. */
+  private final int compact;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a validator.
+   *
+   * @param theTarget The target, as 32 big-endian bytes.
+   * @throws IllegalArgumentException if theTarget is not 32 bytes long.
+   */
+  public TargetValidator(byte[] theTarget) {
+    if (theTarget.length != TARGET_BYTES) {
+      throw new IllegalArgumentException("Target must have 32 bytes: " + theTarget.length);
+    } // if
+    this.target = theTarget.clone();
+    this.targetHash = new Hash(theTarget);
+    this.compact = TargetValidator.compactOf(new BigInteger(1, this.target));
+  } // TargetValidator(byte[])
+
+  /**
+   * Create a validator from a target in compact form.
+   *
+   * @param compact The target in compact form.
+   * @return the validator.
+   * @throws IllegalArgumentException if the target is negative or does not fit in 256 bits.
+   */
+  public static TargetValidator fromCompact(int compact) {
+    if ((compact & SIGN_BIT) != 0) {
+      throw new IllegalArgumentException(
+          "Negative compact target: " + Integer.toHexString(compact));
+    } // if
+    int exponent = compact >>> EXPONENT_SHIFT;
+    BigInteger mantissa = BigInteger.valueOf(compact & MANTISSA_MASK);
+    int shift = Byte.SIZE * (exponent - MANTISSA_BYTES);
+    return TargetValidator.fromNumber(
+        (shift >= 0) ? mantissa.shiftLeft(shift) : mantissa.shiftRight(-shift));
+  } // fromCompact(int)
+
+  /**
+   * Create a validator from a target given as a number.
+   *
+   * @param number The target.
+   * @return the validator.
+   * @throws IllegalArgumentException if the target is negative or does not fit in 256 bits.
+   */
+  public static TargetValidator fromNumber(BigInteger number) {
+    if (number.signum() < 0 || number.bitLength() > TARGET_BYTES * Byte.SIZE) {
+      throw new IllegalArgumentException("Target out of range: " + number.toString(16));
+    } // if
+    byte[] magnitude = number.toByteArray();
+    byte[] bytes = new byte[TARGET_BYTES];
+    int length = Math.min(magnitude.length, TARGET_BYTES);
+    System.arraycopy(magnitude, magnitude.length - length, bytes, TARGET_BYTES - length, length);
+    return new TargetValidator(bytes);
+  } // fromNumber(BigInteger)
+
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Convert a target to compact form.
+   *
+   * @param number The target.
+   * @return the target in compact form.
+   */
+  private static int compactOf(BigInteger number) {
+    int size = (number.bitLength() + Byte.SIZE - 1) / Byte.SIZE;
+    int shift = Byte.SIZE * (size - MANTISSA_BYTES);
+    int mantissa = ((shift >= 0) ? number.shiftRight(shift) : number.shiftLeft(-shift)).intValue();
+    if ((mantissa & SIGN_BIT) != 0) {
+      mantissa >>>= Byte.SIZE;
+      size++;
+    } // if
+    return (size << EXPONENT_SHIFT) | mantissa;
+  } // compactOf(BigInteger)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Get the target as a number.
+   *
+   * @return the target.
+   */
+  public BigInteger getTarget() {
+    return new BigInteger(1, this.target);
+  } // getTarget()
+
+  /**
+   * Get the target in compact form. The compact form keeps only the top three bytes of the target,
+   * so converting back may give a slightly smaller target.
+   *
+   * @return the target in compact form.
+   */
+  public int toCompact() {
+    return this.compact;
+  } // toCompact()
+
+  /**
+   * Determine if a hash is at most the target.
+   *
+   * @param hash The hash we're checking.
+   * @return true if the hash is valid and false otherwise.
+   */
+  public boolean isValid(Hash hash) {
+    return hash.length() == TARGET_BYTES && hash.compareTo(this.targetHash) <= 0;
+  } // isValid(Hash)
+
+  /**
+   * Determine if a digest is at most the target.
+   *
+   * @param digest The bytes of the digest.
+   * @return true if the digest is valid and false otherwise.
+   */
+  public boolean isValid(byte[] digest) {
+    return Arrays.compareUnsigned(digest, this.target) <= 0;
+  } // isValid(byte[])
+
+  /**
+   * Get the largest value the first eight bytes of a valid digest can have.
+   *
+   * @return the limit on the first eight bytes.
+   */
+  public long leadingLimit() {
+    return Hash.readLong(this.target, 0);
+  } // leadingLimit()
+
+  /**
+   * Get a string representation of the validator.
+   *
+   * @return a string representation of the validator.
+   */
+  public String toString() {
+    return "[Target: " + this.targetHash + "]";
+  } // toString()
+} // class TargetValidator
@@ -0,0 +1,166 @@
+package edu.grinnell.csc207.blockchains;
+
+/**
+ * The result of validating a blockchain: either success, or the index of the first block that
+ * failed and the reason it failed.
+ *
+ * @author Harrison Zhu
+ */
+public class ValidationResult {
+  // +-------+-------------------------------------------------------
+  // | Types |
+  // +-------+
+
+  /** Reasons a block can fail validation. */
+  public enum Reason {
+    /** The transaction overdraws the source or has a negative amount. */
+    INVALID_TRANSACTION("Invalid transaction"),
+
+    /** The hash does not satisfy the validator. */
+    INVALID_HASH("The Hash is not valid"),
+
+    /** The hash does not match the contents of the block. */
+    HASH_MISMATCH("Hash is not appropriate for the contents"),
+
+    /** The previous hash does not match the hash of the previous block. */
+    WRONG_PREVIOUS_HASH("Previous hash is incorrect"),
+
+    /** The difficulty target does not follow the retargeting schedule. */
+    WRONG_TARGET("Difficulty target is incorrect"),
+
+    /** The block of a retargeted chain was not mined after the previous block. */
+    TIME_NOT_INCREASING("Mining time does not increase");
+
+    /** A description of the reason. */
+    private final String description;
+
+    /**
+     * Create a reason.
+     *
+     * @param desc A description of the reason.
+     */
+    Reason(String desc) {
+      this.description = desc;
+    } // Reason(String)
+
+    /**
+     * Get a description of the reason.
+     *
+     * @return the description.
+     */
+    public String getDescription() {
+      return this.description;
+    } // getDescription()
+  } // enum Reason
+
+  // +-----------+---------------------------------------------------
+  // | Constants |
+  // +-----------+
+
+  /** The result for a valid chain. */
+  private static final ValidationResult VALID = new ValidationResult(-1, null, null);
+
+  // +--------+------------------------------------------------------
+  // | Fields |
+  // +--------+
+
+  /** The index of the failing block, or -1 if none failed. */
+  private final int index;
+
+  /** Why the block failed, or null if none failed. */
+  private final Reason reason;
+
+  /** The failing block, or null if none failed. */
+  private final Block block;
+
+  // +--------------+------------------------------------------------
+  // | Constructors |
+  // +--------------+
+
+  /**
+   * Create a result.
+   *
+   * @param failedIndex The index of the failing block.
+   * @param why Why the block failed.
+   * @param blk The failing block.
+   */
+  private ValidationResult(int failedIndex, Reason why, Block blk) {
+    this.index = failedIndex;
+    this.reason = why;
+    this.block = blk;
+  } // ValidationResult(int, Reason, Block)
+
+  /**
+   * Get the result for a valid chain.
+   *
+   * @return a successful result.
+   */
+  public static ValidationResult valid() {
+    return VALID;
+  } // valid()
+
+  /**
+   * Get the result for a chain with a failing block.
+   *
+   * @param failedIndex The index of the failing block.
+   * @param why Why the block failed.
+   * @param blk The failing block.
+   * @return a failed result.
+   */
+  public static ValidationResult failure(int failedIndex, Reason why, Block blk) {
+    return new ValidationResult(failedIndex, why, blk);
+  } // failure(int, Reason, Block)
+
+  // +---------+-----------------------------------------------------
+  // | Methods |
+  // +---------+
+
+  /**
+   * Determine if the chain was valid.
+   *
+   * @return true if every block passed and false otherwise.
+   */
+  public boolean isValid() {
+    return this.reason == null;
+  } // isValid()
+
+  /**
+   * Get the index of the first failing block.
+   *
+   * @return the index of the block, or -1 if the chain is valid.
+   */
+  public int getIndex() {
+    return this.index;
+  } // getIndex()
+
+  /**
+   * Get the reason the first failing block failed.
+   *
+   * @return the reason, or null if the chain is valid.
+   */
+  public Reason getReason() {
+    return this.reason;
+  } // getReason()
+
+  /**
+   * Get the first failing block.
+   *
+   * @return the block, or null if the chain is valid.
+   */
+  public Block getBlock() {
+    return this.block;
+  } // getBlock()
+
+  /**
+   * Get a string representation of the result.
+   *
+   * @return a string representation of the result.
+   */
+  public String toString() {
+    if (this.isValid()) {
+      return "Valid";
+    } // if
+    return String.format(
+        "%s at block %d: %s", this.reason.getDescription(), this.index, this.block);
+  } // toString()
+} // class ValidationResult
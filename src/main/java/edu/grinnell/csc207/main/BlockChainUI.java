@@ -2,13 +2,20 @@ package edu.grinnell.csc207.main;
 
 import edu.grinnell.csc207.blockchains.Block;
 import edu.grinnell.csc207.blockchains.BlockChain;
+import edu.grinnell.csc207.blockchains.BlockLog;
 import edu.grinnell.csc207.blockchains.HashValidator;
+import edu.grinnell.csc207.blockchains.LeadingZeroBitsValidator;
 import edu.grinnell.csc207.blockchains.Transaction;
 import edu.grinnell.csc207.util.IOUtils;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
 
 /**
  * A simple UI for our BlockChain class.
@@ -24,6 +31,12 @@ public class BlockChainUI {
   /** The number of bytes we validate. Should be set to 3 before submitting. */
   static final int VALIDATOR_BYTES = 3;
 
+  /** How long the mine command searches before giving up. */
+  static final Duration MINE_TIMEOUT = Duration.ofMinutes(2);
+
+  /** How often the mine command reports its progress. */
+  static final Duration MINE_PROGRESS = Duration.ofSeconds(5);
+
   // +---------+-----------------------------------------------------
   // | Helpers |
   // +---------+
@@ -56,26 +69,16 @@ public class BlockChainUI {
   /**
    * Run the UI.
    *
-   * @param args Command-line arguments (currently ignored).
+   * @param args Command-line arguments. If given, the first is a file the chain is kept in.
    */
   public static void main(String[] args) throws Exception {
     PrintWriter pen = new PrintWriter(System.out, true);
     BufferedReader eyes = new BufferedReader(new InputStreamReader(System.in));
 
     // Set up our blockchain.
-    HashValidator validator =
-        (h) -> {
-          if (h.length() < VALIDATOR_BYTES) {
-            return false;
-          } // if
-          for (int v = 0; v < VALIDATOR_BYTES; v++) {
-            if (h.get(v) != 0) {
-              return false;
-            } // if
-          } // for
-          return true;
-        };
-    BlockChain chain = new BlockChain(validator);
+    HashValidator validator = new LeadingZeroBitsValidator(Byte.SIZE * VALIDATOR_BYTES);
+    BlockLog log = (args.length > 0) ? new BlockLog(Path.of(args[0])) : null;
+    BlockChain chain = new BlockChain(validator, Runtime.getRuntime().availableProcessors(), log);
 
     instructions(pen);
 
@@ -141,8 +144,23 @@ public class BlockChainUI {
           source = IOUtils.readLine(pen, eyes, "Source (return for deposit): ");
           target = IOUtils.readLine(pen, eyes, "Target: ");
           amount = IOUtils.readInt(pen, eyes, "Amount: ");
-          Block b = chain.mine(new Transaction(source, target, amount));
-          pen.println("Nonce: " + b.getNonce());
+          try {
+            Block b =
+                chain
+                    .mineAsync(
+                        List.of(new Transaction(source, target, amount)),
+                        MINE_TIMEOUT,
+                        MINE_PROGRESS,
+                        (progress) -> pen.println("Mining... " + progress))
+                    .join();
+            pen.println("Nonce: " + b.getNonce());
+          } catch (CompletionException e) {
+            if (e.getCause() instanceof TimeoutException) {
+              pen.printf("No nonce found in %d seconds", MINE_TIMEOUT.toSeconds());
+            } else {
+              pen.println("Mining failed: " + e.getCause());
+            } // if else
+          } // try catch
           break;
 
         case "quit":
@@ -174,6 +192,9 @@ public class BlockChainUI {
       } // switch
     } // while
 
+    if (log != null) {
+      log.close();
+    } // if
     pen.printf("\nGoodbye\n");
     eyes.close();
     pen.close();
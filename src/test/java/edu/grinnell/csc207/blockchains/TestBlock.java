@@ -2,10 +2,13 @@ package edu.grinnell.csc207.blockchains;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.List;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
@@ -62,8 +65,8 @@ public class TestBlock {
    */
   static byte[] expectedHash(Block block) {
     md.update(intToBytes(block.getNum()));
-    md.update(block.getTransaction().getSource().getBytes());
-    md.update(block.getTransaction().getTarget().getBytes());
+    md.update(block.getTransaction().getSource().getBytes(StandardCharsets.UTF_8));
+    md.update(block.getTransaction().getTarget().getBytes(StandardCharsets.UTF_8));
     md.update(intToBytes(block.getTransaction().getAmount()));
     md.update(block.getPrevHash().getBytes());
     md.update(longToBytes(block.getNonce()));
@@ -195,6 +198,184 @@ public class TestBlock {
     assertEquals(ph, b.getPrevHash(), "correct previous hash in initial block");
   } // initialBlockTest()
 
+  /** Ensure that blocks hashed on several threads at once get the correct hashes. */
+  @Test
+  public void concurrentHashTest() throws Exception {
+    Block[] blocks = new Block[64];
+    for (int i = 0; i < blocks.length; i++) {
+      blocks[i] = new Block(i, new Transaction("Src" + i, "Tgt", i), new Hash(new byte[] {1}), i);
+    } // for
+    Hash[][] hashes = new Hash[4][blocks.length];
+    Thread[] threads = new Thread[hashes.length];
+    for (int t = 0; t < threads.length; t++) {
+      Hash[] mine = hashes[t];
+      threads[t] =
+          new Thread(
+              () -> {
+                for (int rep = 0; rep < 100; rep++) {
+                  for (int i = 0; i < blocks.length; i++) {
+                    mine[i] = Block.computeHash(blocks[i]);
+                  } // for
+                } // for
+              });
+      threads[t].start();
+    } // for
+    for (Thread thread : threads) {
+      thread.join();
+    } // for
+    for (Hash[] mine : hashes) {
+      for (int i = 0; i < blocks.length; i++) {
+        assertArrayEquals(expectedHash(blocks[i]), mine[i].getBytes(), "hash of block " + i);
+      } // for
+    } // for
+  } // concurrentHashTest()
+
+  /** Ensure that hashing from the midstate gives the same hashes for short and long names. */
+  @Test
+  public void midstateHashTest() {
+    BlockHasher plain = new BlockHasher(false);
+    BlockHasher midstate = new BlockHasher(true);
+    Hash ph = new Hash(new byte[32]);
+    String name = "";
+    for (int len = 0; len < 150; len++) {
+      Transaction t = new Transaction(name, "Target", len);
+      plain.reset(len, t, ph);
+      midstate.reset(len, t, ph);
+      for (long nonce = -3; nonce < 3; nonce++) {
+        byte[] expected = plain.digest(nonce).clone();
+        assertArrayEquals(expected, midstate.digest(nonce), "midstate hash, length " + len);
+        assertArrayEquals(
+            expected, expectedHash(new Block(len, t, ph, nonce)), "plain hash, length " + len);
+      } // for
+      name = name + (char) ('a' + len % 26);
+    } // for
+  } // midstateHashTest()
+
+  /**
+   * Compute the expected Merkle leaf of a transaction.
+   *
+   * @param t The transaction.
+   * @return the leaf.
+   */
+  static byte[] expectedLeaf(Transaction t) {
+    byte[] source = t.getSource().getBytes(StandardCharsets.UTF_8);
+    byte[] target = t.getTarget().getBytes(StandardCharsets.UTF_8);
+    md.update((byte) 0);
+    md.update(intToBytes(source.length));
+    md.update(source);
+    md.update(intToBytes(target.length));
+    md.update(target);
+    md.update(intToBytes(t.getAmount()));
+    return md.digest();
+  } // expectedLeaf(Transaction)
+
+  /**
+   * Compute the expected Merkle node over two children.
+   *
+   * @param left The left child.
+   * @param right The right child.
+   * @return the node.
+   */
+  static byte[] expectedNode(byte[] left, byte[] right) {
+    md.update((byte) 1);
+    md.update(left);
+    md.update(right);
+    return md.digest();
+  } // expectedNode(byte[], byte[])
+
+  /** Ensure that a block with several transactions is hashed over their Merkle root. */
+  @Test
+  public void merkleBlockTest() {
+    Transaction t1 = new Transaction("", "A", 100);
+    Transaction t2 = new Transaction("A", "B", 30);
+    Transaction t3 = new Transaction("B", "C", 10);
+    Hash ph = new Hash(new byte[] {1, 2, 3});
+    Block b = new Block(4, List.of(t1, t2, t3), ph, 99);
+    assertEquals(3, b.getTransactionCount(), "transactions in block");
+    assertEquals(List.of(t1, t2, t3), b.getTransactions(), "transactions in order");
+    assertEquals(t1, b.getTransaction(), "first transaction");
+
+    byte[] root = expectedNode(expectedNode(expectedLeaf(t1), expectedLeaf(t2)), expectedLeaf(t3));
+    assertArrayEquals(root, MerkleTree.root(List.of(t1, t2, t3)).getBytes(), "Merkle root");
+    md.update(intToBytes(4));
+    md.update((byte) 0xFF);
+    md.update(intToBytes(3));
+    md.update(root);
+    md.update(ph.getBytes());
+    md.update(longToBytes(99));
+    assertArrayEquals(md.digest(), b.getHash().getBytes(), "hash over Merkle root");
+
+    BlockHasher midstate = new BlockHasher(true);
+    midstate.reset(4, List.of(t1, t2, t3), ph);
+    assertArrayEquals(b.getHash().getBytes(), midstate.digest(99), "midstate hash");
+    assertFalse(
+        b.getHash().equals(new Block(4, List.of(t2, t1, t3), ph, 99).getHash()),
+        "order is committed to");
+    assertEquals(
+        new Block(4, t1, ph, 99).getHash(),
+        new Block(4, List.of(t1), ph, 99).getHash(),
+        "one transaction is hashed as before");
+  } // merkleBlockTest()
+
+  /** Ensure that the hash of a block with a target covers the target and the mining time. */
+  @Test
+  public void stampedBlockTest() {
+    Transaction t = new Transaction("Source", "Target", 100);
+    Hash ph = new Hash(new byte[] {1, 2, 3});
+    Block b = new Block(4, List.of(t), ph, 0x1f3fffc0, 1234567890123L);
+    b.solve(99);
+    md.update(intToBytes(4));
+    md.update("Source".getBytes(StandardCharsets.UTF_8));
+    md.update("Target".getBytes(StandardCharsets.UTF_8));
+    md.update(intToBytes(100));
+    md.update(ph.getBytes());
+    md.update(intToBytes(0x1f3fffc0));
+    md.update(longToBytes(1234567890123L));
+    md.update(longToBytes(99));
+    assertArrayEquals(md.digest(), b.getHash().getBytes(), "hash over target and time");
+
+    BlockHasher midstate = new BlockHasher(true);
+    midstate.reset(b);
+    assertArrayEquals(b.getHash().getBytes(), midstate.digest(99), "midstate hash");
+    Block later = new Block(4, List.of(t), ph, 0x1f3fffc0, 1234567890124L);
+    later.solve(99);
+    assertFalse(b.getHash().equals(later.getHash()), "time is committed to");
+    Block easier = new Block(4, List.of(t), ph, 0x2000ffff, 1234567890123L);
+    easier.solve(99);
+    assertFalse(b.getHash().equals(easier.getHash()), "target is committed to");
+    Block untargeted = new Block(4, List.of(t), ph, 0, 1234567890123L);
+    untargeted.solve(99);
+    assertArrayEquals(expectedHash(untargeted), untargeted.getHash().getBytes(), "no target");
+  } // stampedBlockTest()
+
+  /** Ensure that sources and targets are hashed as UTF-8, whatever the default charset. */
+  @Test
+  public void utf8BlockTest() {
+    Transaction t = new Transaction("Zo\u00eb", "\u0141ukasz", 5);
+    Block b = new Block(2, t, new Hash(new byte[] {9, 9}), 7);
+    assertArrayEquals(expectedHash(b), b.getHash().getBytes(), "hash of non-ASCII names");
+
+    Transaction t2 = new Transaction("\u0141ukasz", "\u5f20\u4f1f", 2);
+    assertArrayEquals(
+        expectedNode(expectedLeaf(t), expectedLeaf(t2)),
+        MerkleTree.root(List.of(t, t2)).getBytes(),
+        "Merkle root over non-ASCII names");
+  } // utf8BlockTest()
+
+  /** Test that mining tries nonces in order, so it finds the smallest valid one. */
+  @Test
+  public void sequentialNonceTest() {
+    Transaction t = new Transaction("Source", "Target", 100);
+    Hash ph = new Hash(new byte[] {1, 2, 3});
+    HashValidator v = (h) -> h.get(0) == 0;
+    Block b = new Block(4, t, ph, v);
+
+    assertEquals(b.getNonce(), new Block(4, t, ph, v).getNonce(), "same contents, same nonce");
+    for (long nonce = 0; nonce < b.getNonce(); nonce++) {
+      assertFalse(v.isValid(new Block(4, t, ph, nonce).getHash()), "no smaller valid nonce");
+    } // for
+  } // sequentialNonceTest()
+
   /** Test that the toString method works. Forthcoming. */
   @Test
   public void toStringTest() {} // toStringTest()
@@ -3,13 +3,31 @@ package edu.grinnell.csc207.blockchains;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 /**
  * Some simple tests of our BlockChain class.
@@ -121,6 +139,22 @@ public class TestBlockChain {
     assertEquals(chain.getHash(), block.getPrevHash(), "Check prevHash of newly mined block");
   } // testMine()
 
+  /** Make sure that we can mine with several workers. */
+  @Test
+  public void testParallelMine() throws Exception {
+    HashValidator v = (hash) -> (hash.length() >= 2) && (hash.get(0) == 4) && (hash.get(1) == 2);
+    BlockChain chain = new BlockChain(v, 4);
+    assertEquals(4, chain.getMiningWorkers(), "number of workers");
+    assertTrue(v.isValid(chain.getHash()), "initial block mined in parallel is valid");
+    Block block = chain.mine(new Transaction("", "A", 10));
+    assertTrue(v.isValid(block.getHash()), "Check hash of block mined in parallel");
+    assertEquals(block.getHash(), Block.computeHash(block), "hash matches contents");
+    chain.append(block);
+    chain.append(chain.mine(new Transaction("A", "B", 5)));
+    assertEquals(3, chain.getSize(), "after appending two blocks mined in parallel");
+    chain.check();
+  } // testParallelMine()
+
   /** Make sure that we can append a few blocks. */
   @Test
   public void testAppend() {
@@ -161,6 +195,100 @@ public class TestBlockChain {
     assertFalse(blocks.hasNext(), "hasNext at end");
   } // testIterateBlocks()
 
+  /** Make sure that we can find blocks by number across many blocks. */
+  @Test
+  public void testGetBlock() {
+    BlockChain chain = new BlockChain((hash) -> true);
+    Block[] expected = new Block[2500];
+    expected[0] = chain.getBlock(0);
+    for (int i = 1; i < expected.length; i++) {
+      expected[i] = chain.mine(new Transaction("", "A", i));
+      chain.append(expected[i]);
+    } // for
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(expected[i], chain.getBlock(i), "block " + i);
+      assertEquals(i, chain.getBlock(i).getNum(), "number of block " + i);
+    } // for
+    for (int i = expected.length - 1; i > 1024; i--) {
+      assertTrue(chain.removeLast(), "removing block " + i);
+    } // for
+    assertEquals(1025, chain.getSize(), "size after removing");
+    assertEquals(expected[1024], chain.getBlock(1024), "last block after removing");
+    assertEquals(expected[1024].getHash(), chain.getHash(), "hash after removing");
+    assertThrows(IndexOutOfBoundsException.class, () -> chain.getBlock(1025));
+  } // testGetBlock()
+
+  /** Make sure that we can find blocks by hash as they come and go. */
+  @Test
+  public void testFindByHash() {
+    BlockChain chain = new BlockChain((hash) -> true);
+    Block[] expected = new Block[500];
+    expected[0] = chain.getBlock(0);
+    for (int i = 1; i < expected.length; i++) {
+      expected[i] = chain.mine(new Transaction("", "A", i));
+      chain.append(expected[i]);
+    } // for
+    for (int i = 0; i < expected.length; i++) {
+      assertEquals(i, chain.findByHash(new Hash(expected[i].getHash().getBytes())), "block " + i);
+    } // for
+    assertEquals(-1, chain.findByHash(new Hash(new byte[32])), "missing hash");
+    for (int i = expected.length - 1; i >= 250; i--) {
+      chain.removeLast();
+      assertEquals(-1, chain.findByHash(expected[i].getHash()), "removed block " + i);
+    } // for
+    for (int i = 0; i < 250; i++) {
+      assertEquals(i, chain.findByHash(expected[i].getHash()), "remaining block " + i);
+    } // for
+  } // testFindByHash()
+
+  /** Make sure that lookups by hash agree with snapshots and wait for no lock. */
+  @Test
+  public void testFindByHashInSnapshots() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    for (int i = 1; i < 300; i++) {
+      chain.append(chain.mine(new Transaction("", "A", i)));
+    } // for
+    ChainSnapshot before = chain.snapshot();
+    Hash old = chain.getBlock(200).getHash();
+
+    chain.rollback(100);
+    chain.append(chain.mine(new Transaction("", "B", 1)));
+    Hash replacement = chain.getHash();
+    ChainSnapshot after = chain.snapshot();
+    assertEquals(200, before.findByHash(old), "old snapshot keeps its block");
+    assertEquals(-1, after.findByHash(old), "removed block not in later snapshot");
+    assertEquals(-1, chain.findByHash(old), "removed block not in chain");
+    assertEquals(-1, before.findByHash(replacement), "new block not in old snapshot");
+    assertEquals(100, after.findByHash(replacement), "new block in later snapshot");
+    assertEquals(50, after.findByHash(before.getBlock(50).getHash()), "kept block");
+
+    CountDownLatch locked = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(1);
+    Thread holder =
+        new Thread(
+            () -> {
+              synchronized (chain) {
+                locked.countDown();
+                try {
+                  done.await();
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                } // try catch
+              } // synchronized
+            });
+    holder.start();
+    locked.await();
+    try {
+      CompletableFuture<Integer> found = CompletableFuture.supplyAsync(() -> chain.findByHash(old));
+      assertEquals(-1, found.get(10, TimeUnit.SECONDS), "lookup while the chain is locked");
+      found = CompletableFuture.supplyAsync(() -> chain.findByHash(replacement));
+      assertEquals(100, found.get(10, TimeUnit.SECONDS), "lookup while the chain is locked");
+    } finally {
+      done.countDown();
+      holder.join();
+    } // try finally
+  } // testFindByHashInSnapshots()
+
   /** Make sure that we can iterate the blocks after appending them. */
   @Test
   public void testRemoveBlocks() {
@@ -263,6 +391,7 @@ public class TestBlockChain {
     assertEquals(80, chain.balance("A"), "A's eighth balance");
     assertEquals(50, chain.balance("B"), "B's eighth balance");
     assertEquals(20, chain.balance("C"), "C's eighth balance");
+    assertTrue(chain.verifyBalances(), "balances match a replay of the chain");
   } // testBalances()
 
   /** Test the list of users. */
@@ -408,6 +537,603 @@ public class TestBlockChain {
     chain.check();
   } // testInvalidTransactions()
 
+  /** Test that validation reports the first failing block. */
+  @Test
+  public void testValidateReportsFailure() throws Exception {
+    HashValidator v = (hash) -> (hash.length() >= 1) && (hash.get(0) == 12);
+    BlockChain chain = new BlockChain(v);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    assertTrue(chain.validate().isValid(), "valid chain");
+    assertEquals(-1, chain.validate().getIndex(), "no failing block in valid chain");
+
+    chain.append(chain.mine(new Transaction("A", "B", 500)));
+    chain.append(chain.mine(new Transaction("", "C", 5)));
+    ValidationResult result = chain.validate();
+    assertFalse(result.isValid(), "overdraft");
+    assertEquals(2, result.getIndex(), "index of overdraft");
+    assertEquals(ValidationResult.Reason.INVALID_TRANSACTION, result.getReason(), "overdraft");
+
+    chain.removeLast();
+    chain.removeLast();
+    chain.blocks().next().transaction = new Transaction("", "", 1);
+    result = chain.validate();
+    assertEquals(0, result.getIndex(), "index of modified initial block");
+    assertEquals(ValidationResult.Reason.HASH_MISMATCH, result.getReason(), "modified block");
+  } // testValidateReportsFailure()
+
+  /** Test that parallel validation reports the same results as sequential validation. */
+  @Test
+  public void testValidateParallel() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    for (int i = 0; i < 3000; i++) {
+      chain.append(chain.mine(new Transaction((i == 0) ? "" : "A", "A", 1)));
+    } // for
+    assertTrue(chain.validateParallel().isValid(), "valid chain");
+
+    chain.append(chain.mine(new Transaction("B", "A", 1)));
+    chain.append(chain.mine(new Transaction("A", "B", 1)));
+    ValidationResult result = chain.validateParallel();
+    assertEquals(3001, result.getIndex(), "index of overdraft");
+    assertEquals(ValidationResult.Reason.INVALID_TRANSACTION, result.getReason(), "overdraft");
+
+    Iterator<Block> blocks = chain.blocks();
+    for (int i = 0; i < 2000; i++) {
+      blocks.next();
+    } // for
+    blocks.next().nonce++;
+    result = chain.validateParallel();
+    assertEquals(chain.validate().getIndex(), result.getIndex(), "same index as sequential");
+    assertEquals(2000, result.getIndex(), "index of modified block");
+    assertEquals(ValidationResult.Reason.HASH_MISMATCH, result.getReason(), "modified nonce");
+  } // testValidateParallel()
+
+  /** Test that the difficulty is retargeted when blocks come too quickly. */
+  @Test
+  public void testRetarget() throws Exception {
+    Retargeter schedule = new Retargeter(0x2000ffff, 4, 3_600_000);
+    BlockChain chain = new BlockChain(schedule, 1);
+    assertEquals(0x2000ffff, chain.getTarget(), "initial target");
+    for (int i = 1; i < 9; i++) {
+      chain.append(chain.mine(new Transaction("", "A", 1)));
+    } // for
+    assertEquals(0x2000ffff, chain.getBlock(3).getTarget(), "target before adjustment");
+    assertEquals(0x1f3fffc0, chain.getBlock(4).getTarget(), "fast blocks quarter the target");
+    assertEquals(0x1f0ffff0, chain.getBlock(8).getTarget(), "second adjustment");
+    chain.check();
+    assertTrue(chain.validateParallel().isValid(), "valid in parallel");
+
+    chain.getBlock(2).setTarget(0x2000fffe);
+    ValidationResult result = chain.validate();
+    assertEquals(2, result.getIndex(), "index of modified target");
+    assertEquals(ValidationResult.Reason.WRONG_TARGET, result.getReason(), "modified target");
+    assertEquals(result.getIndex(), chain.validateParallel().getIndex(), "same as sequential");
+  } // testRetarget()
+
+  /** Test rolling back, both by reversing transactions and from a checkpoint. */
+  @Test
+  public void testRollback() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.setCheckpointInterval(10);
+    long[] balances = new long[36];
+    for (int i = 1; i < 36; i++) {
+      chain.append(chain.mine(new Transaction("", "A", i)));
+      balances[i] = chain.balance("A");
+    } // for
+    assertEquals(30, chain.getCheckpoint().getBlockCount(), "latest checkpoint");
+
+    chain.rollback(33);
+    assertEquals(balances[32], chain.balance("A"), "rolled back by reversing");
+    chain.rollback(12);
+    assertEquals(12, chain.getSize(), "size after rollback");
+    assertEquals(10, chain.getCheckpoint().getBlockCount(), "later checkpoints dropped");
+    assertEquals(balances[11], chain.balance("A"), "rolled back from checkpoint");
+    assertTrue(chain.verifyBalances(), "balances match replay");
+    assertThrows(IllegalArgumentException.class, () -> chain.rollback(13), "cannot grow");
+    assertThrows(IllegalArgumentException.class, () -> chain.rollback(0), "must keep genesis");
+  } // testRollback()
+
+  /** Test that snapshots keep their blocks and balances while the chain rolls back and regrows. */
+  @Test
+  public void testSnapshotsAcrossRollbacks() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    for (int i = 1; i < 1500; i++) {
+      chain.append(chain.mine(new Transaction("", "A", 1)));
+    } // for
+    ChainSnapshot first = chain.snapshot();
+    Block firstLast = first.getBlock(1499);
+
+    chain.rollback(1000);
+    for (int i = 1000; i < 1500; i++) {
+      chain.append(chain.mine(new Transaction("", "B", 1)));
+    } // for
+    ChainSnapshot second = chain.snapshot();
+    Block secondLast = second.getBlock(1499);
+
+    chain.rollback(1200);
+    for (int i = 1200; i < 1500; i++) {
+      chain.append(chain.mine(new Transaction("", "C", 1)));
+    } // for
+
+    assertEquals(1500, first.getSize(), "first snapshot's size");
+    assertEquals(1500, second.getSize(), "second snapshot's size");
+    assertSame(firstLast, first.getBlock(1499), "first snapshot keeps its last block");
+    assertSame(secondLast, second.getBlock(1499), "second snapshot keeps its last block");
+    assertEquals("A", first.getBlock(1100).getTransaction().getTarget(), "first, rewritten");
+    assertEquals("B", second.getBlock(1100).getTransaction().getTarget(), "second, rewritten");
+    assertEquals("B", second.getBlock(1300).getTransaction().getTarget(), "second, rewritten");
+    assertEquals("C", chain.getBlock(1300).getTransaction().getTarget(), "chain, rewritten");
+    assertEquals(1499, first.balance("A"), "first snapshot's balance");
+    assertEquals(500, second.balance("B"), "second snapshot's balance");
+    assertEquals(300, chain.balance("C"), "chain's balance");
+  } // testSnapshotsAcrossRollbacks()
+
+  /** Test that a snapshot of a reopened log keeps blocks whose records are later rewritten. */
+  @Test
+  public void testLoggedSnapshotAcrossRewrites(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.log");
+    BlockLog log = new BlockLog(file);
+    TestBlockLog.buildChain(log, 10);
+    log.close();
+
+    log = new BlockLog(file);
+    BlockChain chain = new BlockChain((hash) -> true, 1, log);
+    ChainSnapshot first = chain.snapshot();
+    Hash eighth = first.getHash();
+    chain.removeLast();
+    chain.append(chain.mine(new Transaction("", "X", 5)));
+    chain.removeLast();
+    chain.removeLast();
+    chain.append(chain.mine(new Transaction("", "Y", 7)));
+
+    assertEquals(10, first.getSize(), "snapshot size");
+    assertEquals(eighth, first.getBlock(9).getHash(), "last block of the snapshot");
+    assertEquals("B", first.getBlock(8).getTransaction().getTarget(), "rewritten block");
+    assertEquals(0, first.balance("Y"), "Y's balance in the snapshot");
+    assertEquals(7, chain.balance("Y"), "Y's balance in the chain");
+    log.close();
+
+    // Blocks in chunks that no one had read when the store copied its table.
+    file = dir.resolve("longer.log");
+    log = new BlockLog(file);
+    TestBlockLog.buildChain(log, 3000);
+    log.close();
+    log = new BlockLog(file);
+    chain = new BlockChain((hash) -> true, 1, log);
+    first = chain.snapshot();
+    chain.removeLast();
+    chain.append(chain.mine(new Transaction("", "X", 5)));
+    chain.rollback(1500);
+    chain.append(chain.mine(new Transaction("", "Y", 7)));
+    assertEquals("B", first.getBlock(1500).getTransaction().getTarget(), "rewritten block");
+    assertEquals("A", first.getBlock(1601).getTransaction().getTarget(), "removed block");
+    assertEquals(0, first.balance("Y"), "Y's balance in the snapshot");
+    log.close();
+  } // testLoggedSnapshotAcrossRewrites(Path)
+
+  /**
+   * Build blocks that pay one coin from A to B, to follow a chain.
+   *
+   * @param chain The chain.
+   * @param count The number of blocks.
+   * @return the blocks.
+   */
+  static ArrayList<Block> payments(BlockChain chain, int count) {
+    ArrayList<Block> batch = new ArrayList<Block>();
+    Hash prev = chain.getHash();
+    for (int i = 0; i < count; i++) {
+      Block blk = new Block(chain.getSize() + i, new Transaction("A", "B", 1), prev, (long) i);
+      batch.add(blk);
+      prev = blk.getHash();
+    } // for
+    return batch;
+  } // payments(BlockChain, int)
+
+  /** Test appending batches of blocks, all or none. */
+  @Test
+  public void testAppendAll() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.append(chain.mine(new Transaction("", "A", 3000)));
+    chain.appendAll(payments(chain, 2000));
+    assertEquals(2002, chain.getSize(), "size after batch");
+    assertEquals(2000, chain.balance("B"), "B's balance after batch");
+    chain.check();
+
+    ArrayList<Block> overdraft = payments(chain, 1001);
+    BatchRejectedException e =
+        assertThrows(BatchRejectedException.class, () -> chain.appendAll(overdraft));
+    assertEquals(1000, e.getIndex(), "index of overdraft");
+    assertEquals(ValidationResult.Reason.INVALID_TRANSACTION, e.getResult().getReason(), "why");
+    assertEquals(2002, chain.getSize(), "chain unchanged");
+    assertEquals(1000, chain.balance("A"), "balances unchanged");
+
+    ArrayList<Block> tampered = payments(chain, 900);
+    tampered.get(700).nonce++;
+    e = assertThrows(BatchRejectedException.class, () -> chain.appendAll(tampered.iterator()));
+    assertEquals(700, e.getIndex(), "index of tampered block");
+    assertEquals(ValidationResult.Reason.HASH_MISMATCH, e.getResult().getReason(), "why");
+    assertEquals(2002, chain.getSize(), "chain unchanged");
+
+    chain.appendAll(payments(chain, 1000).iterator());
+    assertEquals(0, chain.balance("A"), "A's balance after second batch");
+    assertTrue(chain.verifyBalances(), "balances match replay");
+  } // testAppendAll()
+
+  /**
+   * Test that a batch on a retargeted chain is checked against the targets its blocks were mined
+   * with, and that a rejected batch leaves every block's target as it was.
+   */
+  @Test
+  public void testAppendAllRetargetedRejected() throws Exception {
+    BlockChain chain = new BlockChain(new Retargeter(0x2000ffff, 16, 1), 1);
+    List<Block> batch = new ArrayList<Block>();
+    for (int i = 0; i < 6; i++) {
+      Transaction t = (i == 2) ? new Transaction("A", "B", 100) : new Transaction("", "A", 1);
+      batch.add(chain.mineAfter(chain.snapshot(), batch, List.of(t)));
+    } // for
+    int[] before = new int[batch.size()];
+    for (int i = 0; i < batch.size(); i++) {
+      before[i] = batch.get(i).getTarget();
+      assertTrue(before[i] != 0, "block " + i + " stamped when mined");
+    } // for
+    batch.get(1).setTarget(0);
+    BatchRejectedException e =
+        assertThrows(BatchRejectedException.class, () -> chain.appendAll(batch));
+    assertEquals(1, e.getIndex(), "index of unstamped block");
+    assertEquals(ValidationResult.Reason.WRONG_TARGET, e.getResult().getReason(), "why");
+    assertEquals(0, batch.get(1).getTarget(), "unstamped block left alone");
+
+    batch.get(1).setTarget(before[1]);
+    e = assertThrows(BatchRejectedException.class, () -> chain.appendAll(batch));
+    assertEquals(2, e.getIndex(), "index of overdraft");
+    for (int i = 0; i < batch.size(); i++) {
+      assertEquals(before[i], batch.get(i).getTarget(), "target of block " + i + " unchanged");
+    } // for
+    assertEquals(1, chain.getSize(), "chain unchanged");
+  } // testAppendAllRetargetedRejected()
+
+  /**
+   * Test that the hashes of a retargeted chain cover its targets and mining times, and that mining
+   * times must increase.
+   */
+  @Test
+  public void testRetargetedStampsHashed() throws Exception {
+    Retargeter schedule = new Retargeter(0x2000ffff, 4, 3_600_000);
+    BlockChain chain = new BlockChain(schedule, 1);
+    for (int i = 1; i < 9; i++) {
+      Block blk = chain.mine(new Transaction("", "A", 1));
+      assertTrue(
+          blk.getMinedAt() > chain.getBlock(i - 1).getMinedAt(), "mining time " + i + " increases");
+      chain.append(blk);
+    } // for
+    List<Block> blocks = new ArrayList<Block>();
+    chain.blocks().forEachRemaining(blocks::add);
+
+    Block last = chain.getBlock(8);
+    List<Transaction> ts = List.of(new Transaction("", "A", 1));
+    Block early = new Block(9, ts, last.getHash(), chain.getTarget(), last.getMinedAt());
+    early.mine(TargetValidator.fromCompact(chain.getTarget()));
+    assertThrows(IllegalArgumentException.class, () -> chain.append(early), "same mining time");
+    blocks.add(early);
+    ValidationResult result = new ChainValidator(schedule).validate(blocks);
+    assertEquals(9, result.getIndex(), "index of early block");
+    assertEquals(ValidationResult.Reason.TIME_NOT_INCREASING, result.getReason(), "early block");
+    blocks.remove(9);
+
+    long minedAt = chain.getBlock(7).getMinedAt();
+    chain.getBlock(7).setMinedAt(minedAt + 3_600_000);
+    result = chain.validate();
+    assertEquals(7, result.getIndex(), "index of rewritten mining time");
+    assertEquals(ValidationResult.Reason.HASH_MISMATCH, result.getReason(), "rewritten time");
+    chain.getBlock(7).setMinedAt(minedAt);
+    chain.check();
+
+    MiningState state = chain.miningState(List.of(new Transaction("", "B", 1)));
+    Block blk = chain.mineAsync(state, Duration.ofSeconds(30), Duration.ofDays(1), null).get();
+    assertEquals(state.getMinedAt(), blk.getMinedAt(), "stamped when the search started");
+    chain.append(blk);
+    assertTrue(chain.validate().isValid(), "valid after a background search");
+  } // testRetargetedStampsHashed()
+
+  /** Test balances as of earlier blocks. */
+  @Test
+  public void testBalanceAt() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.append(chain.mine(new Transaction("", "A", 100000)));
+    for (int i = 0; i < 3000; i++) {
+      chain.append(chain.mine(new Transaction((i % 2 == 0) ? "A" : "B", "C", 1)));
+    } // for
+    assertEquals(0, chain.balance("A", 0), "before any deposit");
+    assertEquals(100000, chain.balance("A", 1), "after the deposit");
+    assertEquals(-1, chain.balance("B", 3), "after B's first payment");
+    assertEquals(100000 - 1500, chain.balance("A", 3001), "at the end");
+    assertEquals(2000, chain.balance("C", 2001), "C part way");
+    assertEquals(chain.balance("C"), chain.balance("C", chain.getSize() - 1), "latest version");
+    assertThrows(IndexOutOfBoundsException.class, () -> chain.balance("A", chain.getSize()));
+
+    chain.rollback(2002);
+    assertEquals(2000, chain.balance("C"), "rolled back to a version");
+    chain.appendAll(payments(chain, 10));
+    assertEquals(2000, chain.balance("C", 2001), "old version after batch");
+    assertEquals(-1000 + 10, chain.balance("B", 2011), "B after batch");
+    assertTrue(chain.verifyBalances(), "balances match replay");
+  } // testBalanceAt()
+
+  /** Test that readers see consistent snapshots while the chain changes. */
+  @Test
+  public void testConcurrentReads() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.append(chain.mine(new Transaction("", "A", 100000)));
+    AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Thread reader =
+        new Thread(
+            () -> {
+              try {
+                for (int round = 0; round < 200; round++) {
+                  ChainSnapshot snap = chain.snapshot();
+                  int count = 0;
+                  for (Transaction t : snap) {
+                    count++;
+                  } // for
+                  assertEquals(snap.getSize(), count, "transactions in snapshot");
+                  assertEquals(snap.getBlock(snap.getSize() - 1).getHash(), snap.getHash(), "tail");
+                  assertEquals(100000, snap.balance("A") + snap.balance("B"), "coins in snapshot");
+                  assertEquals(snap.getSize() - 2, snap.balance("B"), "B's balance");
+                } // for
+              } catch (Throwable e) {
+                failure.set(e);
+              } // try catch
+            });
+    reader.start();
+    for (int i = 0; i < 3000; i++) {
+      if (i % 5 == 4) {
+        chain.removeLast();
+      } else {
+        chain.append(chain.mine(new Transaction("A", "B", 1)));
+      } // if else
+    } // for
+    reader.join();
+    if (failure.get() != null) {
+      fail(failure.get());
+    } // if
+    assertEquals(2 + 1800, chain.getSize(), "size after appends and removals");
+    assertTrue(chain.verifyBalances(), "balances match replay");
+  } // testConcurrentReads()
+
+  /** Test that changing a ledger leaves the original alone. */
+  @Test
+  public void testLedger() {
+    AccountRegistry accounts = new AccountRegistry();
+    Ledger empty = Ledger.empty(accounts);
+    Ledger ledger = empty;
+    for (int i = 0; i < 5000; i++) {
+      ledger = ledger.with("user" + i, i);
+    } // for
+    Ledger paid = ledger.apply(new Transaction("user10", "user4999", 10));
+    assertEquals(0, empty.size(), "empty ledger unchanged");
+    assertEquals(5000, ledger.size(), "users in ledger");
+    assertEquals(10, ledger.balance("user10"), "balance before payment");
+    assertEquals(0, paid.balance("user10"), "balance after payment");
+    assertEquals(5009, paid.balance("user4999"), "target after payment");
+    assertEquals(0, paid.balance("nobody"), "missing user");
+    assertEquals(Long.valueOf(0), paid.get("user10"), "user with no coins");
+    assertEquals(null, paid.get("nobody"), "user not in ledger");
+    assertEquals(ledger, new HashMap<String, Long>(ledger), "copy equals original");
+    assertEquals(ledger, Ledger.of(new AccountRegistry(), ledger), "ledger with other numbers");
+  } // testLedger()
+
+  /** Test that account numbers are dense and stable. */
+  @Test
+  public void testAccountRegistry() {
+    AccountRegistry accounts = new AccountRegistry();
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i, accounts.intern("user" + i), "next number");
+    } // for
+    assertEquals(1000, accounts.size(), "accounts interned");
+    assertEquals(123, accounts.intern("user123"), "interned again");
+    assertEquals(456, accounts.lookup("user456"), "looked up");
+    assertEquals(-1, accounts.lookup("nobody"), "not interned");
+    assertEquals("user789", accounts.name(789), "name of number");
+    assertThrows(IndexOutOfBoundsException.class, () -> accounts.name(1000));
+  } // testAccountRegistry()
+
+  /** Test that balances past the range of an int do not overflow. */
+  @Test
+  public void testLargeBalances() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    for (int i = 0; i < 3; i++) {
+      chain.append(chain.mine(new Transaction("", "A", Integer.MAX_VALUE)));
+    } // for
+    assertEquals(3L * Integer.MAX_VALUE, chain.balance("A"), "large balance");
+    chain.append(chain.mine(new Transaction("A", "B", Integer.MAX_VALUE)));
+    assertEquals(2L * Integer.MAX_VALUE, chain.balance("A", 4), "after payment");
+    assertTrue(chain.isCorrect(), "large balances are legal");
+    assertTrue(chain.verifyBalances(), "balances match replay");
+  } // testLargeBalances()
+
+  /** Test blocks that carry several transactions. */
+  @Test
+  public void testMultiTransactionBlocks() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true, 2);
+    chain.append(
+        chain.mine(
+            List.of(
+                new Transaction("", "A", 100),
+                new Transaction("A", "B", 30),
+                new Transaction("B", "C", 10))));
+    chain.append(chain.mine(new Transaction("C", "A", 5)));
+    assertEquals(75, chain.balance("A"), "A's balance");
+    assertEquals(20, chain.balance("B"), "B's balance");
+    assertEquals(5, chain.balance("C"), "C's balance");
+    assertEquals(70, chain.balance("A", 1), "A's balance after block 1");
+    assertTrue(chain.isCorrect(), "chain with several transactions per block");
+    assertTrue(chain.validateParallel().isValid(), "valid in parallel");
+
+    List<Transaction> all = new ArrayList<Transaction>();
+    for (Transaction t : chain) {
+      all.add(t);
+    } // for
+    assertEquals(5, all.size(), "transactions across blocks");
+    assertEquals(new Transaction("B", "C", 10), all.get(3), "transactions in order");
+
+    // A later transaction may not spend more than the ones before it leave.
+    chain.append(chain.mine(List.of(new Transaction("B", "D", 20), new Transaction("B", "D", 1))));
+    assertFalse(chain.isCorrect(), "B overdrew within a block");
+    assertTrue(chain.removeLast(), "remove overdrawn block");
+    BatchRejectedException e =
+        assertThrows(
+            BatchRejectedException.class,
+            () ->
+                chain.appendAll(
+                    List.of(
+                        chain.mine(
+                            List.of(
+                                new Transaction("A", "D", 75), new Transaction("A", "D", 1))))));
+    assertEquals(ValidationResult.Reason.INVALID_TRANSACTION, e.getResult().getReason(), "why");
+    assertEquals(3, chain.getSize(), "rejected batch not added");
+  } // testMultiTransactionBlocks()
+
+  /** Test mining in the background. */
+  @Test
+  public void testMineAsync() throws Exception {
+    BlockChain chain = new BlockChain(new LeadingZeroBitsValidator(8), 2);
+    Block blk = chain.mineAsync(new Transaction("", "A", 5)).get();
+    chain.append(blk);
+    assertEquals(5, chain.balance("A"), "A's balance");
+
+    BlockChain single = new BlockChain((hash) -> true);
+    single.append(
+        single
+            .mineAsync(
+                List.of(new Transaction("", "A", 5), new Transaction("A", "B", 2)),
+                null,
+                Duration.ofSeconds(1),
+                null)
+            .get());
+    assertEquals(2, single.balance("B"), "B's balance");
+    assertTrue(single.isCorrect(), "chain is correct");
+  } // testMineAsync()
+
+  /** Test that background mining can be timed out and cancelled, and reports its progress. */
+  @Test
+  public void testMineAsyncStops() throws Exception {
+    AtomicBoolean possible = new AtomicBoolean(true);
+    BlockChain chain = new BlockChain((hash) -> possible.get(), 2);
+    possible.set(false);
+    List<Transaction> ts = List.of(new Transaction("", "A", 1));
+    CompletableFuture<Block> timed =
+        chain.mineAsync(ts, Duration.ofMillis(100), Duration.ofDays(1), null);
+    ExecutionException e = assertThrows(ExecutionException.class, () -> timed.get());
+    assertTrue(e.getCause() instanceof TimeoutException, "timed out");
+
+    AtomicInteger reports = new AtomicInteger();
+    AtomicReference<MiningProgress> last = new AtomicReference<MiningProgress>();
+    CompletableFuture<Block> endless =
+        chain.mineAsync(
+            ts,
+            null,
+            Duration.ofMillis(1),
+            (progress) -> {
+              last.set(progress);
+              reports.incrementAndGet();
+            });
+    long deadline = System.currentTimeMillis() + 30_000;
+    while (reports.get() < 3) {
+      assertTrue(System.currentTimeMillis() < deadline, "workers freed after the timeout");
+      Thread.sleep(1);
+    } // while
+    assertTrue(last.get().getAttempts() >= MiningJob.CHECK_INTERVAL, "attempts counted");
+    assertTrue(last.get().getHashesPerSecond() > 0, "hash rate");
+    assertTrue(endless.cancel(true), "cancelled");
+    Thread.sleep(300);
+    int stopped = reports.get();
+    Thread.sleep(300);
+    assertEquals(stopped, reports.get(), "no reports after cancelling");
+  } // testMineAsyncStops()
+
+  /** Test that mining does not wait for background searches, however long they run. */
+  @Test
+  public void testMineBesideAsync() throws Exception {
+    // Searches in the background never succeed, so they run until cancelled.
+    BlockChain chain =
+        new BlockChain((hash) -> !Thread.currentThread().getName().startsWith("background"), 2);
+    List<Transaction> ts = List.of(new Transaction("", "A", 1));
+    CompletableFuture<Block> first = chain.mineAsync(ts, null, Duration.ofDays(1), null);
+    CompletableFuture<Block> second = chain.mineAsync(ts, null, Duration.ofDays(1), null);
+    try {
+      CompletableFuture<Block> mined =
+          CompletableFuture.supplyAsync(() -> chain.mine(new Transaction("", "B", 2)));
+      chain.append(mined.get(30, TimeUnit.SECONDS));
+      assertEquals(2, chain.balance("B"), "B's balance");
+      assertFalse(first.isDone(), "first background search still running");
+      assertFalse(second.isDone(), "second background search still running");
+    } finally {
+      first.cancel(true);
+      second.cancel(true);
+    } // try finally
+  } // testMineBesideAsync()
+
+  /** Test that a search saved part way through carries on where it stopped once reloaded. */
+  @Test
+  public void testResumeMining(@TempDir Path dir) throws Exception {
+    AtomicBoolean possible = new AtomicBoolean(true);
+    BlockChain chain = new BlockChain((hash) -> possible.get() && hash.get(0) == 0, 2);
+    possible.set(false);
+    MiningState state = chain.miningState(List.of(new Transaction("", "A", 1)));
+    assertEquals(2, state.getWorkers(), "one share per worker");
+    CompletableFuture<Block> first = chain.mineAsync(state, null, Duration.ofDays(1), null);
+    long deadline = System.currentTimeMillis() + 30_000;
+    while (state.getSearched() < 4 * MiningJob.CHECK_INTERVAL) {
+      assertTrue(System.currentTimeMillis() < deadline, "search progressed");
+      Thread.sleep(1);
+    } // while
+    assertThrows(
+        IllegalStateException.class,
+        () -> chain.mineAsync(state, null, Duration.ofDays(1), null),
+        "one search at a time");
+    first.cancel(true);
+
+    Path file = dir.resolve("mining.state");
+    state.save(file);
+    MiningState loaded = MiningState.load(file);
+    byte[] damaged = Files.readAllBytes(file);
+    damaged[damaged.length / 2] ^= 1;
+    Path bad = dir.resolve("damaged.state");
+    Files.write(bad, damaged);
+    assertThrows(IOException.class, () -> MiningState.load(bad), "damage detected");
+    assertEquals(state.getTransactions(), loaded.getTransactions(), "transactions saved");
+    assertEquals(chain.getHash(), loaded.getPrevHash(), "previous hash saved");
+    assertEquals(state.getMinedAt(), loaded.getMinedAt(), "mining time saved");
+    assertEquals(0, loaded.getSearched() % MiningJob.CHECK_INTERVAL, "whole intervals recorded");
+    assertTrue(loaded.getSearched() >= 4 * MiningJob.CHECK_INTERVAL, "progress saved");
+    long[] starts = {loaded.getNext(0), loaded.getNext(1)};
+    assertEquals(0, starts[0] % 2, "worker 0 tries even nonces");
+    assertEquals(1, starts[1] % 2, "worker 1 tries odd nonces");
+
+    possible.set(true);
+    Block blk = chain.mineAsync(loaded, Duration.ofSeconds(30), Duration.ofDays(1), null).get();
+    assertTrue(blk.getNonce() >= starts[(int) (blk.getNonce() % 2)], "resumed where it stopped");
+    assertTrue(loaded.isSolved(), "solution recorded");
+    chain.append(blk);
+    assertEquals(1, chain.balance("A"), "A's balance");
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> chain.mineAsync(loaded, null, Duration.ofDays(1), null),
+        "state for a block already on the chain");
+
+    possible.set(false);
+    MiningState last = chain.miningState(List.of(new Transaction("", "B", 1)));
+    last.advance(0, -4);
+    last.advance(1, -3);
+    ExecutionException e =
+        assertThrows(
+            ExecutionException.class,
+            () -> chain.mineAsync(last, null, Duration.ofDays(1), null).get());
+    assertTrue(e.getCause() instanceof NoSuchElementException, "every nonce tried");
+    assertTrue(last.isExhausted(), "every worker finished");
+    assertEquals(-2, last.getNext(0), "worker 0 stopped at its last nonce");
+    assertEquals(-1, last.getNext(1), "worker 1 stopped at its last nonce");
+  } // testResumeMining(Path)
+
   /** Test modifying a valid chain. */
   @Test
   public void testModifiedChain() throws Exception {
@@ -424,7 +1150,10 @@ public class TestBlockChain {
     Iterator<Block> blocks = chain.blocks();
     blocks.next();
     blocks.next().transaction = new Transaction("", "F", 1000);
+    assertEquals(110, chain.balance("F"), "F's balance before verifying");
+    assertFalse(chain.verifyBalances(), "balances do not match modified chain");
     assertEquals(1010, chain.balance("F"), "F's balance in modified chain");
+    assertTrue(chain.verifyBalances(), "balances match after verifying");
     assertFalse(chain.isCorrect(), "modified chain is incorrect");
     assertCheckFails(chain, "modified chain is incorrect");
   } // testModifiedChain()
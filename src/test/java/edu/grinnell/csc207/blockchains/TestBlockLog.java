@@ -0,0 +1,230 @@
+package edu.grinnell.csc207.blockchains;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of our block logs.
+ *
+ * @author Harrison Zhu
+ */
+public class TestBlockLog {
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Build a logged chain of the given size, paying one coin back and forth.
+   *
+   * @param log The log.
+   * @param size The number of blocks.
+   * @return the chain.
+   */
+  static BlockChain buildChain(BlockLog log, int size) {
+    BlockChain chain = new BlockChain((hash) -> true, 1, log);
+    chain.append(chain.mine(new Transaction("", "A", 10)));
+    for (int i = 2; i < size; i++) {
+      chain.append(
+          chain.mine(new Transaction((i % 2 == 0) ? "A" : "B", (i % 2 == 0) ? "B" : "A", 1)));
+    } // for
+    return chain;
+  } // buildChain(BlockLog, int)
+
+  // +-------+-------------------------------------------------------
+  // | Tests |
+  // +-------+
+
+  /** Test that a chain reloaded from its log matches the original. */
+  @Test
+  public void testRoundTrip(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.log");
+    BlockLog log = new BlockLog(file, BlockLog.Durability.NONE, 1);
+    BlockChain chain = buildChain(log, 5001);
+    log.close();
+
+    log = new BlockLog(file);
+    assertEquals(5001, log.size(), "blocks in reopened log");
+    BlockChain reloaded = new BlockChain((hash) -> true, 1, log);
+    assertEquals(chain.getSize(), reloaded.getSize(), "size of reloaded chain");
+    assertEquals(chain.getHash(), reloaded.getHash(), "hash of reloaded chain");
+    assertEquals(chain.balance("A"), reloaded.balance("A"), "A's balance");
+    assertEquals(chain.balance("B"), reloaded.balance("B"), "B's balance");
+    assertEquals(chain.getBlock(1234).toString(), log.read(1234).toString(), "random access");
+    reloaded.check();
+
+    reloaded.append(reloaded.mine(new Transaction("A", "C", 1)));
+    assertEquals(1, reloaded.balance("C"), "append after reload");
+    assertEquals(5002, log.size(), "appended block is logged");
+    log.close();
+  } // testRoundTrip()
+
+  /** Test that removing blocks truncates the log, whether or not they have been written yet. */
+  @Test
+  public void testRemoveLast(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.log");
+    BlockLog log = new BlockLog(file, BlockLog.Durability.BATCH, 4);
+    BlockChain chain = buildChain(log, 10);
+    long size = Files.size(file);
+    assertTrue(chain.removeLast(), "remove buffered block");
+    assertTrue(chain.removeLast(), "remove buffered block");
+    assertEquals(size, Files.size(file), "only the buffer changed");
+    assertTrue(chain.removeLast(), "remove written block");
+    assertTrue(Files.size(file) < size, "log truncated");
+    chain.append(chain.mine(new Transaction("A", "B", 1)));
+    log.close();
+
+    log = new BlockLog(file);
+    List<Block> blocks = log.readAll();
+    assertEquals(8, blocks.size(), "blocks after removal");
+    assertEquals(chain.getHash(), blocks.get(7).getHash(), "last block replaced");
+    log.removeLast();
+    log.close();
+    try (BlockLog reopened = new BlockLog(file)) {
+      assertEquals(7, reopened.size(), "removal without a chain");
+    } // try
+  } // testRemoveLast()
+
+  /** Test that blocks with several transactions survive a round trip through the log. */
+  @Test
+  public void testMultiTransactionRoundTrip(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.log");
+    BlockLog log = new BlockLog(file);
+    BlockChain chain = buildChain(log, 3);
+    List<Transaction> batch =
+        List.of(
+            new Transaction("A", "C", 2), new Transaction("C", "D", 1), new Transaction("", "", 0));
+    chain.append(chain.mine(batch));
+    chain.append(chain.mine(new Transaction("D", "A", 1)));
+    log.close();
+
+    log = new BlockLog(file);
+    assertEquals(batch, log.read(3).getTransactions(), "transactions of decoded block");
+    assertEquals(batch, log.readTransactions(3), "transactions read without decoding");
+    assertEquals(1, log.readTransactions(4).size(), "single transaction after batch");
+    BlockChain reloaded = new BlockChain((hash) -> true, 1, log);
+    assertEquals(chain.getHash(), reloaded.getHash(), "hash of reloaded chain");
+    int count = 0;
+    for (Transaction t : reloaded) {
+      count++;
+    } // for
+    assertEquals(7, count, "transactions in reloaded chain");
+    assertEquals(1, reloaded.balance("C"), "C's balance");
+    assertTrue(reloaded.isCorrect(), "reloaded chain is correct");
+    log.close();
+  } // testMultiTransactionRoundTrip()
+
+  /** Test that a reloaded chain answers queries without decoding every block. */
+  @Test
+  public void testLazyLoad(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.log");
+    BlockLog log = new BlockLog(file);
+    BlockChain chain = buildChain(log, 3000);
+    Hash middle = chain.getBlock(1500).getHash();
+    log.close();
+
+    log = new BlockLog(file);
+    BlockChain reloaded = new BlockChain((hash) -> true, 1, log);
+    assertEquals(3000, reloaded.getSize(), "size without decoding");
+    assertEquals(chain.getHash(), reloaded.getHash(), "last hash without decoding");
+    assertEquals(1500, reloaded.findByHash(middle), "find by hash");
+    int transactions = 0;
+    for (Transaction t : reloaded) {
+      transactions += t.getAmount();
+    } // for
+    assertEquals(10 + 2998, transactions, "transactions read from the log");
+    assertTrue(reloaded.validateParallel().isValid(), "valid in parallel");
+    assertTrue(reloaded.removeLast(), "remove decoded block");
+    assertEquals(-1, reloaded.findByHash(chain.getHash()), "removed block not found");
+    log.close();
+  } // testLazyLoad()
+
+  /** Test that a missing or damaged index is rebuilt from the segment file. */
+  @Test
+  public void testIndexRebuilt(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.log");
+    Path index = dir.resolve("chain.log.idx");
+    BlockLog log = new BlockLog(file);
+    BlockChain chain = buildChain(log, 100);
+    log.close();
+    assertEquals(100 * Long.BYTES, Files.size(index), "one offset per block");
+
+    Files.delete(index);
+    try (BlockLog reopened = new BlockLog(file)) {
+      assertEquals(100, reopened.size(), "blocks without an index");
+      assertEquals(chain.getHash(), reopened.readHash(99), "last block without an index");
+    } // try
+    assertEquals(100 * Long.BYTES, Files.size(index), "index rewritten");
+
+    try (FileChannel channel = FileChannel.open(index, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.allocate(Long.BYTES).putLong(0, 12345), 50 * Long.BYTES);
+    } // try
+    try (BlockLog reopened = new BlockLog(file)) {
+      assertEquals(100, reopened.size(), "blocks with a damaged index");
+      assertEquals(
+          chain.getBlock(77).toString(), reopened.read(77).toString(), "block after damage");
+    } // try
+  } // testIndexRebuilt()
+
+  /** Test that a reloaded chain restores its balances from the latest checkpoint. */
+  @Test
+  public void testCheckpointRestart(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.log");
+    BlockLog log = new BlockLog(file);
+    BlockChain chain = new BlockChain((hash) -> true, 1, log);
+    chain.setCheckpointInterval(100);
+    for (int i = 1; i < 250; i++) {
+      chain.append(chain.mine(new Transaction("", (i % 3 == 0) ? "A" : "B", i)));
+    } // for
+    long balanceA = chain.balance("A");
+    log.close();
+    new LedgerCheckpoint(300, chain.getHash(), Map.of("A", 1L)).save(file);
+
+    log = new BlockLog(file);
+    BlockChain reloaded = new BlockChain((hash) -> true, 1, log);
+    assertEquals(200, reloaded.getCheckpoint().getBlockCount(), "latest matching checkpoint");
+    assertFalse(Files.exists(dir.resolve("chain.log.ckpt.300")), "stale checkpoint deleted");
+    assertEquals(balanceA, reloaded.balance("A"), "balance from checkpoint and suffix");
+    assertEquals(chain.balance("A", 150), reloaded.balance("A", 150), "balance after checkpoint");
+    assertEquals(chain.balance("B", 50), reloaded.balance("B", 50), "balance before checkpoint");
+    assertTrue(reloaded.verifyBalances(), "balances match replay");
+
+    reloaded.rollback(150);
+    assertFalse(Files.exists(dir.resolve("chain.log.ckpt.200")), "rolled-back checkpoint deleted");
+    assertEquals(100, reloaded.getCheckpoint().getBlockCount(), "earlier checkpoint kept");
+    assertTrue(reloaded.verifyBalances(), "balances match replay after rollback");
+    log.close();
+  } // testCheckpointRestart()
+
+  /** Test that a torn record at the end of the log is dropped on opening. */
+  @Test
+  public void testTornRecord(@TempDir Path dir) throws Exception {
+    Path file = dir.resolve("chain.log");
+    BlockLog log = new BlockLog(file, BlockLog.Durability.SYNC, 1);
+    buildChain(log, 3);
+    log.close();
+
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 3);
+    } // try
+    log = new BlockLog(file);
+    assertEquals(2, log.size(), "torn record dropped");
+    log.close();
+
+    Files.write(file, new byte[] {0, 0, 0, 9, 1, 2}, StandardOpenOption.APPEND);
+    log = new BlockLog(file);
+    assertEquals(2, log.size(), "garbage dropped");
+    assertFalse(log.read(1).getTransaction().getTarget().isEmpty(), "surviving record intact");
+    log.close();
+  } // testTornRecord()
+} // class TestBlockLog
@@ -66,6 +66,74 @@ public class TestHash {
     assertEquals("FE", (new Hash(new byte[] {(byte) 254})).toString(), "254 -> FE");
   } // testHarderStrings
 
+  /** Test the string form of every byte value. */
+  @Test
+  public void testAllByteStrings() {
+    for (int b = 0; b < 256; b++) {
+      assertEquals(
+          String.format("%02X%02X", b, 255 - b),
+          (new Hash(new byte[] {(byte) b, (byte) (255 - b)})).toString(),
+          "hex of " + b);
+    } // for
+  } // testAllByteStrings()
+
+  /** Test that equal hashes have equal hash codes. */
+  @Test
+  public void testHashCode() {
+    byte[] bytes = new byte[32];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) (i * 37);
+      Hash h = new Hash(bytes);
+      assertEquals(h, new Hash(bytes), "equal to a copy with " + i + " changes");
+      assertEquals(h.hashCode(), new Hash(bytes).hashCode(), "hash code with " + i + " changes");
+    } // for
+    assertNotEquals(
+        new Hash(new byte[] {1, 2}).hashCode(),
+        new Hash(new byte[] {1, 3}).hashCode(),
+        "different last bytes give different hash codes");
+  } // testHashCode()
+
+  /** Test SHA-256-sized hashes, which are stored as words. */
+  @Test
+  public void testWordHashes() {
+    byte[] bytes = new byte[32];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) (255 - 7 * i);
+    } // for
+    Hash h = new Hash(bytes);
+    assertEquals(32, h.length(), "length of word hash");
+    for (int i = 0; i < bytes.length; i++) {
+      assertEquals(bytes[i], h.get(i), "element " + i + " of word hash");
+    } // for
+    assertArrayEquals(bytes, h.getBytes(), "bytes of word hash");
+    assertTrue(h.equals(Hash.wrap(bytes)), "word hash equals shared hash with the same bytes");
+    assertTrue(Hash.wrap(bytes).equals(h), "shared hash equals word hash with the same bytes");
+    assertEquals(h.hashCode(), Hash.wrap(bytes).hashCode(), "hash codes of both forms");
+    assertEquals(Hash.wrap(bytes).toString(), h.toString(), "strings of both forms");
+    assertEquals(0, h.compareTo(Hash.wrap(bytes)), "compare to the same bytes");
+
+    bytes[31]++;
+    assertFalse(h.equals(new Hash(bytes)), "word hash with different last byte");
+    assertTrue(h.compareTo(new Hash(bytes)) < 0, "word hash with larger last byte");
+    bytes[0] = 0;
+    assertTrue(h.compareTo(new Hash(bytes)) > 0, "word hash with smaller first byte");
+  } // testWordHashes()
+
+  /** Test counting leading zero bits. */
+  @Test
+  public void testLeadingZeroBits() {
+    for (int bits = 0; bits <= 256; bits++) {
+      byte[] bytes = new byte[32];
+      if (bits < 256) {
+        bytes[bits / 8] = (byte) (0x80 >>> (bits % 8));
+        bytes[31] |= 1;
+      } // if
+      assertEquals(bits, new Hash(bytes).leadingZeroBits(), "word hash, " + bits + " zero bits");
+      assertEquals(bits, Hash.wrap(bytes).leadingZeroBits(), "byte hash, " + bits + " zero bits");
+    } // for
+    assertEquals(12, new Hash(new byte[] {0, 15, 1}).leadingZeroBits(), "short hash");
+  } // testLeadingZeroBits()
+
   /** Ensure that future modifications to the byte array don't affect the hash. */
   @Test
   public void testParamCopied() {
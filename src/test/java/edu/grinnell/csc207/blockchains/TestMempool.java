@@ -0,0 +1,155 @@
+package edu.grinnell.csc207.blockchains;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of our transaction pools.
+ *
+ * @author Harrison Zhu
+ */
+public class TestMempool {
+  // +-------+-------------------------------------------------------
+  // | Tests |
+  // +-------+
+
+  /** Test that duplicates and overdrafts are turned away. */
+  @Test
+  public void testSubmit() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    Mempool pool = new Mempool(chain);
+    Transaction first = new Transaction("A", "B", 60);
+    assertEquals(Mempool.Status.ACCEPTED, pool.submit(first), "first");
+    assertEquals(Mempool.Status.DUPLICATE, pool.submit(first), "same again");
+    assertEquals(
+        Mempool.Status.OVERDRAWN,
+        pool.submit(new Transaction("A", "B", 60)),
+        "an equal payment is a separate debit");
+    assertEquals(
+        Mempool.Status.OVERDRAWN,
+        pool.submit(new Transaction("A", "C", 50)),
+        "more than A has left after pending debits");
+    assertEquals(Mempool.Status.ACCEPTED, pool.submit(new Transaction("A", "C", 40)), "the rest");
+    assertEquals(
+        Mempool.Status.OVERDRAWN,
+        pool.submit(new Transaction("B", "C", 1)),
+        "pending credits do not count");
+    assertEquals(Mempool.Status.INVALID, pool.submit(new Transaction("", "C", -1)), "negative");
+    assertEquals(100, pool.pendingDebits("A"), "A's pending debits");
+    assertEquals(2, pool.size(), "transactions waiting");
+
+    Block blk = pool.mineNext(10);
+    assertEquals(2, blk.getTransactionCount(), "one block for the batch");
+    assertEquals(0, chain.balance("A"), "A's balance");
+    assertEquals(0, pool.pendingDebits("A"), "debits released");
+    assertEquals(0, pool.sourcesWithDebits(), "released sources forgotten");
+    assertEquals(0, pool.size(), "pool empty");
+    assertEquals(null, pool.mineNext(10), "nothing to mine");
+    assertEquals(
+        Mempool.Status.ACCEPTED, pool.submit(new Transaction("A", "B", 0)), "settled not pending");
+    assertTrue(chain.isCorrect(), "chain is correct");
+  } // testSubmit()
+
+  /** Test that separate payments with the same source, target, and amount are all accepted. */
+  @Test
+  public void testRepeatedPayments() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.append(chain.mine(new Transaction("", "A", 100)));
+    Mempool pool = new Mempool(chain);
+    for (int i = 0; i < 3; i++) {
+      assertEquals(
+          Mempool.Status.ACCEPTED, pool.submit(new Transaction("A", "B", 30)), "payment " + i);
+    } // for
+    assertEquals(90, pool.pendingDebits("A"), "every payment held");
+    assertEquals(3, pool.mineNext(10).getTransactionCount(), "every payment mined");
+    assertEquals(90, chain.balance("B"), "B's balance");
+    assertEquals(0, pool.sourcesWithDebits(), "no debits left");
+  } // testRepeatedPayments()
+
+  /** Test that batches come out in order of priority, in blocks of the given size. */
+  @Test
+  public void testPriority() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    Mempool pool =
+        new Mempool(chain, Comparator.comparingInt(Transaction::getAmount).reversed(), 100);
+    for (int i = 1; i <= 10; i++) {
+      pool.submit(new Transaction("", "U" + (i % 3), i));
+    } // for
+    pool.submit(new Transaction("", "V", 5));
+    List<Transaction> batch = pool.nextBatch(4);
+    assertEquals(4, batch.size(), "batch size");
+    assertEquals(10, batch.get(0).getAmount(), "largest first");
+    assertEquals(7, batch.get(3).getAmount(), "in order");
+    pool.restore(batch);
+    assertEquals(11, pool.size(), "restored");
+    assertEquals(batch, pool.waiting().subList(0, 4), "restored in place");
+    batch = pool.nextBatch(100);
+    assertEquals("U2", batch.get(5).getTarget(), "ties in order of arrival");
+    assertEquals("V", batch.get(6).getTarget(), "ties in order of arrival");
+  } // testPriority()
+
+  /** Test that transactions no longer legal are dropped from batches. */
+  @Test
+  public void testStale() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.append(chain.mine(new Transaction("", "A", 10)));
+    Mempool pool = new Mempool(chain);
+    pool.submit(new Transaction("A", "B", 10));
+    chain.append(chain.mine(new Transaction("A", "C", 5)));
+    assertEquals(0, pool.nextBatch(10).size(), "stale transaction dropped");
+    assertEquals(1, pool.getDropped(), "dropped count");
+    assertEquals(0, pool.pendingDebits("A"), "debit released");
+  } // testStale()
+
+  /** Test that many threads can submit at once without overdrawing anyone. */
+  @Test
+  public void testConcurrentSubmit() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    chain.append(chain.mine(new Transaction("", "A", 1000)));
+    Mempool pool = new Mempool(chain);
+    AtomicLong accepted = new AtomicLong();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 8; t++) {
+      int id = t;
+      Thread thread =
+          new Thread(
+              () -> {
+                for (int i = 0; i < 500; i++) {
+                  int amount = i % 5 + 1;
+                  if (pool.submit(new Transaction("A", "T" + id, amount))
+                      == Mempool.Status.ACCEPTED) {
+                    accepted.addAndGet(amount);
+                  } // if
+                } // for
+              });
+      threads.add(thread);
+      thread.start();
+    } // for
+    Thread miner =
+        new Thread(
+            () -> {
+              for (int i = 0; i < 20; i++) {
+                pool.mineNext(16);
+              } // for
+            });
+    miner.start();
+    for (Thread thread : threads) {
+      thread.join();
+    } // for
+    miner.join();
+    while (pool.mineNext(64) != null) {
+      // Mine whatever is left.
+    } // while
+    assertEquals(1000 - accepted.get(), chain.balance("A"), "every accepted payment mined");
+    assertTrue(chain.balance("A") >= 0, "A not overdrawn");
+    assertEquals(0, pool.pendingDebits("A"), "debits released");
+    assertTrue(chain.isCorrect(), "chain is correct");
+  } // testConcurrentSubmit()
+} // class TestMempool
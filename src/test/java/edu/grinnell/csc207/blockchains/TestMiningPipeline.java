@@ -0,0 +1,136 @@
+package edu.grinnell.csc207.blockchains;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of our mining pipelines.
+ *
+ * @author Harrison Zhu
+ */
+public class TestMiningPipeline {
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Wait until a pipeline has appended a number of transactions.
+   *
+   * @param pipeline The pipeline.
+   * @param count The number of transactions.
+   */
+  static void awaitAppended(MiningPipeline pipeline, long count) throws Exception {
+    long deadline = System.currentTimeMillis() + 30_000;
+    while (pipeline.getTransactionsAppended() < count) {
+      if (System.currentTimeMillis() > deadline) {
+        fail("Only " + pipeline.getTransactionsAppended() + " of " + count + " appended");
+      } // if
+      Thread.sleep(1);
+    } // while
+  } // awaitAppended(MiningPipeline, long)
+
+  // +-------+-------------------------------------------------------
+  // | Tests |
+  // +-------+
+
+  /** Test that transactions from several producers all end up on a retargeted chain. */
+  @Test
+  public void testPipeline() throws Exception {
+    BlockChain chain = new BlockChain(new Retargeter(0x2000ffff, 16, 1), 2);
+    Mempool pool = new Mempool(chain);
+    MiningPipeline pipeline = new MiningPipeline(chain, pool, 8, 2);
+    pipeline.start();
+    AtomicLong accepted = new AtomicLong();
+    List<Thread> producers = new ArrayList<Thread>();
+    for (int p = 0; p < 4; p++) {
+      int id = p;
+      Thread producer =
+          new Thread(
+              () -> {
+                for (int i = 0; i < 100; i++) {
+                  if (pipeline.submit(new Transaction("", "P" + id, i))
+                      == Mempool.Status.ACCEPTED) {
+                    accepted.incrementAndGet();
+                  } // if
+                } // for
+              });
+      producers.add(producer);
+      producer.start();
+    } // for
+    for (Thread producer : producers) {
+      producer.join();
+    } // for
+    awaitAppended(pipeline, 400);
+    pipeline.shutdown();
+
+    assertEquals(400, accepted.get(), "every deposit accepted");
+    assertEquals(400, pipeline.getTransactionsAppended(), "every deposit appended");
+    assertEquals(chain.getSize() - 1, pipeline.getBlocksAppended(), "blocks appended");
+    assertTrue(pipeline.getBlocksAppended() >= 50, "at most 8 per block");
+    assertEquals(4950, chain.balance("P3"), "P3's balance");
+    assertEquals(0, pipeline.getQueueDepth(), "pool drained");
+    assertEquals(0, pipeline.getPipelineDepth(), "nothing left to append");
+    assertTrue(pipeline.getBlocksPerSecond() > 0, "blocks per second");
+    assertTrue(chain.isCorrect(), "chain is correct");
+  } // testPipeline()
+
+  /** Test that the pipeline recovers when something else appends to the chain. */
+  @Test
+  public void testInterference() throws Exception {
+    BlockChain chain = new BlockChain((hash) -> true);
+    Mempool pool = new Mempool(chain);
+    MiningPipeline pipeline = new MiningPipeline(chain, pool, 4, 1);
+    pipeline.start();
+    int outside = 0;
+    for (int i = 0; i < 200; i++) {
+      pipeline.submit(new Transaction("", "A", i));
+      try {
+        chain.append(chain.mine(new Transaction("", "B", 1)));
+        outside++;
+      } catch (IllegalArgumentException e) {
+        // The pipeline got there first.
+      } // try catch
+    } // for
+    awaitAppended(pipeline, 200);
+    pipeline.shutdown();
+
+    assertEquals(19900, chain.balance("A"), "every pipeline deposit appended once");
+    assertEquals(outside, chain.balance("B"), "every outside deposit appended");
+    assertEquals(chain.getSize() - 1 - outside, pipeline.getBlocksAppended(), "pipeline blocks");
+    assertTrue(chain.isCorrect(), "chain is correct");
+  } // testInterference()
+
+  /** Test that the pipeline carries on when appending fails unexpectedly. */
+  @Test
+  public void testAppendThrows() throws Exception {
+    AtomicInteger faults = new AtomicInteger(3);
+    BlockChain chain =
+        new BlockChain(
+            (hash) -> {
+              if (Thread.currentThread().getName().equals("pipeline-appender")
+                  && faults.getAndUpdate((n) -> Math.max(0, n - 1)) > 0) {
+                throw new IndexOutOfBoundsException("Simulated failure");
+              } // if
+              return true;
+            });
+    Mempool pool = new Mempool(chain);
+    MiningPipeline pipeline = new MiningPipeline(chain, pool, 2, 1);
+    pipeline.start();
+    for (int i = 0; i < 20; i++) {
+      pipeline.submit(new Transaction("", "A", i));
+    } // for
+    awaitAppended(pipeline, 20);
+    pipeline.shutdown();
+
+    assertEquals(190, chain.balance("A"), "every deposit appended once");
+    assertTrue(pipeline.getFailures() >= 3, "failures counted");
+    assertTrue(chain.isCorrect(), "chain is correct");
+  } // testAppendThrows()
+} // class TestMiningPipeline
@@ -0,0 +1,124 @@
+package edu.grinnell.csc207.blockchains;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigInteger;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of our difficulty validators.
+ *
+ * @author Harrison Zhu
+ */
+public class TestValidators {
+  // +---------+-----------------------------------------------------
+  // | Helpers |
+  // +---------+
+
+  /**
+   * Make sure that a validator gives the same answer for a digest and its hash, and that the
+   * leading limit never rejects a valid digest.
+   *
+   * @param v The validator.
+   * @param digest The digest.
+   * @return whether the digest is valid.
+   */
+  static boolean checkConsistent(DigestValidator v, byte[] digest) {
+    boolean valid = v.isValid(digest);
+    assertEquals(valid, v.isValid(new Hash(digest)), "digest and hash agree for " + v);
+    if (valid) {
+      assertTrue(
+          Long.compareUnsigned(Hash.readLong(digest, 0), v.leadingLimit()) <= 0,
+          "leading limit allows valid digest for " + v);
+    } // if
+    return valid;
+  } // checkConsistent(DigestValidator, byte[])
+
+  // +-------+-------------------------------------------------------
+  // | Tests |
+  // +-------+
+
+  /** Test counting leading zero bits. */
+  @Test
+  public void testLeadingZeroBits() {
+    LeadingZeroBitsValidator v = new LeadingZeroBitsValidator(12);
+    byte[] digest = new byte[32];
+    digest[1] = 0x0F;
+    assertTrue(checkConsistent(v, digest), "exactly 12 zero bits");
+    digest[1] = 0x10;
+    assertFalse(checkConsistent(v, digest), "11 zero bits");
+    digest[1] = 0;
+    assertTrue(checkConsistent(v, digest), "all zero bits");
+    assertTrue(checkConsistent(new LeadingZeroBitsValidator(256), digest), "256 zero bits");
+    assertFalse(v.isValid(new Hash(new byte[] {0})), "hash too short");
+  } // testLeadingZeroBits()
+
+  /** Test a target given in compact form. */
+  @Test
+  public void testCompactTarget() {
+    TargetValidator v = TargetValidator.fromCompact(0x1d00ffff);
+    assertEquals(
+        BigInteger.valueOf(0xffff).shiftLeft(208), v.getTarget(), "Bitcoin's first target");
+    assertEquals(0x1d00ffff, v.toCompact(), "back to compact form");
+    assertEquals(0x00000000ffff0000L, v.leadingLimit(), "leading limit of first target");
+
+    byte[] digest = new byte[32];
+    digest[4] = (byte) 0xFF;
+    digest[5] = (byte) 0xFF;
+    assertTrue(checkConsistent(v, digest), "digest equal to target");
+    digest[31] = 1;
+    assertFalse(checkConsistent(v, digest), "digest just above target");
+    digest[5] = (byte) 0xFE;
+    assertTrue(checkConsistent(v, digest), "digest below target");
+    assertEquals(0x03123456, TargetValidator.fromCompact(0x03123456).toCompact(), "small target");
+    assertEquals(0x02008000, TargetValidator.fromCompact(0x02008000).toCompact(), "sign bit");
+  } // testCompactTarget()
+
+  /** Test matching a prefix under a mask. */
+  @Test
+  public void testPrefixMask() {
+    PrefixMaskValidator v =
+        new PrefixMaskValidator(new byte[] {(byte) 0xFF, (byte) 0xF0}, new byte[] {2, 0x2F});
+    byte[] digest = new byte[32];
+    digest[0] = 2;
+    digest[1] = 0x2A;
+    assertTrue(checkConsistent(v, digest), "matching prefix");
+    digest[1] = 0x3A;
+    assertFalse(checkConsistent(v, digest), "wrong masked bits");
+    assertTrue(v.isValid(new Hash(new byte[] {2, 0x21, 5})), "short matching hash");
+    assertFalse(v.isValid(new Hash(new byte[] {2})), "hash too short");
+  } // testPrefixMask()
+
+  /** Test that validators agree with simple byte-by-byte checks on random digests. */
+  @Test
+  public void testRandomDigests() {
+    Random rand = new Random(207);
+    LeadingZeroBitsValidator bits = new LeadingZeroBitsValidator(3);
+    TargetValidator target = TargetValidator.fromNumber(BigInteger.ONE.shiftLeft(253));
+    PrefixMaskValidator mask = new PrefixMaskValidator(new byte[] {(byte) 0xE0}, new byte[] {0});
+    for (int i = 0; i < 1000; i++) {
+      byte[] digest = new byte[32];
+      rand.nextBytes(digest);
+      boolean expected = (digest[0] & 0xE0) == 0;
+      assertEquals(expected, checkConsistent(bits, digest), "leading zero bits");
+      assertEquals(
+          expected || new BigInteger(1, digest).equals(BigInteger.ONE.shiftLeft(253)),
+          checkConsistent(target, digest),
+          "target");
+      assertEquals(expected, checkConsistent(mask, digest), "prefix mask");
+    } // for
+  } // testRandomDigests()
+
+  /** Make sure that mining uses digest validators correctly. */
+  @Test
+  public void testMineWithDigestValidator() throws Exception {
+    LeadingZeroBitsValidator v = new LeadingZeroBitsValidator(10);
+    BlockChain chain = new BlockChain(v);
+    chain.append(chain.mine(new Transaction("", "A", 10)));
+    assertTrue(chain.getHash().leadingZeroBits() >= 10, "mined hash has enough zero bits");
+    chain.check();
+  } // testMineWithDigestValidator()
+} // class TestValidators